@@ -0,0 +1,54 @@
+package com.cert.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.cert.support.KeystoreFixtures;
+
+/**
+ * Synthetic keystores and scratch directories shared by the benchmarks.
+ */
+final class BenchmarkKeystores {
+
+	private BenchmarkKeystores() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Generates a keystore with the given number of entries, of which the given ratio is expired.
+	 */
+	static File generate(final Path file, final String storeType, final int entries, final double expiredRatio)
+			throws IOException, GeneralSecurityException {
+		final int expired = (int) Math.round(entries * expiredRatio);
+		return KeystoreFixtures.createKeystore(file, storeType, entries - expired, expired);
+	}
+
+	/**
+	 * Restores a working copy from its pristine original, so every invocation starts from the same state.
+	 */
+	static File copy(final File pristine, final Path target) throws IOException {
+		return Files.copy(pristine.toPath(), target, StandardCopyOption.REPLACE_EXISTING).toFile();
+	}
+
+	static void delete(final Path directory) throws IOException {
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * The sweep logs every keystore at INFO; keep it out of the measurements.
+	 */
+	static void quietLogging() {
+		Logger.getLogger("").setLevel(Level.WARNING);
+		Logger.getLogger("com.cert").setLevel(Level.WARNING);
+	}
+}
@@ -0,0 +1,107 @@
+package com.cert.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cert.keystore.KeystoreManager;
+import com.cert.keystore.LoadMode;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.KeystoreManagerTask;
+import com.cert.task.SweepContext;
+
+/**
+ * Measures the phases of processing a single keystore: load, filter, save and the whole task.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeystoreManagerBenchmark {
+
+	@Param({ "100", "1000", "10000", "50000" })
+	public int entries;
+
+	@Param({ "0.0", "0.05" })
+	public double expiredRatio;
+
+	@Param({ "JKS", "PKCS12" })
+	public String storeType;
+
+	@Param({ "STREAM", "CHANNEL" })
+	public LoadMode loadMode;
+
+	private Path directory;
+	private File pristine;
+	private File working;
+	private KeystoreManager loaded;
+	private KeystoreManager loadedParallel;
+	private KeystoreManager filtered;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		BenchmarkKeystores.quietLogging();
+		directory = Files.createTempDirectory("keystore-benchmark");
+		pristine = BenchmarkKeystores.generate(directory.resolve("pristine." + storeType), storeType, entries, expiredRatio);
+		working = directory.resolve("working." + storeType).toFile();
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() throws Exception {
+		BenchmarkKeystores.copy(pristine, working.toPath());
+		loaded = new KeystoreManager(working, KeystoreFixtures.PASSWORD, loadMode);
+		loadedParallel = new KeystoreManager(working, KeystoreFixtures.PASSWORD, loadMode);
+		loadedParallel.setParallelThreshold(1, SweepContext.defaults().getParallelFilterPool());
+		filtered = new KeystoreManager(working, KeystoreFixtures.PASSWORD, loadMode);
+		filtered.filterExpiredKeys();
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws Exception {
+		BenchmarkKeystores.delete(directory);
+	}
+
+	@Benchmark
+	public KeystoreManager load() throws Exception {
+		return new KeystoreManager(working, KeystoreFixtures.PASSWORD, loadMode);
+	}
+
+	@Benchmark
+	public int filter() throws Exception {
+		return loaded.filterExpiredKeys();
+	}
+
+	@Benchmark
+	public int filterParallel() throws Exception {
+		return loadedParallel.filterExpiredKeys();
+	}
+
+	@Benchmark
+	public KeystoreManager save() throws Exception {
+		filtered.save();
+		return filtered;
+	}
+
+	@Benchmark
+	public Boolean task() throws Exception {
+		return new KeystoreManagerTask(KeystoreFixtures.jksFile(working),
+				SweepContext.builder().loadMode(loadMode).build()).call();
+	}
+}
@@ -0,0 +1,90 @@
+package com.cert.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cert.model.JKSFile;
+import com.cert.model.SweepResult;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+
+/**
+ * Measures an end-to-end sweep over an inventory of keystores at different levels of parallelism.
+ * Throughput in keystores per second is files divided by the reported time per sweep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeystoreSweepBenchmark {
+
+	@Param({ "64" })
+	public int files;
+
+	@Param({ "1000" })
+	public int entries;
+
+	@Param({ "0.05" })
+	public double expiredRatio;
+
+	@Param({ "1", "2", "4", "8" })
+	public int parallelism;
+
+	private Path directory;
+	private final List<File> pristine = new ArrayList<>();
+	private final List<JKSFile> inventory = new ArrayList<>();
+	private ExecutorService executorService;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		BenchmarkKeystores.quietLogging();
+		directory = Files.createTempDirectory("sweep-benchmark");
+		final File template = BenchmarkKeystores.generate(directory.resolve("template.jks"), "JKS", entries, expiredRatio);
+		for (int i = 0; i < files; i++) {
+			pristine.add(BenchmarkKeystores.copy(template, directory.resolve("pristine-" + i + ".jks")));
+			inventory.add(KeystoreFixtures.jksFile(directory.resolve("store-" + i + ".jks").toFile()));
+		}
+		executorService = Executors.newFixedThreadPool(parallelism);
+	}
+
+	@Setup(Level.Invocation)
+	public void restore() throws Exception {
+		for (int i = 0; i < files; i++) {
+			BenchmarkKeystores.copy(pristine.get(i), directory.resolve("store-" + i + ".jks"));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws Exception {
+		executorService.shutdown();
+		executorService.awaitTermination(1, TimeUnit.MINUTES);
+		BenchmarkKeystores.delete(directory);
+	}
+
+	@Benchmark
+	public List<SweepResult> sweep() {
+		return new KeystoreSweeper(executorService).sweep(inventory);
+	}
+}
@@ -5,6 +5,10 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import com.cert.cli.ExpiringCommand;
+import com.cert.cli.RestoreCommand;
+import com.cert.cli.SweepCommand;
+
 import lombok.extern.java.Log;
 
 import java.util.Arrays;
@@ -15,6 +19,18 @@ import java.util.logging.Level;
 public class SpringBootConsoleApplication implements CommandLineRunner {
 
     public static void main(String[] args) throws Exception {
+        // Queries answered from the indexes do not need the application context, nor a sweep.
+        if (args.length > 0 && ExpiringCommand.NAME.equals(args[0])) {
+            System.exit(ExpiringCommand.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
+        // One-shot sweeps run the same sweeper without paying for the application context startup.
+        if (args.length > 0 && SweepCommand.NAME.equals(args[0])) {
+            System.exit(SweepCommand.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
+        // Restoring entries from the undo journal only touches the keystores they were removed from.
+        if (args.length > 0 && RestoreCommand.NAME.equals(args[0])) {
+            System.exit(RestoreCommand.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
         // Disabled banner, don't want to see the spring logo
         SpringApplication app = new SpringApplication(SpringBootConsoleApplication.class);
         app.setBannerMode(Banner.Mode.OFF);
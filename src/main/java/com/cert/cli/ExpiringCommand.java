@@ -0,0 +1,112 @@
+package com.cert.cli;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.model.CertificateExpiry;
+
+import static com.cert.util.Constants.DEFAULT_EXPIRY_INDEX_FILE;
+import static com.cert.util.Constants.EXPIRY_DATE_FORMATTER;
+
+/**
+ * Lists the certificates expiring in a time range from the certificate expiry index, without starting the
+ * application context or opening any keystore.
+ *
+ * <pre>
+ * expiring [--days N | --from yyyy-MM-dd --to yyyy-MM-dd] [--index jksExpiryIndex.csv]
+ * </pre>
+ *
+ * One tab separated line is printed per certificate: expiry date, keystore, alias and SHA-256 fingerprint.
+ *
+ * The exit code is 0 when the index was read, even if no certificate expires in the range; 1 when there is
+ * no expiry index file at the given path, typically because no sweep has written it yet; 2 on a usage error.
+ */
+public final class ExpiringCommand {
+
+	public static final String NAME = "expiring";
+
+	private static final int DEFAULT_DAYS = 30;
+
+	private ExpiringCommand() {
+		throw new AssertionError();
+	}
+
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the command.
+	 *
+	 * @param args the command arguments, without the command name.
+	 * @param out where the certificates are listed.
+	 * @param err where usage errors and the summary are reported.
+	 * @return the process exit code: 0 on success, 1 if the expiry index file does not exist, 2 on a usage error.
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		Path indexFile = Paths.get(DEFAULT_EXPIRY_INDEX_FILE);
+		Instant from = Instant.now();
+		Instant to = null;
+		int days = DEFAULT_DAYS;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--index":
+					indexFile = Paths.get(value(args, ++i));
+					break;
+				case "--days":
+					days = Integer.parseInt(value(args, ++i));
+					break;
+				case "--from":
+					from = startOfDay(value(args, ++i));
+					break;
+				case "--to":
+					to = startOfDay(value(args, ++i));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | DateTimeParseException e) {
+			err.println(e.getMessage());
+			err.println("Usage: " + NAME + " [--days N | --from yyyy-MM-dd --to yyyy-MM-dd] [--index " + DEFAULT_EXPIRY_INDEX_FILE + "]");
+			return 2;
+		}
+		if (to == null) {
+			to = from.plusMillis(TimeUnit.DAYS.toMillis(days));
+		}
+		if (!Files.isRegularFile(indexFile)) {
+			err.println("No certificate expiry index at " + indexFile.toAbsolutePath() + ", run a sweep first.");
+			return 1;
+		}
+
+		final List<CertificateExpiry> expiring = CertificateExpiryIndex.load(indexFile).expiringBetween(from.toEpochMilli(), to.toEpochMilli());
+		for (final CertificateExpiry certificate : expiring) {
+			out.println(EXPIRY_DATE_FORMATTER.format(Instant.ofEpochMilli(certificate.getNotAfter())) + '\t'
+					+ certificate.getPathToStore() + '\t' + certificate.getAlias() + '\t' + certificate.getFingerprint());
+		}
+		err.println(expiring.size() + " certificates expire between " + EXPIRY_DATE_FORMATTER.format(from) + " and "
+				+ EXPIRY_DATE_FORMATTER.format(to) + ".");
+		return 0;
+	}
+
+	private static String value(final String[] args, final int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
+
+	private static Instant startOfDay(final String date) {
+		return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant();
+	}
+}
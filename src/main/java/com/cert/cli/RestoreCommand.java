@@ -0,0 +1,157 @@
+package com.cert.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cert.journal.UndoJournal;
+import com.cert.keystore.KeystoreFiles;
+import com.cert.keystore.KeystoreManager;
+import com.cert.model.RemovedEntry;
+
+/**
+ * Re-inserts entries recorded in the undo journal into the keystores they were removed from, without starting
+ * the application context.
+ *
+ * <pre>
+ * restore --journal file [--run id] [--keystore path] [--alias alias] [--password pw] [--list]
+ * </pre>
+ *
+ * When an alias was removed by several runs, the most recent removal is restored; an alias which is present
+ * in the keystore again is left alone. With --list, the matching entries are only printed. One tab separated
+ * line is printed per entry: outcome, keystore, alias and run id.
+ */
+public final class RestoreCommand {
+
+	public static final String NAME = "restore";
+
+	private static final String PASSWORD_VARIABLE = "KEYSTORE_DISCOVERY_PASSWORD";
+
+	private RestoreCommand() {
+		throw new AssertionError();
+	}
+
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the command.
+	 *
+	 * @param args the command arguments, without the command name.
+	 * @param out where the outcome of every entry is listed.
+	 * @param err where usage errors and the summary are reported.
+	 * @return the process exit code: 0 on success, 1 if a keystore could not be restored, 2 on a usage error.
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		Path journalFile = null;
+		String runId = null;
+		String keystore = null;
+		String alias = null;
+		final String variable = System.getenv(PASSWORD_VARIABLE);
+		String password = variable == null ? "changeit" : variable;
+		boolean list = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--journal":
+					journalFile = Paths.get(value(args, ++i));
+					break;
+				case "--run":
+					runId = value(args, ++i);
+					break;
+				case "--keystore":
+					keystore = KeystoreFiles.canonicalPath(Paths.get(value(args, ++i))).toString();
+					break;
+				case "--alias":
+					alias = value(args, ++i);
+					break;
+				case "--password":
+					password = value(args, ++i);
+					break;
+				case "--list":
+					list = true;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (journalFile == null) {
+				throw new IllegalArgumentException("Missing --journal");
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println("Usage: " + NAME + " --journal file [--run id] [--keystore path] [--alias alias] [--password pw] [--list]");
+			return 2;
+		}
+
+		final List<RemovedEntry> journaled;
+		try {
+			journaled = UndoJournal.read(journalFile);
+		} catch (IOException e) {
+			err.println("Could not read the undo journal " + journalFile.toAbsolutePath() + ": " + e.getMessage());
+			return 1;
+		}
+		// Most recent first, so the last removal of an alias is the one restored.
+		final Map<String, List<RemovedEntry>> byKeystore = new LinkedHashMap<>();
+		for (int i = journaled.size() - 1; i >= 0; i--) {
+			final RemovedEntry entry = journaled.get(i);
+			// Journals written before keystores were recorded by their canonical path hold absolute paths.
+			final String path = KeystoreFiles.canonicalPath(Paths.get(entry.getPathToStore())).toString();
+			if ((runId == null || runId.equals(entry.getRunId()))
+					&& (keystore == null || keystore.equals(path))
+					&& (alias == null || alias.equalsIgnoreCase(entry.getAlias()))) {
+				byKeystore.computeIfAbsent(path, key -> new ArrayList<>()).add(entry);
+			}
+		}
+
+		if (list) {
+			final List<RemovedEntry> matching = new ArrayList<>();
+			byKeystore.values().forEach(matching::addAll);
+			Collections.reverse(matching);
+			matching.forEach(entry -> out.println(Instant.ofEpochMilli(entry.getRemovedAt()) + "\t" + entry.getPathToStore()
+					+ '\t' + entry.getAlias() + '\t' + entry.getRunId()));
+			err.println(matching.size() + " journaled entries match.");
+			return 0;
+		}
+
+		int restored = 0;
+		int failed = 0;
+		for (final Map.Entry<String, List<RemovedEntry>> entries : byKeystore.entrySet()) {
+			try {
+				final KeystoreManager manager = new KeystoreManager(new File(entries.getKey()), password.toCharArray());
+				for (final RemovedEntry entry : entries.getValue()) {
+					final boolean inserted = manager.importEntry(entry.getAlias(), entry.getEntry());
+					out.println((inserted ? "RESTORED" : "PRESENT") + '\t' + entries.getKey() + '\t' + entry.getAlias()
+							+ '\t' + entry.getRunId());
+					if (inserted) restored++;
+				}
+				if (manager.isDirty()) {
+					manager.save();
+				}
+			} catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+				out.println("FAILED\t" + entries.getKey() + '\t' + e.getMessage());
+				failed++;
+			}
+		}
+		err.println(String.format("Restored %d entries into %d keystores, %d keystores failed.",
+				restored, byKeystore.size() - failed, failed));
+		return failed > 0 ? 1 : 0;
+	}
+
+	private static String value(final String[] args, final int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
+}
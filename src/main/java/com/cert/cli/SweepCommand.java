@@ -0,0 +1,264 @@
+package com.cert.cli;
+
+import static com.cert.util.Constants.CSV_FILE;
+import static com.cert.util.Constants.DEFAULT_LOAD_MODE;
+import static com.cert.util.Constants.DEFAULT_MAX_IN_FLIGHT;
+import static com.cert.util.Constants.DEFAULT_PARALLEL_FILTER_THRESHOLD;
+import static com.cert.util.Constants.DEFAULT_STREAMING_SCAN;
+import static com.cert.util.Constants.DEFAULT_SWEEP_PARALLELISM;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.index.KeystoreIndex;
+import com.cert.inventory.CsvInventorySource;
+import com.cert.inventory.DirectoryInventorySource;
+import com.cert.inventory.InventorySource;
+import com.cert.journal.UndoJournal;
+import com.cert.keystore.LoadMode;
+import com.cert.metrics.SweepReportWriter;
+import com.cert.model.SweepReport;
+import com.cert.policy.ChainRule;
+import com.cert.policy.ExpiryPolicy;
+import com.cert.service.ExecutorMode;
+import com.cert.service.KeystoreSweeper;
+import com.cert.service.SweepExecutors;
+import com.cert.task.MemoryBudget;
+import com.cert.task.SweepContext;
+
+/**
+ * Runs one sweep without starting the application context, for cron-triggered runs where the Spring Boot
+ * startup would take longer than the sweep itself.
+ *
+ * <pre>
+ * sweep [--csv file|classpath:file|none] [--root dir]... [--pattern glob]... [--password pw]
+ *       [--parallelism N] [--index file] [--expiry-index file] [--report file]
+ *       [--[no-]streaming-scan] [--load-mode STREAM|CHANNEL|MAPPED] [--memory-budget-mb N] [--journal file]
+ *       [--parallel-filter-threshold N] [--grace-period-days N] [--remove-not-yet-valid]
+ *       [--chain-rule LEAF|WHOLE_CHAIN] [--include-alias glob]... [--exclude-alias glob]...
+ * </pre>
+ *
+ * The password of discovered keystores defaults to the KEYSTORE_DISCOVERY_PASSWORD environment variable,
+ * then to changeit. The streaming scan, load mode and parallel filter threshold default to the values of
+ * application.properties; the index, expiry index and report are only written when their file is given. The summary, including the time from JVM start to the first processed keystore, is
+ * printed to the error stream.
+ */
+public final class SweepCommand {
+
+	public static final String NAME = "sweep";
+
+	private static final String NO_CSV = "none";
+	private static final String PASSWORD_VARIABLE = "KEYSTORE_DISCOVERY_PASSWORD";
+
+	private SweepCommand() {
+		throw new AssertionError();
+	}
+
+	public static void main(final String[] args) {
+		// Skips the command name when launched through the application jar.
+		final int first = args.length > 0 && NAME.equals(args[0]) ? 1 : 0;
+		final String[] options = new String[args.length - first];
+		System.arraycopy(args, first, options, 0, options.length);
+		System.exit(run(options, System.out, System.err));
+	}
+
+	/**
+	 * Runs the command.
+	 *
+	 * @param args the command arguments, without the command name.
+	 * @param out where the result of every keystore is listed.
+	 * @param err where usage errors and the summary are reported.
+	 * @return the process exit code: 0 on success, 1 if a keystore failed, 2 on a usage error.
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		final long mainStart = System.currentTimeMillis();
+		String csv = CsvInventorySource.CLASSPATH_PREFIX + CSV_FILE;
+		final List<Path> roots = new ArrayList<>();
+		final List<String> patterns = new ArrayList<>();
+		final String variable = System.getenv(PASSWORD_VARIABLE);
+		String password = variable == null ? "changeit" : variable;
+		int parallelism = DEFAULT_SWEEP_PARALLELISM;
+		Path indexFile = null;
+		Path expiryIndexFile = null;
+		Path reportFile = null;
+		boolean streamingScan = DEFAULT_STREAMING_SCAN;
+		LoadMode loadMode = LoadMode.valueOf(DEFAULT_LOAD_MODE);
+		long memoryBudgetMb = 0;
+		Path journalFile = null;
+		int parallelFilterThreshold = DEFAULT_PARALLEL_FILTER_THRESHOLD;
+		long gracePeriodDays = 0;
+		boolean removeNotYetValid = false;
+		ChainRule chainRule = ChainRule.LEAF;
+		final List<String> includeAliases = new ArrayList<>();
+		final List<String> excludeAliases = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--csv":
+					csv = value(args, ++i);
+					break;
+				case "--root":
+					roots.add(Paths.get(value(args, ++i)));
+					break;
+				case "--pattern":
+					patterns.add(value(args, ++i));
+					break;
+				case "--password":
+					password = value(args, ++i);
+					break;
+				case "--parallelism":
+					parallelism = Integer.parseInt(value(args, ++i));
+					break;
+				case "--index":
+					indexFile = Paths.get(value(args, ++i));
+					break;
+				case "--expiry-index":
+					expiryIndexFile = Paths.get(value(args, ++i));
+					break;
+				case "--report":
+					reportFile = Paths.get(value(args, ++i));
+					break;
+				case "--streaming-scan":
+					streamingScan = true;
+					break;
+				case "--no-streaming-scan":
+					streamingScan = false;
+					break;
+				case "--load-mode":
+					loadMode = LoadMode.valueOf(value(args, ++i));
+					break;
+				case "--memory-budget-mb":
+					memoryBudgetMb = Long.parseLong(value(args, ++i));
+					break;
+				case "--journal":
+					journalFile = Paths.get(value(args, ++i));
+					break;
+				case "--parallel-filter-threshold":
+					parallelFilterThreshold = Integer.parseInt(value(args, ++i));
+					break;
+				case "--grace-period-days":
+					gracePeriodDays = Long.parseLong(value(args, ++i));
+					break;
+				case "--remove-not-yet-valid":
+					removeNotYetValid = true;
+					break;
+				case "--chain-rule":
+					chainRule = ChainRule.valueOf(value(args, ++i));
+					break;
+				case "--include-alias":
+					includeAliases.add(value(args, ++i));
+					break;
+				case "--exclude-alias":
+					excludeAliases.add(value(args, ++i));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println("Usage: " + NAME + " [--csv file|classpath:file|" + NO_CSV + "] [--root dir]... [--pattern glob]..."
+					+ " [--password pw] [--parallelism N] [--index file] [--expiry-index file] [--report file]"
+					+ " [--[no-]streaming-scan] [--load-mode STREAM|CHANNEL|MAPPED] [--memory-budget-mb N] [--journal file]"
+					+ " [--parallel-filter-threshold N] [--grace-period-days N] [--remove-not-yet-valid]"
+					+ " [--chain-rule LEAF|WHOLE_CHAIN] [--include-alias glob]... [--exclude-alias glob]...");
+			return 2;
+		}
+
+		final List<InventorySource> sources = new ArrayList<>();
+		if (!NO_CSV.equals(csv)) {
+			sources.add(new CsvInventorySource(csv));
+		}
+		if (!roots.isEmpty()) {
+			if (patterns.isEmpty()) {
+				patterns.add("*.jks");
+				patterns.add("cacerts");
+			}
+			sources.add(new DirectoryInventorySource(roots, patterns, password.toCharArray()));
+		}
+
+		final KeystoreIndex index = indexFile == null ? null : KeystoreIndex.load(indexFile);
+		final CertificateExpiryIndex expiryIndex = expiryIndexFile == null ? null : CertificateExpiryIndex.load(expiryIndexFile);
+		final UndoJournal journal;
+		try {
+			journal = journalFile == null ? null : UndoJournal.open(journalFile);
+		} catch (IOException e) {
+			err.println("Could not open the undo journal " + journalFile.toAbsolutePath() + ": " + e.getMessage());
+			return 1;
+		}
+		final ExecutorService executorService = SweepExecutors.create(ExecutorMode.PLATFORM, parallelism, DEFAULT_MAX_IN_FLIGHT);
+		final ForkJoinPool filterPool = parallelFilterThreshold > 0 ? new ForkJoinPool(parallelism) : null;
+		final SweepReport report;
+		try {
+			report = new KeystoreSweeper(executorService, SweepContext.builder()
+					.index(index)
+					.expiryIndex(expiryIndex)
+					.streamingScan(streamingScan)
+					.loadMode(loadMode)
+					.parallelFilterThreshold(parallelFilterThreshold)
+					.parallelFilterPool(filterPool)
+					.memoryBudget(memoryBudgetMb <= 0 ? null
+							: new MemoryBudget(memoryBudgetMb * 1024 * 1024, MemoryBudget.DEFAULT_COST_FACTOR))
+					.journal(journal)
+					.expiryPolicy(ExpiryPolicy.builder()
+							.gracePeriodMillis(TimeUnit.DAYS.toMillis(gracePeriodDays))
+							.removeNotYetValid(removeNotYetValid)
+							.chainRule(chainRule)
+							.includeAliases(includeAliases)
+							.excludeAliases(excludeAliases)
+							.build())
+					.build()).run(InventorySource.concat(sources));
+		} finally {
+			executorService.shutdown();
+			if (filterPool != null) filterPool.shutdown();
+			closeQuietly(journal, err);
+		}
+
+		report.getResults().forEach(result -> out.println(result.getStatus() + "\t" + result.getPathToStore()
+				+ (result.getMessage() == null ? "" : "\t" + result.getMessage())));
+		try {
+			if (index != null) index.save();
+			if (expiryIndex != null) expiryIndex.save();
+			if (reportFile != null) SweepReportWriter.write(report, reportFile);
+		} catch (IOException e) {
+			err.println("Could not save the sweep results: " + e.getMessage());
+			return 1;
+		}
+
+		final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		final long sweepStart = Instant.parse(report.getStartedAt()).toEpochMilli();
+		err.println(String.format("Swept %d keystores in %d ms: %d succeeded, %d skipped, %d failed, %d cancelled.",
+				report.getKeystores(), report.getElapsedMillis(), report.getSucceeded(), report.getSkipped(),
+				report.getFailed(), report.getCancelled()));
+		err.println(String.format("JVM start to main: %d ms, main to sweep: %d ms, JVM start to first keystore: %s.",
+				mainStart - jvmStart, sweepStart - mainStart,
+				report.getFirstResultMillis() < 0 ? "none" : (sweepStart + report.getFirstResultMillis() - jvmStart) + " ms"));
+		return report.getFailed() > 0 ? 1 : 0;
+	}
+
+	private static void closeQuietly(final UndoJournal journal, final PrintStream err) {
+		if (journal == null) return;
+		try {
+			journal.close();
+		} catch (IOException e) {
+			err.println("Could not close the undo journal: " + e.getMessage());
+		}
+	}
+
+	private static String value(final String[] args, final int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
+}
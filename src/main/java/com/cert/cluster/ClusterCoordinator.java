@@ -0,0 +1,311 @@
+package com.cert.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.cert.inventory.InventorySource;
+import com.cert.keystore.KeystoreFiles;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Coordinates several instances sweeping the same shared keystores, through a directory they all mount.
+ *
+ * Each node refreshes a heartbeat file under {@code nodes/}; the nodes whose heartbeat is recent enough form
+ * a {@link ConsistentHashRing}, and every node only sweeps the keystores the ring assigns to it. A node going
+ * away hands its keystores to the others once its heartbeat has timed out.
+ *
+ * While the nodes disagree on the ring, for instance while one is joining, two of them may own the same
+ * keystore. A node therefore takes a lease, a file atomically created under {@code leases/}, before touching
+ * a keystore. The heartbeat renews the leases a node holds; a lease left behind by a crashed node is taken
+ * over once it has not been renewed for the lease TTL, and a node whose lease was not renewed in time, or
+ * was taken over, must not write the keystore any more. Every node must mount the keystores under the same
+ * path, and the clocks of the nodes must be synchronized.
+ */
+@Log
+public class ClusterCoordinator implements Closeable {
+
+	private final Path nodesDirectory;
+	private final Path leasesDirectory;
+	@Getter
+	private final String nodeId;
+	private final long nodeTimeoutMillis;
+	private final long leaseTtlMillis;
+	private final int virtualNodes;
+
+	// The leases held by this node, by lease file, renewed by the heartbeat.
+	private final Map<Path, KeystoreLease> leases = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService heartbeat;
+
+	/**
+	 * Creates a new ClusterCoordinator; call {@link #join()} before using it.
+	 *
+	 * @param directory the directory shared by every node.
+	 * @param nodeId the identifier of this node, unique in the cluster; the process name when empty.
+	 * @param nodeTimeoutMillis how long a node without heartbeat keeps its keystores.
+	 * @param leaseTtlMillis how long a lease which is not renewed is held, before another node may take it over.
+	 * @param virtualNodes the number of points each node takes on the ring, 0 for the default.
+	 */
+	@Builder
+	public ClusterCoordinator(final Path directory, final String nodeId, final long nodeTimeoutMillis,
+			final long leaseTtlMillis, final int virtualNodes) {
+		if (directory == null) {
+			throw new IllegalArgumentException("The cluster directory cannot be null.");
+		}
+		this.nodesDirectory = directory.resolve("nodes");
+		this.leasesDirectory = directory.resolve("leases");
+		// The process name is pid@host, unique among the JVMs of the cluster.
+		this.nodeId = nodeId == null || nodeId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+		this.nodeTimeoutMillis = nodeTimeoutMillis;
+		this.leaseTtlMillis = leaseTtlMillis;
+		this.virtualNodes = virtualNodes > 0 ? virtualNodes : ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+	}
+
+	/**
+	 * Announces this node to the cluster and keeps its heartbeat fresh until it is closed.
+	 *
+	 * @throws IOException if the shared directory could not be written.
+	 */
+	public synchronized void join() throws IOException {
+		Files.createDirectories(nodesDirectory);
+		Files.createDirectories(leasesDirectory);
+		beat();
+		if (heartbeat == null) {
+			final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("keystore-cluster-");
+			threadFactory.setDaemon(true);
+			heartbeat = Executors.newSingleThreadScheduledExecutor(threadFactory);
+			// Leases are renewed along with the heartbeat, so it also has to beat well within the lease TTL.
+			final long period = Math.max(1, Math.min(nodeTimeoutMillis, leaseTtlMillis) / 3);
+			heartbeat.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+		}
+		log.log(Level.INFO, "Node {0} joined the cluster in {1}.", new Object[] { nodeId, nodesDirectory.getParent() });
+	}
+
+	/**
+	 * Returns the nodes whose heartbeat is recent enough, this node included.
+	 *
+	 * @return the identifiers of the live nodes.
+	 * @throws IOException if the shared directory could not be read.
+	 */
+	public Set<String> liveNodes() throws IOException {
+		final Set<String> nodes = new TreeSet<>();
+		nodes.add(nodeId);
+		final long now = System.currentTimeMillis();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(nodesDirectory)) {
+			for (final Path node : stream) {
+				try {
+					final String id = new String(Files.readAllBytes(node), StandardCharsets.UTF_8);
+					// An empty file is a heartbeat being rewritten.
+					if (!id.isEmpty() && now - Files.getLastModifiedTime(node).toMillis() < nodeTimeoutMillis) {
+						nodes.add(id);
+					}
+				} catch (NoSuchFileException e) {
+					// The node has just left.
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Restricts a source to the keystores this node owns, by the ring of the nodes live when discovery starts.
+	 *
+	 * @param source the inventory shared by every node.
+	 * @return the share of this node.
+	 */
+	public InventorySource shard(final InventorySource source) {
+		return sink -> {
+			final ConsistentHashRing ring = new ConsistentHashRing(liveNodes(), virtualNodes);
+			log.log(Level.INFO, "Node {0} sweeps its share of {1}.", new Object[] { nodeId, ring });
+			source.discover(file -> {
+				if (owns(ring, Paths.get(file.getPathToStore()))) {
+					sink.accept(file);
+				}
+			});
+		};
+	}
+
+	/**
+	 * Tells whether the ring assigns a keystore to this node.
+	 *
+	 * @param ring the ring of the live nodes.
+	 * @param keystore the keystore path.
+	 * @return true if this node owns the keystore.
+	 */
+	public boolean owns(final ConsistentHashRing ring, final Path keystore) {
+		return nodeId.equals(ring.owner(KeystoreFiles.canonicalPath(keystore).toString()));
+	}
+
+	/**
+	 * Takes the lease of a keystore, taking over a stale one.
+	 *
+	 * @param keystore the keystore path.
+	 * @return the lease, to be closed once the keystore is processed, or null if another node holds it.
+	 * @throws IOException if the lease directory could not be written.
+	 */
+	public KeystoreLease tryLease(final Path keystore) throws IOException {
+		final Path lease = leaseFile(keystore);
+		final String owner = nodeId + " " + UUID.randomUUID();
+		// A second attempt follows a takeover, or a lease released while it was being checked.
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				Files.write(lease, owner.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.WRITE);
+				final KeystoreLease acquired = new KeystoreLease(lease, owner, leaseTtlMillis, leases::remove);
+				leases.put(lease, acquired);
+				return acquired;
+			} catch (FileAlreadyExistsException e) {
+				if (!takeOver(lease, keystore)) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tells whether this node still holds the lease of a keystore, so that it may write it.
+	 *
+	 * @param keystore the keystore path.
+	 * @return false if the lease was not taken, was taken over, or was not renewed within the lease TTL.
+	 */
+	public boolean holdsLease(final Path keystore) {
+		final KeystoreLease lease = leases.get(leaseFile(keystore));
+		return lease != null && lease.isHeld();
+	}
+
+	/**
+	 * Stops the heartbeat and leaves the cluster, handing the keystores of this node to the others at once.
+	 */
+	@Override
+	public synchronized void close() {
+		if (heartbeat != null) {
+			heartbeat.shutdownNow();
+			heartbeat = null;
+		}
+		try {
+			Files.deleteIfExists(nodesDirectory.resolve(nodeFileName()));
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not leave the cluster: {0}", e.getMessage());
+		}
+	}
+
+	// Removes a stale lease; returns false if the lease is still held.
+	private boolean takeOver(final Path lease, final Path keystore) throws IOException {
+		final byte[] holder;
+		final FileTime modified;
+		try {
+			holder = Files.readAllBytes(lease);
+			modified = Files.getLastModifiedTime(lease);
+		} catch (NoSuchFileException e) {
+			// Released or taken over in the meantime.
+			return true;
+		}
+		if (System.currentTimeMillis() - modified.toMillis() < leaseTtlMillis) {
+			return false;
+		}
+		return takeOver(lease, keystore, holder, modified);
+	}
+
+	/**
+	 * Removes the stale lease which was read, but only that one: between the check and the move, another node
+	 * may have taken it over and created a fresh lease, or its holder may have renewed it. Such a lease is
+	 * moved back.
+	 *
+	 * @return false if the lease is held by another node.
+	 */
+	boolean takeOver(final Path lease, final Path keystore, final byte[] holder, final FileTime modified) throws IOException {
+		final Path stale = lease.resolveSibling(lease.getFileName() + "." + UUID.randomUUID() + ".stale");
+		try {
+			Files.move(lease, stale, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			// Released or taken over in the meantime.
+			return true;
+		}
+		try {
+			// Owners are unique to each acquisition, and renaming keeps the modification time.
+			if (!Arrays.equals(Files.readAllBytes(stale), holder) || !Files.getLastModifiedTime(stale).equals(modified)) {
+				restore(stale, lease);
+				return false;
+			}
+			log.log(Level.WARNING, "Took over the stale lease of {0}, held by {1}.",
+					new Object[] { keystore, new String(holder, StandardCharsets.UTF_8) });
+			return true;
+		} finally {
+			Files.deleteIfExists(stale);
+		}
+	}
+
+	// Puts back a lease moved away by mistake, unless a third node has created a new one since.
+	private static void restore(final Path moved, final Path lease) throws IOException {
+		try {
+			// Unlike a rename, a link never replaces the target.
+			Files.createLink(lease, moved);
+		} catch (FileAlreadyExistsException e) {
+			// The holder finds its lease gone and stops writing.
+			log.log(Level.WARNING, "Lease {0} was replaced while a live lease was being put back.", lease);
+		} catch (UnsupportedOperationException e) {
+			try {
+				Files.move(moved, lease);
+			} catch (FileAlreadyExistsException replaced) {
+				log.log(Level.WARNING, "Lease {0} was replaced while a live lease was being put back.", lease);
+			}
+		}
+	}
+
+	private Path leaseFile(final Path keystore) {
+		return leasesDirectory.resolve(KeystoreFiles.hex(KeystoreFiles.contentDigest().digest(
+				KeystoreFiles.canonicalPath(keystore).toString().getBytes(StandardCharsets.UTF_8))) + ".lease");
+	}
+
+	private void heartbeat() {
+		try {
+			beat();
+		} catch (IOException | RuntimeException e) {
+			// Never let an exception escape, it would cancel the heartbeat.
+			log.log(Level.WARNING, "Could not refresh the heartbeat of node {0}: {1}", new Object[] { nodeId, e.getMessage() });
+		}
+		for (final KeystoreLease lease : leases.values()) {
+			try {
+				lease.renew();
+			} catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Could not renew lease {0}: {1}", new Object[] { lease.getFile(), e.getMessage() });
+			}
+		}
+	}
+
+	private void beat() throws IOException {
+		Files.write(nodesDirectory.resolve(nodeFileName()), nodeId.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Node identifiers may contain characters which are not allowed in file names.
+	private String nodeFileName() {
+		return KeystoreFiles.hex(nodeId.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,80 @@
+package com.cert.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.cert.keystore.KeystoreFiles;
+
+/**
+ * Assigns keys to nodes by consistent hashing.
+ *
+ * Every node is placed on the ring at several points, and a key belongs to the first node found clockwise
+ * from the hash of the key. Nodes joining or leaving only move the keys of the ring segments they take or
+ * give back, so the other nodes keep their keystores, and with them their warm indexes and caches.
+ */
+public final class ConsistentHashRing {
+
+	// Points per node; enough for shards within a few percent of each other with a handful of nodes.
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final NavigableMap<Long, String> ring = new TreeMap<>();
+	private final Set<String> nodes;
+
+	/**
+	 * Creates a new ConsistentHashRing.
+	 *
+	 * @param nodes the identifiers of the nodes.
+	 * @param virtualNodes the number of points each node takes on the ring.
+	 */
+	public ConsistentHashRing(final Collection<String> nodes, final int virtualNodes) {
+		if (virtualNodes <= 0) {
+			throw new IllegalArgumentException("The number of virtual nodes must be positive.");
+		}
+		this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+		for (final String node : this.nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// A collision keeps the smallest identifier, so every node builds the same ring.
+				ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+			}
+		}
+	}
+
+	/**
+	 * Returns the node owning the given key.
+	 *
+	 * @param key the key, typically the canonical path of a keystore.
+	 * @return the owning node, or null if the ring has no node.
+	 */
+	public String owner(final String key) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		final Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+		return (entry == null ? ring.firstEntry() : entry).getValue();
+	}
+
+	public Set<String> getNodes() {
+		return nodes;
+	}
+
+	// The first 64 bits of the SHA-256 of the key, identical on every JVM.
+	static long hash(final String key) {
+		final byte[] digest = KeystoreFiles.contentDigest().digest(key.getBytes(StandardCharsets.UTF_8));
+		long hash = 0;
+		for (int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (digest[i] & 0xff);
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "ConsistentHashRing" + nodes;
+	}
+}
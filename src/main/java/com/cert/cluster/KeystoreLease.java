@@ -0,0 +1,95 @@
+package com.cert.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * A lease held by one node on one keystore, as a file in the shared lease directory; closing it releases it.
+ */
+@Log
+public final class KeystoreLease implements Closeable {
+
+	@Getter
+	private final Path file;
+	// Written into the lease file, unique to each acquisition.
+	@Getter
+	private final String owner;
+	private final long ttlMillis;
+	private final Consumer<Path> released;
+	// When the lease file was last created or renewed by this node.
+	private volatile long renewedAt;
+
+	KeystoreLease(final Path file, final String owner, final long ttlMillis, final Consumer<Path> released) {
+		this.file = file;
+		this.owner = owner;
+		this.ttlMillis = ttlMillis;
+		this.released = released;
+		this.renewedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Tells whether the lease is still held: renewed within its TTL, and not taken over by another node.
+	 *
+	 * @return true if the keystore may still be written.
+	 */
+	public boolean isHeld() {
+		if (System.currentTimeMillis() - renewedAt >= ttlMillis) {
+			return false;
+		}
+		try {
+			return owned();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Releases the lease, unless another node has taken it over in the meantime.
+	 */
+	@Override
+	public void close() {
+		released.accept(file);
+		try {
+			if (owned()) {
+				Files.deleteIfExists(file);
+			} else {
+				log.log(Level.WARNING, "Lease {0} was taken over by another node.", file);
+			}
+		} catch (NoSuchFileException e) {
+			log.log(Level.WARNING, "Lease {0} was taken over by another node.", file);
+		} catch (IOException e) {
+			// The lease goes stale and is taken over once it has expired.
+			log.log(Level.WARNING, "Could not release lease {0}: {1}", new Object[] { file, e.getMessage() });
+		}
+	}
+
+	// Pushes back the expiry of the lease, as long as this node still holds it.
+	void renew() throws IOException {
+		final long now = System.currentTimeMillis();
+		try {
+			if (owned()) {
+				Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+				renewedAt = now;
+				return;
+			}
+		} catch (NoSuchFileException e) {
+			// Taken over.
+		}
+		log.log(Level.WARNING, "Lease {0} was taken over by another node, it is not renewed.", file);
+	}
+
+	private boolean owned() throws IOException {
+		return Arrays.equals(Files.readAllBytes(file), owner.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,21 @@
+package com.cert.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Provides an in-memory meter registry for the sweep metrics unless the application
+// context already defines one (for example a Prometheus or JMX registry). The keystore
+// meters of the registry are logged by KeystoreService at the end of every sweep.
+@Configuration
+public class MetricsConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean(MeterRegistry.class)
+	public MeterRegistry meterRegistry() {
+		return new SimpleMeterRegistry();
+	}
+}
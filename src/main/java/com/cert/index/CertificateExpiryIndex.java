@@ -0,0 +1,204 @@
+package com.cert.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Level;
+
+import com.cert.keystore.KeystoreFiles;
+import com.cert.model.CertificateExpiry;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+
+import lombok.extern.java.Log;
+
+/**
+ * Persisted, time-ordered index of the certificate expiries of every keystore of the inventory.
+ * 
+ * Each sweep replaces the entries of the keystores it processed, so "what expires in the next 30 days"
+ * is answered from memory, or from the index file, without opening a single keystore. Keystores skipped
+ * by a sweep are unchanged and keep their entries.
+ */
+@Log
+public class CertificateExpiryIndex {
+
+	private static final Comparator<CertificateExpiry> BY_EXPIRY = Comparator.comparingLong(CertificateExpiry::getNotAfter)
+			.thenComparing(CertificateExpiry::getPathToStore)
+			.thenComparing(CertificateExpiry::getAlias);
+
+	private final Path indexFile;
+	private final NavigableSet<CertificateExpiry> byExpiry = new ConcurrentSkipListSet<>(BY_EXPIRY);
+	private final Map<String, List<CertificateExpiry>> byKeystore = new ConcurrentHashMap<>();
+
+	private CertificateExpiryIndex(final Path indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the index from the given file; a missing or unreadable file yields an empty index.
+	 * 
+	 * @param indexFile the index file.
+	 * @return the loaded index.
+	 */
+	public static CertificateExpiryIndex load(final Path indexFile) {
+		final CertificateExpiryIndex index = new CertificateExpiryIndex(indexFile);
+		if (!Files.isRegularFile(indexFile)) {
+			return index;
+		}
+		try (final BufferedReader br = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8);
+				CSVReader reader = new CSVReader(br)) {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				if (row.length < 4) continue;
+				index.add(CertificateExpiry.builder()
+						.notAfter(Long.parseLong(row[0]))
+						.pathToStore(row[1])
+						.alias(row[2])
+						.fingerprint(row[3])
+						.build());
+			}
+			log.log(Level.INFO, "Loaded {0} certificate expiries from {1}.", new Object[] { index.byExpiry.size(), indexFile });
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Ignoring unreadable certificate expiry index {0}: {1}", new Object[] { indexFile, e.getMessage() });
+			index.byExpiry.clear();
+			index.byKeystore.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Replaces the entries of a keystore with the certificates it holds after a sweep.
+	 * 
+	 * @param file the keystore file.
+	 * @param certificates the certificates left in the keystore; their path is replaced by the canonical one.
+	 */
+	public void update(final File file, final Collection<CertificateExpiry> certificates) {
+		final String key = key(file);
+		final List<CertificateExpiry> entries = new ArrayList<>(certificates.size());
+		for (final CertificateExpiry certificate : certificates) {
+			entries.add(certificate.toBuilder().pathToStore(key).build());
+		}
+		byKeystore.compute(key, (path, previous) -> {
+			if (previous != null) {
+				previous.forEach(byExpiry::remove);
+			}
+			byExpiry.addAll(entries);
+			return entries;
+		});
+	}
+
+	/**
+	 * Forgets the entries of a keystore.
+	 * 
+	 * @param file the keystore file.
+	 */
+	public void remove(final File file) {
+		byKeystore.computeIfPresent(key(file), (path, previous) -> {
+			previous.forEach(byExpiry::remove);
+			return null;
+		});
+	}
+
+	/**
+	 * Returns the certificates expiring in the given time range, earliest first.
+	 * 
+	 * @param from the start of the range in epoch milliseconds, inclusive.
+	 * @param to the end of the range in epoch milliseconds, exclusive.
+	 * @return the matching certificates.
+	 */
+	public List<CertificateExpiry> expiringBetween(final long from, final long to) {
+		if (from >= to) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(byExpiry.subSet(bound(from), true, bound(to), false));
+	}
+
+	/**
+	 * Returns the first certificate expiring at or after the given time.
+	 * 
+	 * @param from the time in epoch milliseconds, inclusive.
+	 * @return the certificate, or null if none expires that late.
+	 */
+	public CertificateExpiry firstExpiringFrom(final long from) {
+		return byExpiry.ceiling(bound(from));
+	}
+
+	/**
+	 * Returns the certificates of a keystore, earliest expiry first.
+	 * 
+	 * @param file the keystore file.
+	 * @return the certificates, empty if the keystore is not indexed.
+	 */
+	public List<CertificateExpiry> get(final File file) {
+		final List<CertificateExpiry> entries = byKeystore.get(key(file));
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		final List<CertificateExpiry> sorted = new ArrayList<>(entries);
+		sorted.sort(BY_EXPIRY);
+		return sorted;
+	}
+
+	public int size() {
+		return byExpiry.size();
+	}
+
+	/**
+	 * Writes the index back to its file, earliest expiry first, replacing the previous version atomically.
+	 * 
+	 * @throws IOException if there was an I/O problem with data.
+	 */
+	public void save() throws IOException {
+		final Path target = indexFile.toAbsolutePath();
+		final Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+		try {
+			int count = 0;
+			try (final BufferedWriter bw = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+					CSVWriter writer = new CSVWriter(bw)) {
+				for (final CertificateExpiry entry : byExpiry) {
+					writer.writeNext(new String[] { Long.toString(entry.getNotAfter()), entry.getPathToStore(),
+							entry.getAlias(), entry.getFingerprint() });
+					count++;
+				}
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			log.log(Level.INFO, "Saved {0} certificate expiries to {1}.", new Object[] { count, target });
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void add(final CertificateExpiry entry) {
+		byKeystore.computeIfAbsent(entry.getPathToStore(), path -> new ArrayList<>()).add(entry);
+		byExpiry.add(entry);
+	}
+
+	// Sorts before every entry expiring at the same time, as paths and aliases are never empty.
+	private static CertificateExpiry bound(final long notAfter) {
+		return new CertificateExpiry(notAfter, "", "", "");
+	}
+
+	// Keyed like the keystore index, so the same keystore named through a link shares its entries.
+	private static String key(final File file) {
+		return KeystoreFiles.canonicalPath(file.toPath()).toString();
+	}
+}
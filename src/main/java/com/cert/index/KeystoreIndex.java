@@ -0,0 +1,208 @@
+package com.cert.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import com.cert.keystore.KeystoreFiles;
+import com.cert.model.KeystoreIndexEntry;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+
+import lombok.extern.java.Log;
+
+/**
+ * Persisted per-keystore expiry index.
+ * 
+ * A keystore whose size and modification time still match its entry, and whose earliest certificate
+ * expiry lies in the future, cannot contain anything to remove and does not need to be loaded. This only
+ * holds under the expiry policy it was swept with, so each entry records the fingerprint of that policy.
+ * 
+ * A modification time only tells a rewrite apart once its timestamp granularity has passed: a keystore
+ * rewritten to the same size within the same second as it was recorded keeps its modification time. Such
+ * entries are confirmed by content hash instead.
+ */
+@Log
+public class KeystoreIndex {
+
+	// Coarsest timestamp granularity to expect: 2 s on FAT, 1 s on ext3 and HFS+.
+	static final long MTIME_PRECISION_MILLIS = 2000L;
+
+	private final Path indexFile;
+	private final Map<String, KeystoreIndexEntry> entries = new ConcurrentHashMap<>();
+
+	private KeystoreIndex(final Path indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the index from the given file; a missing or unreadable file yields an empty index.
+	 * 
+	 * @param indexFile the index file.
+	 * @return the loaded index.
+	 */
+	public static KeystoreIndex load(final Path indexFile) {
+		final KeystoreIndex index = new KeystoreIndex(indexFile);
+		if (!Files.isRegularFile(indexFile)) {
+			return index;
+		}
+		try (final BufferedReader br = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8);
+				CSVReader reader = new CSVReader(br)) {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				if (row.length < 5) continue;
+				final KeystoreIndexEntry entry = KeystoreIndexEntry.builder()
+						.pathToStore(row[0])
+						.size(Long.parseLong(row[1]))
+						.lastModified(Long.parseLong(row[2]))
+						.earliestExpiry(Long.parseLong(row[3]))
+						.entryCount(Integer.parseInt(row[4]))
+						.contentHash(row.length > 5 ? row[5] : "")
+						.policy(row.length > 6 ? row[6] : "")
+						.recordedAt(row.length > 7 ? Long.parseLong(row[7]) : 0L)
+						.build();
+				index.entries.put(entry.getPathToStore(), entry);
+			}
+			log.log(Level.INFO, "Loaded {0} keystore index entries from {1}.", new Object[] { index.entries.size(), indexFile });
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Ignoring unreadable keystore index {0}: {1}", new Object[] { indexFile, e.getMessage() });
+			index.entries.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Tells whether the keystore is unchanged since it was indexed, was swept with the same policy, and has no
+	 * certificate expiring before now.
+	 * 
+	 * A file whose size matches but whose modification time moved, for example because a deploy copied it
+	 * again, is compared by content hash before being considered changed. So is one whose modification time
+	 * lies within {@link #MTIME_PRECISION_MILLIS} of when it was recorded, as a rewrite could have kept it.
+	 * 
+	 * @param file the keystore file.
+	 * @param now the sweep time in epoch milliseconds.
+	 * @param policy the fingerprint of the expiry policy of the sweep.
+	 * @return true if the keystore can be skipped.
+	 */
+	public boolean isUpToDate(final File file, final long now, final String policy) {
+		final String key = key(file);
+		final KeystoreIndexEntry entry = entries.get(key);
+		if (entry == null || entry.getEarliestExpiry() <= now || entry.getSize() != file.length()
+				|| !entry.getPolicy().equals(policy)) {
+			return false;
+		}
+		try {
+			final long lastModified = Files.getLastModifiedTime(file.toPath()).toMillis();
+			if (entry.getLastModified() == lastModified
+					&& entry.getRecordedAt() - lastModified >= MTIME_PRECISION_MILLIS) {
+				return true;
+			}
+			if (entry.getContentHash() == null || entry.getContentHash().isEmpty()) {
+				return false;
+			}
+			// Taken before reading, so a rewrite racing the hash is still within the window next time.
+			final long hashedAt = System.currentTimeMillis();
+			if (entry.getContentHash().equals(KeystoreFiles.contentHash(file.toPath()))) {
+				entries.put(key, entry.toBuilder().lastModified(lastModified).recordedAt(hashedAt).build());
+				return true;
+			}
+		} catch (IOException e) {
+			log.log(Level.FINE, "Could not check {0}: {1}", new Object[] { file, e.getMessage() });
+		}
+		return false;
+	}
+
+	/**
+	 * Records the current state of a keystore which has just been swept.
+	 * 
+	 * @param file the keystore file, as left on disk by the sweep.
+	 * @param earliestExpiry the earliest certificate expiry left in the store.
+	 * @param entryCount the number of entries left in the store.
+	 * @param contentHash the hex encoded SHA-256 of the file content, or null if unknown.
+	 * @param policy the fingerprint of the expiry policy the keystore was swept with.
+	 */
+	public void record(final File file, final long earliestExpiry, final int entryCount, final String contentHash,
+			final String policy) {
+		final String key = key(file);
+		final long recordedAt = System.currentTimeMillis();
+		entries.put(key, KeystoreIndexEntry.builder()
+				.pathToStore(key)
+				.size(file.length())
+				.lastModified(lastModified(file))
+				.earliestExpiry(earliestExpiry)
+				.entryCount(entryCount)
+				.contentHash(contentHash == null ? "" : contentHash)
+				.policy(policy == null ? "" : policy)
+				.recordedAt(recordedAt)
+				.build());
+	}
+
+	/**
+	 * Forgets a keystore, so it is fully processed by the next sweep.
+	 * 
+	 * @param file the keystore file.
+	 */
+	public void remove(final File file) {
+		entries.remove(key(file));
+	}
+
+	public KeystoreIndexEntry get(final File file) {
+		return entries.get(key(file));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes the index back to its file, replacing the previous version atomically.
+	 * 
+	 * @throws IOException if there was an I/O problem with data.
+	 */
+	public void save() throws IOException {
+		final Path target = indexFile.toAbsolutePath();
+		final Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+		try {
+			try (final BufferedWriter bw = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+					CSVWriter writer = new CSVWriter(bw)) {
+				for (final KeystoreIndexEntry entry : entries.values()) {
+					writer.writeNext(new String[] { entry.getPathToStore(), Long.toString(entry.getSize()),
+							Long.toString(entry.getLastModified()), Long.toString(entry.getEarliestExpiry()),
+							Integer.toString(entry.getEntryCount()), entry.getContentHash(), entry.getPolicy(),
+							Long.toString(entry.getRecordedAt()) });
+				}
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			log.log(Level.INFO, "Saved {0} keystore index entries to {1}.", new Object[] { entries.size(), target });
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	// Millisecond precision where the file system has it, unlike File.lastModified() on JDK 8.
+	private static long lastModified(final File file) {
+		try {
+			return Files.getLastModifiedTime(file.toPath()).toMillis();
+		} catch (IOException e) {
+			return file.lastModified();
+		}
+	}
+
+	// The same keystore named through a link or a relative path shares one entry.
+	private static String key(final File file) {
+		return KeystoreFiles.canonicalPath(file.toPath()).toString();
+	}
+}
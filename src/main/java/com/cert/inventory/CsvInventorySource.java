@@ -0,0 +1,60 @@
+package com.cert.inventory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+import com.cert.model.JKSFile;
+import com.cert.util.OpenCSVReader;
+
+/**
+ * Keystores listed, with their password, in a CSV file on the classpath or on disk.
+ *
+ * Rows are handed to the sink as they are read, so the first keystores are swept while the rest of a
+ * large inventory is still being parsed; the sweep skips rows naming a keystore it has already seen.
+ */
+public class CsvInventorySource implements InventorySource {
+
+	public static final String CLASSPATH_PREFIX = "classpath:";
+
+	private final String location;
+
+	/**
+	 * Creates a new CsvInventorySource.
+	 *
+	 * @param location the CSV file, either a file path or a classpath resource prefixed with classpath:.
+	 */
+	public CsvInventorySource(final String location) {
+		if (location == null || location.isEmpty()) {
+			throw new IllegalArgumentException("The CSV location cannot be empty.");
+		}
+		this.location = location;
+	}
+
+	@Override
+	public void discover(final Consumer<JKSFile> sink) throws IOException {
+		try (final InputStream in = open()) {
+			OpenCSVReader.readCSVFile(in, sink);
+		}
+	}
+
+	private InputStream open() throws IOException {
+		if (location.startsWith(CLASSPATH_PREFIX)) {
+			final String resource = location.substring(CLASSPATH_PREFIX.length());
+			final InputStream in = CsvInventorySource.class.getClassLoader().getResourceAsStream(resource);
+			if (in == null) {
+				throw new FileNotFoundException(String.format("class path resource [%s] cannot be opened because it does not exist", resource));
+			}
+			return in;
+		}
+		return Files.newInputStream(Paths.get(location));
+	}
+
+	@Override
+	public String toString() {
+		return "csv " + location;
+	}
+}
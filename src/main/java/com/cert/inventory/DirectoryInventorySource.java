@@ -0,0 +1,187 @@
+package com.cert.inventory;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.cert.model.JKSFile;
+
+import lombok.extern.java.Log;
+
+/**
+ * Keystores found under root directories by glob patterns, all sharing the same password.
+ *
+ * Each directory is listed by its own fork/join task, so large trees are walked on every worker of the
+ * pool and matching files reach the sink while other directories are still being listed. Symbolic links
+ * to directories are not followed, links to files are. A pattern containing a separator, such as {@code apps/{@literal *}/conf/*.jks},
+ * is matched against the path relative to its root; any other pattern, such as {@code cacerts}, against the
+ * file name.
+ */
+@Log
+public class DirectoryInventorySource implements InventorySource {
+
+	private final List<Path> roots;
+	private final List<String> patterns;
+	private final List<PathMatcher> relativeMatchers = new ArrayList<>();
+	private final List<PathMatcher> nameMatchers = new ArrayList<>();
+	private final char[] password;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a new DirectoryInventorySource walking on the common fork/join pool.
+	 *
+	 * @param roots the directories to walk.
+	 * @param patterns the glob patterns of the keystore files.
+	 * @param password the password of the discovered keystores.
+	 */
+	public DirectoryInventorySource(final List<Path> roots, final List<String> patterns, final char[] password) {
+		this(roots, patterns, password, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a new DirectoryInventorySource.
+	 *
+	 * @param roots the directories to walk.
+	 * @param patterns the glob patterns of the keystore files.
+	 * @param password the password of the discovered keystores.
+	 * @param pool the pool the directories are listed on.
+	 */
+	public DirectoryInventorySource(final List<Path> roots, final List<String> patterns, final char[] password,
+			final ForkJoinPool pool) {
+		if (roots == null || roots.isEmpty()) {
+			throw new IllegalArgumentException("At least one root directory is required.");
+		}
+		if (patterns == null || patterns.isEmpty()) {
+			throw new IllegalArgumentException("At least one file pattern is required.");
+		}
+		this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+		this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+		for (final String glob : patterns) {
+			final String pattern = glob.trim();
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			if (pattern.indexOf('/') >= 0) {
+				relativeMatchers.add(matcher);
+			} else {
+				nameMatchers.add(matcher);
+			}
+		}
+		this.password = password.clone();
+		this.pool = pool;
+	}
+
+	@Override
+	public void discover(final Consumer<JKSFile> sink) throws IOException {
+		// Overlapping roots must not yield the same keystore twice.
+		final Set<Path> seen = ConcurrentHashMap.newKeySet();
+		final List<RecursiveAction> walks = new ArrayList<>();
+		for (final Path root : roots) {
+			final Path start = root.toAbsolutePath().normalize();
+			if (!Files.isDirectory(start)) {
+				log.log(Level.WARNING, "Keystore root {0} is not a directory, skipping it.", start);
+				continue;
+			}
+			walks.add(new DirectoryWalk(start, start, sink, seen));
+		}
+		walks.forEach(pool::execute);
+		for (final RecursiveAction walk : walks) {
+			walk.join();
+		}
+	}
+
+	boolean matches(final Path root, final Path file) {
+		final Path name = file.getFileName();
+		for (final PathMatcher matcher : nameMatchers) {
+			if (name != null && matcher.matches(name)) return true;
+		}
+		if (!relativeMatchers.isEmpty()) {
+			final Path relative = root.relativize(file);
+			for (final PathMatcher matcher : relativeMatchers) {
+				if (matcher.matches(relative)) return true;
+			}
+		}
+		return false;
+	}
+
+	// Links to keystores are common, for example cacerts pointing into the system trust store.
+	private static boolean isFile(final Path file, final BasicFileAttributes attrs) {
+		return attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(file);
+	}
+
+	@Override
+	public String toString() {
+		return "directories " + roots + " matching " + patterns;
+	}
+
+	/**
+	 * Lists one directory, forking a walk for each of its sub-directories.
+	 */
+	private final class DirectoryWalk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path root;
+		private final Path directory;
+		private final transient Consumer<JKSFile> sink;
+		private final transient Set<Path> seen;
+
+		private DirectoryWalk(final Path root, final Path directory, final Consumer<JKSFile> sink, final Set<Path> seen) {
+			this.root = root;
+			this.directory = directory;
+			this.sink = sink;
+			this.seen = seen;
+		}
+
+		@Override
+		protected void compute() {
+			final List<DirectoryWalk> children = new ArrayList<>();
+			try {
+				// A depth of one visits the entries of this directory with the attributes read while listing it.
+				Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+						if (attrs.isDirectory()) {
+							if (seen.add(file)) {
+								final DirectoryWalk child = new DirectoryWalk(root, file, sink, seen);
+								child.fork();
+								children.add(child);
+							}
+						} else if (isFile(file, attrs) && matches(root, file) && seen.add(file)) {
+							sink.accept(JKSFile.builder()
+									.pathToStore(file.toString())
+									.passwordArray(password.clone())
+									.build());
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+						log.log(Level.WARNING, "Could not read {0}: {1}", new Object[] { file, e.getMessage() });
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Could not list {0}: {1}", new Object[] { directory, e.getMessage() });
+			}
+			for (final DirectoryWalk child : children) {
+				child.join();
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.cert.inventory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.cert.model.JKSFile;
+
+/**
+ * A source of keystores to sweep.
+ *
+ * Keystores are pushed to the sink as soon as they are found, so a sweep can start working on the first
+ * ones while the rest of the inventory is still being discovered. The sink may be called from several
+ * threads at once.
+ */
+@FunctionalInterface
+public interface InventorySource {
+
+	/**
+	 * Discovers the keystores of this source and hands each of them to the sink.
+	 *
+	 * @param sink receives every discovered keystore.
+	 * @throws IOException if the inventory could not be read.
+	 */
+	void discover(Consumer<JKSFile> sink) throws IOException;
+
+	/**
+	 * Creates a source for a fixed list of keystores.
+	 *
+	 * @param jksFiles the keystores.
+	 * @return the source.
+	 */
+	static InventorySource of(final Collection<JKSFile> jksFiles) {
+		return sink -> jksFiles.forEach(sink);
+	}
+
+	/**
+	 * Creates a source which discovers the keystores of every given source, one source after the other.
+	 * A source which fails does not prevent the following ones from being read.
+	 *
+	 * @param sources the sources.
+	 * @return the combined source.
+	 */
+	static InventorySource concat(final List<InventorySource> sources) {
+		return sink -> {
+			IOException failure = null;
+			for (final InventorySource source : sources) {
+				try {
+					source.discover(sink);
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		};
+	}
+
+	/**
+	 * Creates a source which discovers the keystores of every given source, one source after the other.
+	 *
+	 * @param sources the sources.
+	 * @return the combined source.
+	 */
+	static InventorySource concat(final InventorySource... sources) {
+		return concat(Arrays.asList(sources));
+	}
+}
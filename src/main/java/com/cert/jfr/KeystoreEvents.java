@@ -0,0 +1,27 @@
+package com.cert.jfr;
+
+/**
+ * Tells whether the JDK Flight Recorder events of the keystore work can be created.
+ *
+ * The jdk.jfr API only exists from JDK 8u262 on. The event classes of this package extend jdk.jfr.Event, so
+ * callers check {@link #SUPPORTED} before creating one, and on older runtimes simply record nothing.
+ */
+public final class KeystoreEvents {
+
+	public static final String CATEGORY = "Keystore Cleaner";
+
+	public static final boolean SUPPORTED = supported();
+
+	private KeystoreEvents() {
+		throw new AssertionError();
+	}
+
+	private static boolean supported() {
+		try {
+			Class.forName("jdk.jfr.Event", false, KeystoreEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
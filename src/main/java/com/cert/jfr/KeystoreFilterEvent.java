@@ -0,0 +1,35 @@
+package com.cert.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evaluation of the entries of a loaded keystore against the expiry policy, and removal of the expired ones.
+ */
+@Name("com.cert.KeystoreFilter")
+@Label("Keystore Filter")
+@Category({ KeystoreEvents.CATEGORY, "Keystore" })
+@Description("Evaluates the entries of a keystore and removes the expired ones, audit logging included")
+@StackTrace(false)
+public class KeystoreFilterEvent extends jdk.jfr.Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Entries Scanned")
+	public int entriesScanned;
+
+	@Label("Entries Removed")
+	public int entriesRemoved;
+
+	@Label("Parallel")
+	@Description("Whether the entries were evaluated in parallel chunks")
+	public boolean parallel;
+
+	@Label("Outcome")
+	@Description("success, or the exception which failed the filter")
+	public String outcome;
+}
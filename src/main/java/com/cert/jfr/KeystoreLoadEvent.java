@@ -0,0 +1,39 @@
+package com.cert.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reading, integrity check and decoding of a keystore file, certificate parsing included.
+ */
+@Name("com.cert.KeystoreLoad")
+@Label("Keystore Load")
+@Category({ KeystoreEvents.CATEGORY, "Keystore" })
+@Description("Reads a keystore file, checks its integrity and decodes its entries")
+@StackTrace(false)
+public class KeystoreLoadEvent extends jdk.jfr.Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Load Mode")
+	public String loadMode;
+
+	@Label("Format")
+	public String format;
+
+	@Label("Bytes Read")
+	@DataAmount(DataAmount.BYTES)
+	public long bytesRead;
+
+	@Label("Entries")
+	public int entries;
+
+	@Label("Outcome")
+	@Description("success, or the exception which failed the load")
+	public String outcome;
+}
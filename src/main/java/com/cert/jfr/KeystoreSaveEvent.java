@@ -0,0 +1,34 @@
+package com.cert.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Encoding of a modified keystore, with its integrity MAC, and its atomic replacement on disk.
+ */
+@Name("com.cert.KeystoreSave")
+@Label("Keystore Save")
+@Category({ KeystoreEvents.CATEGORY, "Keystore" })
+@Description("Encodes a keystore and replaces its file; the phase tells whether both or only one of them ran")
+@StackTrace(false)
+public class KeystoreSaveEvent extends jdk.jfr.Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Phase")
+	@Description("save (encode and write), encode (CPU bound, integrity MAC included) or write (disk I/O)")
+	public String phase;
+
+	@Label("Bytes Written")
+	@DataAmount(DataAmount.BYTES)
+	public long bytesWritten;
+
+	@Label("Outcome")
+	@Description("success, or the exception which failed the save")
+	public String outcome;
+}
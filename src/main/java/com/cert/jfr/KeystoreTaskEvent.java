@@ -0,0 +1,46 @@
+package com.cert.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The whole sweep of one keystore, from reading it to writing it back.
+ */
+@Name("com.cert.KeystoreTask")
+@Label("Keystore Task")
+@Category(KeystoreEvents.CATEGORY)
+@Description("Sweeps one keystore; in a pipeline it starts on the read stage and ends on the last stage it needs")
+@StackTrace(false)
+public class KeystoreTaskEvent extends jdk.jfr.Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Status")
+	public String status;
+
+	@Label("Streamed")
+	@Description("Whether the streaming scan found nothing to remove, so the keystore was not loaded")
+	public boolean streamed;
+
+	@Label("Bytes Read")
+	@DataAmount(DataAmount.BYTES)
+	public long bytesRead;
+
+	@Label("Bytes Written")
+	@DataAmount(DataAmount.BYTES)
+	public long bytesWritten;
+
+	@Label("Entries Scanned")
+	public long entriesScanned;
+
+	@Label("Entries Removed")
+	public long entriesRemoved;
+
+	@Label("Message")
+	public String message;
+}
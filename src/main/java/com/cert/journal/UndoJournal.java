@@ -0,0 +1,223 @@
+package com.cert.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.cert.keystore.KeystoreFiles;
+import com.cert.model.RemovedEntry;
+
+import lombok.extern.java.Log;
+
+/**
+ * Append-only journal of the entries removed from keystores, from which they can be restored.
+ *
+ * Only removed entries are journaled, so the cost of the backup scales with what a sweep removes rather than
+ * with the size of the keystores it rewrites. The entries of a keystore are appended and synced to disk
+ * before the keystore is replaced; a record torn by a crash is detected by its checksum and ends the journal
+ * when it is read back. Keystores are recorded by their canonical path, as the sweep identifies them.
+ *
+ * An open journal holds an exclusive lock on its file, so two sweeps never append to, or truncate, the same one.
+ *
+ * <pre>
+ * record: magic (int) | body length (int) | body | CRC-32 of the body (long)
+ * body:   run id (UTF) | removed at (long) | keystore path (UTF) | alias (UTF) | entry length (int) | entry
+ * </pre>
+ */
+@Log
+public class UndoJournal implements Closeable {
+
+	private static final int MAGIC = 0x4A4B5355;
+
+	private final Path file;
+	private final FileChannel channel;
+
+	private UndoJournal(final Path file, final FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens the journal for appending, creating it if needed, and locks it until it is closed.
+	 *
+	 * @param file the journal file.
+	 * @return the open journal.
+	 * @throws IOException if the file cannot be opened, or is locked by another journal.
+	 */
+	public static UndoJournal open(final Path file) throws IOException {
+		final Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			// Another sweep appending to the journal would see its records truncated as a torn tail.
+			if (!lock(channel)) {
+				throw new IOException("The undo journal " + file.toAbsolutePath() + " is in use by another sweep.");
+			}
+			// A record torn by a crash would hide every record appended after it.
+			final long valid = read(file, null);
+			if (valid < channel.size()) {
+				log.log(Level.WARNING, "Truncating the torn tail of undo journal {0} at {1} bytes.", new Object[] { file, valid });
+				channel.truncate(valid);
+				channel.force(true);
+			}
+			channel.position(valid);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return new UndoJournal(file, channel);
+	}
+
+	// Takes the exclusive lock of the journal, released when its channel is closed; returns false if it is held.
+	private static boolean lock(final FileChannel channel) throws IOException {
+		try {
+			final FileLock lock = channel.tryLock();
+			return lock != null;
+		} catch (OverlappingFileLockException e) {
+			// Held by another journal of this JVM.
+			return false;
+		}
+	}
+
+	/**
+	 * Appends the entries removed from a keystore and syncs them to disk.
+	 *
+	 * @param runId the sweep run which removed the entries.
+	 * @param keystore the keystore the entries were removed from.
+	 * @param entries the removed entries by alias, as exported by the keystore manager.
+	 * @throws IOException if the entries could not be made durable; the keystore must then be left unchanged.
+	 */
+	public void append(final String runId, final File keystore, final Map<String, byte[]> entries) throws IOException {
+		if (entries.isEmpty()) return;
+		final long now = System.currentTimeMillis();
+		final String path = KeystoreFiles.canonicalPath(keystore.toPath()).toString();
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		final DataOutputStream out = new DataOutputStream(records);
+		final CRC32 crc = new CRC32();
+		for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+			body.reset();
+			final DataOutputStream fields = new DataOutputStream(body);
+			fields.writeUTF(String.valueOf(runId));
+			fields.writeLong(now);
+			fields.writeUTF(path);
+			fields.writeUTF(entry.getKey());
+			fields.writeInt(entry.getValue().length);
+			fields.write(entry.getValue());
+			crc.reset();
+			crc.update(body.toByteArray(), 0, body.size());
+			out.writeInt(MAGIC);
+			out.writeInt(body.size());
+			body.writeTo(out);
+			out.writeLong(crc.getValue());
+		}
+		out.flush();
+		final ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+		synchronized (this) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		log.log(Level.INFO, "Journaled {0} removed entries of {1} ({2} bytes) to {3}.",
+				new Object[] { entries.size(), path, records.size(), file });
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads every entry recorded in a journal, oldest first.
+	 *
+	 * @param file the journal file.
+	 * @return the recorded entries; a missing file yields none.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static List<RemovedEntry> read(final Path file) throws IOException {
+		final List<RemovedEntry> entries = new ArrayList<>();
+		if (Files.isRegularFile(file)) {
+			read(file, entries);
+		}
+		return entries;
+	}
+
+	// Reads the records into the given list, or only checks them if it is null; returns the length of the
+	// valid records, after which the journal is torn or corrupt.
+	private static long read(final Path file, final List<RemovedEntry> entries) throws IOException {
+		long valid = 0;
+		int count = 0;
+		try (final InputStream stream = Files.newInputStream(file);
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+			final CRC32 crc = new CRC32();
+			while (true) {
+				final byte[] body;
+				try {
+					if (in.readInt() != MAGIC) {
+						log.log(Level.WARNING, "Undo journal {0} holds an unknown record after {1} entries, ignoring the rest.",
+								new Object[] { file, count });
+						break;
+					}
+					final int length = in.readInt();
+					if (length < 0) {
+						log.log(Level.WARNING, "Undo journal {0} holds a corrupt record after {1} entries, ignoring the rest.",
+								new Object[] { file, count });
+						break;
+					}
+					body = new byte[length];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body, 0, length);
+					if (in.readLong() != crc.getValue()) {
+						log.log(Level.WARNING, "Undo journal {0} holds a corrupt record after {1} entries, ignoring the rest.",
+								new Object[] { file, count });
+						break;
+					}
+				} catch (EOFException e) {
+					// End of the journal, or a record torn by a crash while it was appended.
+					break;
+				}
+				valid += 16 + body.length;
+				count++;
+				if (entries != null) {
+					entries.add(parse(body));
+				}
+			}
+		}
+		return valid;
+	}
+
+	private static RemovedEntry parse(final byte[] body) throws IOException {
+		final DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body));
+		final RemovedEntry.RemovedEntryBuilder entry = RemovedEntry.builder()
+				.runId(fields.readUTF())
+				.removedAt(fields.readLong())
+				.pathToStore(fields.readUTF())
+				.alias(fields.readUTF());
+		final byte[] content = new byte[fields.readInt()];
+		fields.readFully(content);
+		return entry.entry(content).build();
+	}
+}
@@ -0,0 +1,162 @@
+package com.cert.keystore;
+
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cert.model.CertificateInfo;
+
+import static com.cert.util.Constants.EXPIRY_DATE_FORMATTER;
+
+/**
+ * Bounded, least-recently-used cache of certificate details keyed by SHA-256 fingerprint.
+ * 
+ * Truststores mostly hold the same public CA certificates, so the distinguished names and the formatted
+ * expiry of a certificate are rendered once per process instead of once per keystore holding it.
+ *
+ * Large caches are split into stripes by fingerprint, each with its own lock and its own share of the size,
+ * so that concurrent keystore tasks and parallel entry evaluations rarely wait on each other; the eviction
+ * order is then least-recently-used within a stripe.
+ */
+public class CertificateCache {
+
+	public static final int DEFAULT_MAX_SIZE = 4096;
+
+	private static final CertificateCache SHARED = new CertificateCache(DEFAULT_MAX_SIZE);
+
+	// At most this many stripes, and at least this many certificates per stripe.
+	private static final int MAX_STRIPES = 16;
+	private static final int MIN_STRIPE_SIZE = 256;
+
+	private final int maxSize;
+	private final Map<String, CertificateInfo>[] stripes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new CertificateCache.
+	 * 
+	 * @param maxSize the number of certificates kept; the least recently used ones are evicted first.
+	 */
+	public CertificateCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The cache size must be positive.");
+		}
+		this.maxSize = maxSize;
+		// A power of two, so that small caches keep one stripe and an exact eviction order.
+		final int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE)));
+		this.stripes = newStripes(count, maxSize / count);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, CertificateInfo>[] newStripes(final int count, final int stripeSize) {
+		final Map<String, CertificateInfo>[] stripes = new Map[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new LinkedHashMap<String, CertificateInfo>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, CertificateInfo> eldest) {
+					return size() > stripeSize;
+				}
+			};
+		}
+		return stripes;
+	}
+
+	/**
+	 * Returns the process-wide cache.
+	 * 
+	 * @return the shared cache.
+	 */
+	public static CertificateCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns the details of a certificate, parsing and rendering them only if the certificate was not seen recently.
+	 * 
+	 * @param certificate the certificate.
+	 * @return the certificate details.
+	 */
+	public CertificateInfo get(final X509Certificate certificate) {
+		final String fingerprint;
+		try {
+			fingerprint = fingerprint(certificate);
+		} catch (CertificateEncodingException e) {
+			// Cannot be keyed, describe it without caching.
+			misses.incrementAndGet();
+			return describe(certificate, "");
+		}
+		final Map<String, CertificateInfo> entries = stripe(fingerprint);
+		CertificateInfo info;
+		synchronized (entries) {
+			info = entries.get(fingerprint);
+		}
+		if (info != null) {
+			hits.incrementAndGet();
+			return info;
+		}
+		misses.incrementAndGet();
+		// Rendered outside the lock; two threads missing the same certificate both render it, which is harmless.
+		info = describe(certificate, fingerprint);
+		synchronized (entries) {
+			entries.put(fingerprint, info);
+		}
+		return info;
+	}
+
+	public int size() {
+		int size = 0;
+		for (final Map<String, CertificateInfo> entries : stripes) {
+			synchronized (entries) {
+				size += entries.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Computes the SHA-256 fingerprint of a certificate.
+	 * 
+	 * @param certificate the certificate.
+	 * @return the hex encoded fingerprint.
+	 * @throws CertificateEncodingException if the certificate cannot be encoded.
+	 */
+	public static String fingerprint(final X509Certificate certificate) throws CertificateEncodingException {
+		final MessageDigest md = KeystoreFiles.contentDigest();
+		return KeystoreFiles.hex(md.digest(certificate.getEncoded()));
+	}
+
+	private Map<String, CertificateInfo> stripe(final String fingerprint) {
+		final int hash = fingerprint.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	private static CertificateInfo describe(final X509Certificate certificate, final String fingerprint) {
+		return CertificateInfo.builder()
+				.fingerprint(fingerprint)
+				.subject(certificate.getSubjectX500Principal().toString())
+				.issuer(certificate.getIssuerX500Principal().toString())
+				.signatureAlgorithm(certificate.getSigAlgName())
+				.notBefore(certificate.getNotBefore().getTime())
+				.notAfter(certificate.getNotAfter().getTime())
+				.expiry(EXPIRY_DATE_FORMATTER.format(certificate.getNotAfter().toInstant()))
+				.build();
+	}
+}
@@ -0,0 +1,195 @@
+package com.cert.keystore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+
+import lombok.extern.java.Log;
+
+/**
+ * File level helpers shared by the keystore readers and writers.
+ */
+@Log
+public final class KeystoreFiles {
+
+	// Buffers up to this size are returned to the pool and reused; larger files get a one-off buffer.
+	private static final int MAX_POOLED_BUFFER = 4 * 1024 * 1024;
+
+	private static final int MIN_BUFFER = 64 * 1024;
+
+	// At most this many idle buffers are kept. The pool is shared rather than per thread: with virtual thread
+	// executors every task runs on a new thread, which would allocate a buffer per keystore and never reuse it.
+	static final int POOLED_BUFFERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private KeystoreFiles() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Creates the digest used as change-detection key of keystore files.
+	 * 
+	 * @return a new SHA-256 digest.
+	 */
+	public static MessageDigest contentDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes the change-detection key of a file by reading it once through a channel.
+	 * 
+	 * @param path the file.
+	 * @return the hex encoded SHA-256 of the file content.
+	 * @throws IOException if there was an I/O problem with data.
+	 */
+	public static String contentHash(final Path path) throws IOException {
+		final MessageDigest md = contentDigest();
+		final byte[] buffer = borrowBuffer(MIN_BUFFER);
+		final ByteBuffer bb = ByteBuffer.wrap(buffer);
+		int filled = 0;
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (channel.read(bb) >= 0) {
+				filled = Math.max(filled, bb.position());
+				md.update(buffer, 0, bb.position());
+				bb.clear();
+			}
+		} finally {
+			// The buffer is reused by other keystores, do not leave key material in it.
+			Arrays.fill(buffer, 0, Math.max(filled, bb.position()), (byte) 0);
+			releaseBuffer(buffer);
+		}
+		return hex(md.digest());
+	}
+
+	/**
+	 * Resolves the path which identifies a keystore file however it is named: relative paths, "." and ".."
+	 * segments and symbolic links all resolve to the same real path. A file which does not exist keeps its
+	 * absolute, normalized path.
+	 * 
+	 * @param path the keystore path as configured.
+	 * @return the canonical path.
+	 */
+	public static Path canonicalPath(final Path path) {
+		try {
+			return path.toRealPath();
+		} catch (IOException e) {
+			return path.toAbsolutePath().normalize();
+		}
+	}
+
+	public static String hex(final byte[] bytes) {
+		final char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Borrows a buffer of at least the given size from the shared pool, or allocates one when none fits.
+	 * Callers must hand it back with {@link #releaseBuffer(byte[])} once done, after clearing what they wrote.
+	 */
+	static byte[] borrowBuffer(final int size) {
+		if (size > MAX_POOLED_BUFFER) {
+			return new byte[size];
+		}
+		final byte[] buffer = BUFFERS.poll();
+		if (buffer == null || buffer.length < size) {
+			// A pooled buffer too small for this file is dropped, so the pool grows towards the usual size.
+			return new byte[Math.max(size, buffer == null ? MIN_BUFFER : Math.min(buffer.length * 2, MAX_POOLED_BUFFER))];
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns a borrowed buffer to the shared pool; it is dropped if too large or if the pool is full.
+	 */
+	static void releaseBuffer(final byte[] buffer) {
+		if (buffer.length <= MAX_POOLED_BUFFER) {
+			BUFFERS.offer(buffer);
+		}
+	}
+
+	/**
+	 * Unmaps a mapped file right away instead of when the buffer is garbage collected; on Windows a file cannot
+	 * be replaced while a mapping of it is open. The buffer must not be used afterwards. Best-effort: when the
+	 * runtime does not allow it, the mapping is left to the garbage collector.
+	 */
+	static void unmap(final MappedByteBuffer mapping) {
+		try {
+			// Java 9 and later.
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), mapping);
+			return;
+		} catch (NoSuchMethodException e) {
+			// Java 8, see below.
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.log(Level.FINE, "Could not unmap a keystore mapping: {0}", e.toString());
+			return;
+		}
+		try {
+			final Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(mapping);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.log(Level.FINE, "Could not unmap a keystore mapping: {0}", e.toString());
+		}
+	}
+
+	/**
+	 * Adapts the remaining bytes of a buffer, such as a mapped file, to an input stream.
+	 */
+	static InputStream inputStream(final ByteBuffer buffer) {
+		return new InputStream() {
+			@Override
+			public int read() {
+				return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) {
+				if (len == 0) {
+					return 0;
+				}
+				if (!buffer.hasRemaining()) {
+					return -1;
+				}
+				final int n = Math.min(len, buffer.remaining());
+				buffer.get(b, off, n);
+				return n;
+			}
+
+			@Override
+			public int available() {
+				return buffer.remaining();
+			}
+		};
+	}
+}
@@ -0,0 +1,70 @@
+package com.cert.keystore;
+
+import java.security.KeyStore;
+
+/**
+ * Keystore file formats, recognized from the first bytes of the file.
+ */
+public enum KeystoreFormat {
+	/** Sun JKS, starting with the magic number 0xFEEDFEED. */
+	JKS("JKS"),
+	/** SunJCE JCEKS, starting with the magic number 0xCECECECE. */
+	JCEKS("JCEKS"),
+	/** PKCS#12, a DER encoded PFX structure starting with a SEQUENCE tag. */
+	PKCS12("PKCS12");
+
+	/** Number of leading bytes needed to recognize a format. */
+	public static final int HEADER_LENGTH = 4;
+
+	private static final int JKS_MAGIC = 0xfeedfeed;
+	private static final int JCEKS_MAGIC = 0xcececece;
+	private static final int DER_SEQUENCE = 0x30;
+
+	private final String type;
+
+	KeystoreFormat(final String type) {
+		this.type = type;
+	}
+
+	/**
+	 * Returns the {@link KeyStore} type which reads and writes this format.
+	 * 
+	 * @return the keystore type.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Recognizes a format from the first four bytes of a file, read as a big-endian int.
+	 * 
+	 * @param header the first four bytes of the file.
+	 * @return the format, or null if it is not a known keystore format.
+	 */
+	public static KeystoreFormat of(final int header) {
+		if (header == JKS_MAGIC) {
+			return JKS;
+		}
+		if (header == JCEKS_MAGIC) {
+			return JCEKS;
+		}
+		if ((header >>> 24) == DER_SEQUENCE) {
+			return PKCS12;
+		}
+		return null;
+	}
+
+	/**
+	 * Recognizes a format from the first bytes of a file.
+	 * 
+	 * @param bytes the file content, or at least its first {@link #HEADER_LENGTH} bytes.
+	 * @param length the number of valid bytes.
+	 * @return the format, or null if it is not a known keystore format.
+	 */
+	public static KeystoreFormat of(final byte[] bytes, final int length) {
+		if (length < HEADER_LENGTH) {
+			return null;
+		}
+		return of((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff));
+	}
+}
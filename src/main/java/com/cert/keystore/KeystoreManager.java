@@ -1,30 +1,85 @@
 package com.cert.keystore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.security.KeyStore;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateExpiredException;
-import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
-import java.text.SimpleDateFormat;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 
+import com.cert.jfr.KeystoreEvents;
+import com.cert.jfr.KeystoreFilterEvent;
+import com.cert.jfr.KeystoreLoadEvent;
+import com.cert.jfr.KeystoreSaveEvent;
+import com.cert.model.CertificateExpiry;
+import com.cert.model.CertificateInfo;
+import com.cert.policy.CompiledExpiryPolicy;
+import com.cert.policy.ExpiryPolicy;
+
 import lombok.extern.java.Log;
 
 @Log
 public class KeystoreManager {
 
-    private final KeyStore store;
+    // Created once the format of the file is known.
+    private KeyStore store;
+    private KeystoreFormat format;
     private final File file;
     private final char[] password;
+    // Set once entries have been removed from the in-memory store and it differs from the file.
+    private boolean dirty;
+    // Earliest time (epoch milliseconds) an entry kept by the last filterExpiredKeys() call becomes removable.
+    private long earliestExpiry = Long.MAX_VALUE;
+    // Expiry of every certificate kept by the last filterExpiredKeys() call.
+    private List<CertificateExpiry> retainedCertificates = Collections.emptyList();
+    // When set, removed entries are exported before they are deleted, and kept if they cannot be.
+    private boolean exportRemoved;
+    // Entries removed by the last filterExpiredKeys() call, exported as one-entry keystores, by alias.
+    private Map<String, byte[]> removedEntries = Collections.emptyMap();
+    // Stores with at least this many entries are evaluated in parallel; 0 when never.
+    private int parallelThreshold;
+    private ForkJoinPool parallelPool;
+    // Hex encoded SHA-256 of the file content as last read or written.
+    private String contentHash;
+    private long bytesRead;
+    private long bytesWritten;
 
     /**
      * Creates a new KeystoreManager.
@@ -40,6 +95,24 @@ public class KeystoreManager {
      */
     public KeystoreManager(File file, char[] password)
             throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        this(file, password, LoadMode.STREAM);
+    }
+
+    /**
+     * Creates a new KeystoreManager reading the file with the given mode.
+     * 
+     * @param file the keystore file.
+     * @param password the password to access the file.
+     * @param loadMode how the file is read.
+     * 
+     * @throws NoSuchAlgorithmException if the algorithm used to check the integrity of the keystore cannot be found.
+     * @throws CertificateException if any of the certificates in the keystore could not be loaded.
+     * @throws IOException if a password is required but not given, or if the given password was incorrect. If the error is due to a wrong password, the cause of the IOException should be an UnrecoverableKeyException.
+     * @throws KeyStoreException if a default keystore is unable to be created.
+     * @throws IllegalArgumentException if the provided keystore or password were null or incorrect.
+     */
+    public KeystoreManager(File file, char[] password, LoadMode loadMode)
+            throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
 
         if (file == null) {
             throw new IllegalArgumentException("The keystore file cannot be null.");
@@ -57,78 +130,725 @@ public class KeystoreManager {
         
         this.file = file;
         this.password = password;
-        this.store = KeyStore.getInstance(KeyStore.getDefaultType());
 
-        // Load store from jks file		
-		try (final FileInputStream fis = new FileInputStream(file)) {
-			 log.log(Level.INFO, "Loading keystore from file: {0}.", file.getAbsolutePath());
-				
-			 log.log(Level.INFO, "Total file size to read (in bytes) : {0}", fis.available());
-			 store.load(fis, password);
-			 
-			 log.log(Level.INFO, "Keystore {0} loaded successfully.", file.getAbsolutePath());  
-		}
+        log.log(Level.INFO, "Loading keystore from file: {0}.", file.getAbsolutePath());
+        final LoadMode mode = loadMode == null ? LoadMode.STREAM : loadMode;
+        final KeystoreLoadEvent event = KeystoreEvents.SUPPORTED ? new KeystoreLoadEvent() : null;
+        if (event != null) event.begin();
+        try {
+            final MessageDigest md = KeystoreFiles.contentDigest();
+            switch (mode) {
+            case CHANNEL:
+                loadFromChannel(md);
+                break;
+            case MAPPED:
+                loadFromMapping(md);
+                break;
+            default:
+                loadFromStream(md);
+                break;
+            }
+            this.contentHash = KeystoreFiles.hex(md.digest());
+        } catch (NoSuchAlgorithmException | CertificateException | KeyStoreException | IOException | RuntimeException e) {
+            loaded(event, mode.name(), e);
+            throw e;
+        }
+        loaded(event, mode.name(), null);
+
+        log.log(Level.INFO, "Keystore {0} loaded successfully ({1}, {2} bytes).", new Object[] { file.getAbsolutePath(), store.getType(), bytesRead });
+    }
+
+    /**
+     * Creates a new KeystoreManager from the content of a keystore file which has already been read.
+     * 
+     * @param file the keystore file the content was read from, and is saved back to.
+     * @param password the password to access the file.
+     * @param content the file content.
+     * 
+     * @throws NoSuchAlgorithmException if the algorithm used to check the integrity of the keystore cannot be found.
+     * @throws CertificateException if any of the certificates in the keystore could not be loaded.
+     * @throws IOException if a password is required but not given, or if the given password was incorrect. If the error is due to a wrong password, the cause of the IOException should be an UnrecoverableKeyException.
+     * @throws KeyStoreException if a default keystore is unable to be created.
+     * @throws IllegalArgumentException if the provided keystore, password or content were null.
+     */
+    public KeystoreManager(File file, char[] password, byte[] content)
+            throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+
+        if (file == null) {
+            throw new IllegalArgumentException("The keystore file cannot be null.");
+        }
+        if (password == null) {
+            throw new IllegalArgumentException("The password cannot be null.");
+        }
+        if (content == null) {
+            throw new IllegalArgumentException("The keystore content cannot be null.");
+        }
+
+        this.file = file;
+        this.password = password;
+
+        final KeystoreLoadEvent event = KeystoreEvents.SUPPORTED ? new KeystoreLoadEvent() : null;
+        if (event != null) event.begin();
+        try {
+            final MessageDigest md = KeystoreFiles.contentDigest();
+            md.update(content);
+            this.bytesRead = content.length;
+            create(KeystoreFormat.of(content, content.length));
+            store.load(new ByteArrayInputStream(content), password);
+            this.contentHash = KeystoreFiles.hex(md.digest());
+        } catch (NoSuchAlgorithmException | CertificateException | KeyStoreException | IOException | RuntimeException e) {
+            loaded(event, "CONTENT", e);
+            throw e;
+        }
+        loaded(event, "CONTENT", null);
+
+        log.log(Level.FINE, "Keystore {0} parsed ({1}, {2} bytes).", new Object[] { file.getAbsolutePath(), store.getType(), bytesRead });
+    }
+
+    // Commits the load event, unless events are not supported or not recorded.
+    private void loaded(final KeystoreLoadEvent event, final String mode, final Exception failure) {
+        if (event == null || !event.shouldCommit()) return;
+        event.path = file.getAbsolutePath();
+        event.loadMode = mode;
+        event.format = format == null ? null : format.name();
+        event.bytesRead = bytesRead;
+        try {
+            event.entries = failure == null ? store.size() : 0;
+        } catch (KeyStoreException e) {
+            // Cannot happen on a loaded store.
+        }
+        event.outcome = outcome(failure);
+        event.commit();
+    }
+
+    private static String outcome(final Exception failure) {
+        return failure == null ? "success" : failure.toString();
+    }
+
+    // Creates the store for the format recognized in the first bytes of the file, so it is loaded by the right
+    // implementation at the first attempt and saved back in the same format.
+    private void create(final KeystoreFormat detected) throws KeyStoreException {
+        format = detected;
+        if (detected == null) {
+            log.log(Level.FINE, "Unrecognized keystore format in {0}, using the default type.", file.getAbsolutePath());
+            store = KeyStore.getInstance(KeyStore.getDefaultType());
+        } else {
+            store = KeyStore.getInstance(detected.getType());
+        }
+    }
+
+    private void loadFromStream(final MessageDigest md)
+            throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        try (final BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file));
+                final DigestInputStream in = new DigestInputStream(buffered, md)) {
+            // Peek at the header; the bytes are read again, and hashed, by the load.
+            final byte[] header = new byte[KeystoreFormat.HEADER_LENGTH];
+            buffered.mark(header.length);
+            int length = 0;
+            for (int n; length < header.length && (n = buffered.read(header, length, header.length - length)) >= 0;) {
+                length += n;
+            }
+            buffered.reset();
+            create(KeystoreFormat.of(header, length));
+            store.load(in, password);
+            // Hash whatever the keystore implementation did not consume.
+            final byte[] rest = new byte[512];
+            while (in.read(rest) >= 0) {
+                // draining
+            }
+        }
+        bytesRead = file.length();
+    }
+
+    private void loadFromChannel(final MessageDigest md)
+            throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final byte[] buffer = KeystoreFiles.borrowBuffer(checkedSize(channel));
+            final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) channel.size());
+            while (bb.hasRemaining() && channel.read(bb) >= 0) {
+                // one read is usually enough, network volumes may return short reads
+            }
+            final int length = bb.position();
+            try {
+                md.update(buffer, 0, length);
+                create(KeystoreFormat.of(buffer, length));
+                store.load(new ByteArrayInputStream(buffer, 0, length), password);
+            } finally {
+                // The buffer is reused by other loads, do not leave key material in it.
+                Arrays.fill(buffer, 0, length, (byte) 0);
+                KeystoreFiles.releaseBuffer(buffer);
+            }
+            bytesRead = length;
+        }
+    }
+
+    private void loadFromMapping(final MessageDigest md)
+            throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, checkedSize(channel));
+            try {
+                md.update(mapping.duplicate());
+                create(mapping.capacity() < KeystoreFormat.HEADER_LENGTH ? null : KeystoreFormat.of(mapping.getInt(0)));
+                store.load(KeystoreFiles.inputStream(mapping), password);
+                bytesRead = mapping.capacity();
+            } finally {
+                // The loaded store holds its own copy; an open mapping would keep the file from being replaced on Windows.
+                KeystoreFiles.unmap(mapping);
+            }
+        }
+    }
+
+    private int checkedSize(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("The keystore %s is too large (%d bytes).", file.getAbsolutePath(), size));
+        }
+        return (int) size;
     }
 
     /**
      * Removes all expired certificates from the store.
      * 
+     * @return the number of removed entries.
      * @throws KeyStoreException if there is an error removing a certificate from the store.
      */
-    public void filterExpiredKeys() throws KeyStoreException {
-        log.log(Level.INFO, "Removing expired keys.");
+    public int filterExpiredKeys() throws KeyStoreException {
+        return filterExpiredKeys(CertificateCache.shared());
+    }
+
+    /**
+     * Removes all expired certificates from the store, looking their details up in the given cache.
+     * 
+     * @param certificateCache the cache of certificate details shared across keystores.
+     * @return the number of removed entries.
+     * @throws KeyStoreException if there is an error removing a certificate from the store.
+     */
+    public int filterExpiredKeys(final CertificateCache certificateCache) throws KeyStoreException {
+        return filterExpiredKeys(certificateCache, ExpiryPolicy.defaults().compile(System.currentTimeMillis()));
+    }
+
+    /**
+     * Removes the entries the given policy finds removable, looking certificate details up in the given cache.
+     * Entries without an X.509 certificate, such as secret keys, are always kept.
+     * 
+     * Stores holding at least {@link #setParallelThreshold(int, ForkJoinPool) the parallel threshold} entries are
+     * evaluated in chunks on the given fork/join pool; the removals are then applied in one pass on the calling thread,
+     * as a KeyStore cannot be modified concurrently.
+     * 
+     * @param certificateCache the cache of certificate details shared across keystores.
+     * @param policy the policy, compiled against the clock snapshot of the sweep.
+     * @return the number of removed entries.
+     * @throws KeyStoreException if there is an error removing a certificate from the store.
+     */
+    public int filterExpiredKeys(final CertificateCache certificateCache, final CompiledExpiryPolicy policy)
+            throws KeyStoreException {
+        final KeystoreFilterEvent event = KeystoreEvents.SUPPORTED ? new KeystoreFilterEvent() : null;
+        if (event != null) event.begin();
+        final int removedKeys;
+        try {
+            removedKeys = filter(certificateCache, policy);
+        } catch (KeyStoreException | RuntimeException e) {
+            filtered(event, 0, e);
+            throw e;
+        }
+        filtered(event, removedKeys, null);
+        return removedKeys;
+    }
+
+    // Commits the filter event, unless events are not supported or not recorded.
+    private void filtered(final KeystoreFilterEvent event, final int removedKeys, final Exception failure) {
+        if (event == null || !event.shouldCommit()) return;
+        event.path = file.getAbsolutePath();
+        try {
+            event.entriesScanned = failure == null ? store.size() + removedKeys : 0;
+        } catch (KeyStoreException e) {
+            // Cannot happen on a loaded store.
+        }
+        event.entriesRemoved = removedKeys;
+        event.parallel = parallelThreshold > 0 && event.entriesScanned >= parallelThreshold;
+        event.outcome = outcome(failure);
+        event.commit();
+    }
+
+    private int filter(final CertificateCache certificateCache, final CompiledExpiryPolicy policy) throws KeyStoreException {
+        // Per-certificate detail is only rendered when FINE is enabled, removals are always audited.
+        final boolean detail = log.isLoggable(Level.FINE);
+        final boolean audit = log.isLoggable(Level.INFO);
+        final long start = System.nanoTime();
         int removedKeys = 0;       
+        long earliest = Long.MAX_VALUE;
+        final List<CertificateExpiry> retained = new ArrayList<>();
+        final Map<String, byte[]> removed = exportRemoved ? new LinkedHashMap<>() : Collections.emptyMap();
+
+        // The aliases are copied first as some implementations, such as PKCS12, enumerate their live
+        // entry map and fail when an entry is deleted during the enumeration.
+        final List<String> aliases = Collections.list(store.aliases());
+        final Verdict[] verdicts = new Verdict[aliases.size()];
+        final boolean parallel = parallelThreshold > 0 && aliases.size() >= parallelThreshold;
+        if (parallel) {
+            try {
+                parallelPool.invoke(new Evaluation(aliases, verdicts, 0, verdicts.length, certificateCache, policy, detail));
+            } catch (EvaluationException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (int i = 0; i < verdicts.length; i++) {
+                verdicts[i] = evaluate(aliases.get(i), certificateCache, policy, detail);
+            }
+        }
+
+        for (final Verdict verdict : verdicts) {
+            // Secret key entries have no certificate, and other certificate types have no validity to check
+            if (verdict == null) continue;
+            final String alias = verdict.alias;
+            CertificateInfo culprit = verdict.culprit;
+            if (culprit != null && exportRemoved && !export(alias, removed)) {
+                // An entry which could not be backed up is not removed.
+                culprit = null;
+            }
+            if (culprit != null) {
+                // Remove the entry the policy finds removable from the store
+                store.deleteEntry(alias);
+                removedKeys++;
+                dirty = true;
+                if (audit) {
+                    log.log(Level.INFO, "Removed entry: keystore={0} alias={1} subject={2} notAfter={3}",
+                            new Object[] { file.getAbsolutePath(), alias, culprit.getSubject(), culprit.getExpiry() });
+                }
+                continue;
+            }
+            if (verdict.applies) {
+                earliest = Math.min(earliest, verdict.removal);
+            }
+            retained.add(new CertificateExpiry(verdict.info.getNotAfter(), file.getPath(), alias, verdict.info.getFingerprint()));
+        }
+        log.log(Level.INFO, "Filtered keystore {0}: scanned={1} removed={2} remaining={3} parallel={4} elapsedMs={5}",
+                new Object[] { file.getAbsolutePath(), aliases.size(), removedKeys, store.size(), parallel,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+        earliestExpiry = earliest;
+        retainedCertificates = retained;
+        removedEntries = removed;
+        return removedKeys;
+    }
 
-        // Count through all aliases
-        Enumeration<String> aliases = store.aliases();
-        while (aliases.hasMoreElements()) {
-            // Get the certificate and alias
-            String alias = aliases.nextElement();
-            Certificate cert = store.getCertificate(alias);
-
-            // If the certificate is an X509 certificate
-            if (cert.getType().equals("X.509")) {
-                X509Certificate xCert = (X509Certificate) cert;
-                // X.509 certificate properties 
-                log.log(Level.INFO, "  Subject DN: {0}", xCert.getSubjectDN());
-                log.log(Level.INFO, "  Signature Algorithm: {0}", xCert.getSigAlgName());
-                log.log(Level.INFO, "  Valid from: {0}", xCert.getNotBefore());
-                log.log(Level.INFO, "  Valid until: {0}", xCert.getNotAfter());
-                log.log(Level.INFO, "  Issuer: {0}", xCert.getIssuerDN());
-                
-                String expiryDate = new SimpleDateFormat("dd/MM/yyyy").format(xCert.getNotAfter());
-
-                log.log(Level.INFO, "Checking certificate {0} (expires {1}).", new Object[]{alias, expiryDate});
-                // Check the X.509 certificate validity, and remove it if it's expired.
-                try {
-                    xCert.checkValidity();
-                } catch (CertificateExpiredException | CertificateNotYetValidException e) {
-                   // Remove expired X.509 certificate from the store
-                    store.deleteEntry(alias);
-                    log.log(Level.INFO, "Removed certificate {0} (expired {1}).", new Object[]{alias, expiryDate});
-                    removedKeys++;
+    // Decides what to do with one entry without modifying the store, so entries can be evaluated concurrently;
+    // returns null for an entry without X.509 certificate.
+    private Verdict evaluate(final String alias, final CertificateCache certificateCache, final CompiledExpiryPolicy policy,
+            final boolean detail) throws KeyStoreException {
+        // Get the certificate and alias; the first of the chain for private key entries
+        final Certificate cert = store.getCertificate(alias);
+        if (!(cert instanceof X509Certificate)) {
+            if (detail) {
+                log.log(Level.FINE, "Keeping entry {0} without X.509 certificate.", alias);
+            }
+            return null;
+        }
+        final CertificateInfo info = certificateCache.get((X509Certificate) cert);
+        if (detail) {
+            log.log(Level.FINE, "Checking certificate {0}: subject={1} issuer={2} signature={3} notBefore={4} notAfter={5}",
+                    new Object[] { alias, info.getSubject(), info.getIssuer(), info.getSignatureAlgorithm(),
+                            new Date(info.getNotBefore()), new Date(info.getNotAfter()) });
+        }
+
+        final boolean applies = policy.appliesTo(alias);
+        CertificateInfo culprit = applies && policy.isRemovable(info.getNotBefore(), info.getNotAfter()) ? info : null;
+        long removal = policy.removalTime(info.getNotAfter());
+        if (culprit == null && applies && policy.checksWholeChain() && store.isKeyEntry(alias)) {
+            final Certificate[] chain = store.getCertificateChain(alias);
+            for (int i = 1; chain != null && i < chain.length && culprit == null; i++) {
+                if (chain[i] instanceof X509Certificate) {
+                    final CertificateInfo issuer = certificateCache.get((X509Certificate) chain[i]);
+                    if (policy.isRemovable(issuer.getNotBefore(), issuer.getNotAfter())) {
+                        culprit = issuer;
+                    }
+                    removal = Math.min(removal, policy.removalTime(issuer.getNotAfter()));
                 }
             }
         }
-        log.log(Level.INFO, "Successfully removed {0} expired keys out of a total {1}.",
-                new Object[] { removedKeys, store.size() });
+        return new Verdict(alias, info, culprit, applies, removal);
+    }
+
+    /**
+     * Sets the number of entries from which {@link #filterExpiredKeys()} evaluates the entries of this store in
+     * parallel, so that a single very large truststore does not hold back the end of a sweep.
+     * 
+     * @param parallelThreshold the entry count, or 0 to always evaluate the entries on the calling thread.
+     * @param parallelPool the pool the entries are evaluated on; a pool of the sweep rather than the common pool,
+     *        which blocking work such as directory walks may hold. Only used when the threshold is positive.
+     */
+    public void setParallelThreshold(final int parallelThreshold, final ForkJoinPool parallelPool) {
+        if (parallelThreshold > 0 && parallelPool == null) {
+            throw new IllegalArgumentException("A pool is required to evaluate entries in parallel.");
+        }
+        this.parallelThreshold = parallelThreshold;
+        this.parallelPool = parallelPool;
+    }
+
+    // Exports an entry about to be removed; returns false if it could not be.
+    private boolean export(final String alias, final Map<String, byte[]> removed) {
+        try {
+            // Trusted certificates are not password protected, key entries are protected like the store.
+            final KeyStore.ProtectionParameter protection = store.isKeyEntry(alias) ? new KeyStore.PasswordProtection(password) : null;
+            final KeyStore single = KeyStore.getInstance(store.getType());
+            single.load(null, password);
+            single.setEntry(alias, store.getEntry(alias, protection), protection);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+            single.store(out, password);
+            removed.put(alias, out.toByteArray());
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            log.log(Level.WARNING, "Keeping entry {0} of {1}, it could not be exported: {2}",
+                    new Object[] { alias, file.getAbsolutePath(), e.getMessage() });
+            return false;
+        }
+    }
+
+    /**
+     * Sets whether {@link #filterExpiredKeys()} exports the entries it removes, for an undo journal; an entry
+     * which cannot be exported, such as a private key protected by another password than the store, is kept.
+     * 
+     * @param exportRemoved true to export removed entries.
+     */
+    public void setExportRemoved(final boolean exportRemoved) {
+        this.exportRemoved = exportRemoved;
+    }
+
+    /**
+     * Returns the entries removed by the last {@link #filterExpiredKeys()} call, when they are exported.
+     * Each is a keystore of the type of this one, holding only that entry and protected by the same password.
+     * 
+     * @return the encoded entries by alias, in removal order; empty if removed entries are not exported.
+     */
+    public Map<String, byte[]> getRemovedEntries() {
+        return removedEntries;
+    }
+
+    /**
+     * Inserts an entry exported by {@link #getRemovedEntries()} back into the store, unless the alias is taken.
+     * 
+     * @param alias the alias of the entry.
+     * @param entry the exported entry.
+     * @return true if the entry was inserted, false if the store already holds an entry with that alias.
+     * @throws KeyStoreException if the entry could not be inserted.
+     * @throws NoSuchAlgorithmException if the integrity algorithm of the exported entry cannot be found.
+     * @throws CertificateException if the certificates of the exported entry could not be loaded.
+     * @throws UnrecoverableEntryException if the entry is not protected by the password of this store.
+     * @throws IOException if the exported entry is corrupt.
+     */
+    public boolean importEntry(final String alias, final byte[] entry) throws KeyStoreException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableEntryException, IOException {
+        if (store.containsAlias(alias)) {
+            return false;
+        }
+        final KeystoreFormat detected = KeystoreFormat.of(entry, entry.length);
+        final KeyStore single = KeyStore.getInstance(detected == null ? store.getType() : detected.getType());
+        single.load(new ByteArrayInputStream(entry), password);
+        if (!single.containsAlias(alias)) {
+            throw new KeyStoreException(String.format("The exported entry does not hold alias %s.", alias));
+        }
+        final KeyStore.ProtectionParameter protection = single.isKeyEntry(alias) ? new KeyStore.PasswordProtection(password) : null;
+        store.setEntry(alias, single.getEntry(alias, protection), protection);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Tells whether the in-memory store has been modified since it was loaded or last saved.
+     * 
+     * @return true if the store needs to be written back.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Returns the earliest expiry of the certificates kept by the last {@link #filterExpiredKeys()} call, that is
+     * when the first of them becomes removable: its notAfter plus the grace period of the policy.
+     * 
+     * @return epoch milliseconds, or Long.MAX_VALUE if the store holds no X.509 certificate the policy applies to.
+     */
+    public long getEarliestExpiry() {
+        return earliestExpiry;
+    }
+
+    /**
+     * Returns the expiry of every X.509 certificate kept by the last {@link #filterExpiredKeys()} call.
+     * 
+     * @return the kept certificates, empty before the store has been filtered.
+     */
+    public List<CertificateExpiry> getRetainedCertificates() {
+        return retainedCertificates;
+    }
+
+    /**
+     * Returns the number of entries currently in the store.
+     * 
+     * @return the entry count.
+     * @throws KeyStoreException if the keystore has not been initialized (loaded).
+     */
+    public int getEntryCount() throws KeyStoreException {
+        return store.size();
+    }
+
+    /**
+     * Returns the change-detection key of the file, computed while it was read or last written.
+     * 
+     * @return the hex encoded SHA-256 of the file content.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Returns the format recognized in the file, which is also the format it is saved in.
+     * 
+     * @return the format, or null if the file was loaded with the default keystore type.
+     */
+    public KeystoreFormat getFormat() {
+        return format;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
     }
 
     /**
      * Writes the keystore back to the given file.
      * 
+     * The store is written in the format it was read from, to a temporary file in the same directory,
+     * synced to disk and then renamed over the original, so a crash mid-write never leaves a truncated
+     * keystore behind.
+     * 
      * @throws KeyStoreException if the keystore has not been initialized (loaded).
      * @throws IOException if there was an I/O problem with data.
      * @throws NoSuchAlgorithmException if the appropriate data integrity algorithm could not be found.
      * @throws CertificateException if any of the certificates included in the keystore data could not be stored.
      */
     public void save() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+        final KeystoreSaveEvent event = KeystoreEvents.SUPPORTED ? new KeystoreSaveEvent() : null;
+        if (event != null) event.begin();
+        try {
+            writeAtomically(out -> store.store(out, password));
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException | RuntimeException e) {
+            saved(event, "save", 0, e);
+            throw e;
+        }
+        saved(event, "save", bytesWritten, null);
+    }
+
+    /**
+     * Encodes the keystore in the format it was read from, without touching the file; this is the CPU bound
+     * half of {@link #save()}.
+     * 
+     * @return the encoded keystore.
+     * @throws KeyStoreException if the keystore has not been initialized (loaded).
+     * @throws IOException if there was an I/O problem with data.
+     * @throws NoSuchAlgorithmException if the appropriate data integrity algorithm could not be found.
+     * @throws CertificateException if any of the certificates included in the keystore data could not be stored.
+     */
+    public byte[] encode() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+        final KeystoreSaveEvent event = KeystoreEvents.SUPPORTED ? new KeystoreSaveEvent() : null;
+        if (event != null) event.begin();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(bytesRead, 4096));
+        try {
+            store.store(out, password);
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException | RuntimeException e) {
+            saved(event, "encode", 0, e);
+            throw e;
+        }
+        saved(event, "encode", out.size(), null);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an encoded keystore back to the file, like {@link #save()} does; this is the I/O bound half of it.
+     * 
+     * @param encoded the keystore as returned by {@link #encode()}.
+     * @throws IOException if there was an I/O problem with data.
+     */
+    public void write(final byte[] encoded) throws IOException {
+        final KeystoreSaveEvent event = KeystoreEvents.SUPPORTED ? new KeystoreSaveEvent() : null;
+        if (event != null) event.begin();
+        try {
+            writeAtomically(out -> out.write(encoded));
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException e) {
+            // Writing bytes does not involve the keystore.
+            saved(event, "write", 0, e);
+            throw new IllegalStateException(e);
+        } catch (IOException | RuntimeException e) {
+            saved(event, "write", 0, e);
+            throw e;
+        }
+        saved(event, "write", bytesWritten, null);
+    }
+
+    // Commits the save event, unless events are not supported or not recorded.
+    private void saved(final KeystoreSaveEvent event, final String phase, final long bytes, final Exception failure) {
+        if (event == null || !event.shouldCommit()) return;
+        event.path = file.getAbsolutePath();
+        event.phase = phase;
+        event.bytesWritten = bytes;
+        event.outcome = outcome(failure);
+        event.commit();
+    }
+
+    private void writeAtomically(final Content content) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
         log.log(Level.INFO, "Writing keystore to file: {0}.", file.getAbsolutePath());
-		try (final FileOutputStream  out = new FileOutputStream(file)) {
-			 store.store(out, password);
-			 
-			 log.log(Level.INFO, "Keystore {0} written successfully.", file.getAbsolutePath());
-		} 
+        // A symlinked keystore, such as cacerts, is replaced where the link points, and the link is kept.
+        final Path target = file.exists() ? file.toPath().toRealPath() : file.toPath().toAbsolutePath();
+        final Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            final MessageDigest md = KeystoreFiles.contentDigest();
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    final OutputStream out = new DigestOutputStream(new BufferedOutputStream(unclosable(Channels.newOutputStream(channel))), md)) {
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+                bytesWritten = channel.position();
+            }
+            contentHash = KeystoreFiles.hex(md.digest());
+            copyAttributes(target, temp);
+            replace(temp, target);
+            dirty = false;
+
+            log.log(Level.INFO, "Keystore {0} written successfully.", file.getAbsolutePath());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Produces the new content of the keystore file.
+    private interface Content {
+        void writeTo(OutputStream out) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException;
+    }
+
+    // JCEKS and PKCS12 close the stream they store to, which must not close the channel before it is forced.
+    private static OutputStream unclosable(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    private static void copyAttributes(final Path source, final Path target) throws IOException {
+        final PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view == null || !Files.exists(source)) {
+            return;
+        }
+        // Temporary files are created owner-only by the sweeping user, keep the permissions and the ownership
+        // of the original keystore instead, so a sweep run as root leaves it readable by its service user.
+        final PosixFileAttributes attributes = Files.readAttributes(source, PosixFileAttributes.class);
+        view.setPermissions(attributes.permissions());
+        try {
+            if (!attributes.owner().equals(Files.getOwner(target))) {
+                view.setOwner(attributes.owner());
+            }
+            view.setGroup(attributes.group());
+        } catch (IOException e) {
+            // Only a privileged user may give a file away; the sweeping user then simply keeps it.
+            log.log(Level.FINE, "Could not keep the ownership of {0}: {1}", new Object[] { source, e.getMessage() });
+        }
+    }
+
+    private static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.log(Level.WARNING, "Atomic rename is not supported for {0}, replacing it in place.", target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Make the rename itself durable; directories cannot be opened for syncing on every platform.
+        try (final FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Could not sync directory {0}: {1}", new Object[] { target.getParent(), e.getMessage() });
+        }
+    }
+
+    // What filterExpiredKeys() does with one entry: removes it if it has a culprit, keeps it otherwise.
+    private static final class Verdict {
+        private final String alias;
+        private final CertificateInfo info;
+        // The certificate of the chain which makes the entry removable, null if the entry is kept.
+        private final CertificateInfo culprit;
+        private final boolean applies;
+        private final long removal;
+
+        private Verdict(final String alias, final CertificateInfo info, final CertificateInfo culprit,
+                final boolean applies, final long removal) {
+            this.alias = alias;
+            this.info = info;
+            this.culprit = culprit;
+            this.applies = applies;
+            this.removal = removal;
+        }
+    }
+
+    // Evaluates a range of aliases, splitting it in halves down to CHUNK aliases.
+    private final class Evaluation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int CHUNK = 512;
+
+        private final List<String> aliases;
+        private final Verdict[] verdicts;
+        private final int from;
+        private final int to;
+        private final CertificateCache certificateCache;
+        private final CompiledExpiryPolicy policy;
+        private final boolean detail;
+
+        private Evaluation(final List<String> aliases, final Verdict[] verdicts, final int from, final int to,
+                final CertificateCache certificateCache, final CompiledExpiryPolicy policy, final boolean detail) {
+            this.aliases = aliases;
+            this.verdicts = verdicts;
+            this.from = from;
+            this.to = to;
+            this.certificateCache = certificateCache;
+            this.policy = policy;
+            this.detail = detail;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Evaluation(aliases, verdicts, from, middle, certificateCache, policy, detail),
+                        new Evaluation(aliases, verdicts, middle, to, certificateCache, policy, detail));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    verdicts[i] = evaluate(aliases.get(i), certificateCache, policy, detail);
+                }
+            } catch (KeyStoreException e) {
+                throw new EvaluationException(e);
+            }
+        }
+    }
+
+    // Carries a KeyStoreException out of the fork/join pool.
+    private static final class EvaluationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private EvaluationException(final KeyStoreException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized KeyStoreException getCause() {
+            return (KeyStoreException) super.getCause();
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.cert.keystore;
+
+import java.util.List;
+
+import com.cert.model.CertificateExpiry;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * What a streaming scan found in a keystore file, without the keystore having been loaded.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class KeystoreScanResult {
+	private final KeystoreFormat format;
+	private final int entryCount;
+	// Aliases whose certificate is outside its validity period.
+	private final List<String> expiredAliases;
+	// Epoch milliseconds of the earliest notAfter among the other entries, Long.MAX_VALUE if there is none.
+	private final long earliestExpiry;
+	// Hex encoded SHA-256 of the scanned file content.
+	private final String contentHash;
+	// Expiry of every valid entry, only collected when the scan was asked to.
+	private final List<CertificateExpiry> certificates;
+
+	public boolean hasExpiredEntries() {
+		return !expiredAliases.isEmpty();
+	}
+}
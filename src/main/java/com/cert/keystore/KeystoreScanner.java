@@ -0,0 +1,337 @@
+package com.cert.keystore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.cert.model.CertificateExpiry;
+import com.cert.policy.CompiledExpiryPolicy;
+import com.cert.policy.ExpiryPolicy;
+
+import lombok.extern.java.Log;
+
+/**
+ * Streams a JKS or JCEKS keystore file and reports which entries an expiry policy removes without building
+ * a {@link java.security.KeyStore}.
+ *
+ * Only the alias, the entry type and the validity of the first certificate of each entry are decoded, or of
+ * every certificate of private key entries when the policy checks whole chains; key material and the rest
+ * of the certificates are read past. The integrity digest at the end of the
+ * file is still verified, so a wrong password is detected just like a full load would.
+ */
+@Log
+public final class KeystoreScanner {
+
+	private static final int PRIVATE_KEY_ENTRY = 1;
+	private static final int TRUSTED_CERT_ENTRY = 2;
+
+	private static final int DIGEST_LENGTH = 20;
+
+	private static final int TAG_SEQUENCE = 0x30;
+	private static final int TAG_EXPLICIT_VERSION = 0xa0;
+	private static final int TAG_UTC_TIME = 0x17;
+	private static final int TAG_GENERALIZED_TIME = 0x18;
+
+	private KeystoreScanner() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Scans the given keystore file.
+	 *
+	 * @param file the keystore file.
+	 * @param password the password used to verify the integrity of the file.
+	 * @param now the time, in epoch milliseconds, against which validity is checked.
+	 * @return the scan result, or null if the file is not in a format that can be streamed.
+	 * @throws IOException if the file could not be read, is malformed, or the password was incorrect.
+	 */
+	public static KeystoreScanResult scan(final File file, final char[] password, final long now) throws IOException {
+		return scan(file, password, now, false);
+	}
+
+	/**
+	 * Scans the given keystore file, optionally collecting the expiry and fingerprint of every valid entry.
+	 *
+	 * @param file the keystore file.
+	 * @param password the password used to verify the integrity of the file.
+	 * @param now the time, in epoch milliseconds, against which validity is checked.
+	 * @param collectCertificates whether to report the certificates, which costs one SHA-256 per entry.
+	 * @return the scan result, or null if the file is not in a format that can be streamed.
+	 * @throws IOException if the file could not be read, is malformed, or the password was incorrect.
+	 */
+	public static KeystoreScanResult scan(final File file, final char[] password, final long now,
+			final boolean collectCertificates) throws IOException {
+		return scan(file, password, ExpiryPolicy.defaults().compile(now), collectCertificates);
+	}
+
+	/**
+	 * Scans the given keystore file against an expiry policy.
+	 *
+	 * @param file the keystore file.
+	 * @param password the password used to verify the integrity of the file.
+	 * @param policy the policy telling which entries are removed.
+	 * @param collectCertificates whether to report the certificates, which costs one SHA-256 per entry.
+	 * @return the scan result, or null if the file is not in a format that can be streamed.
+	 * @throws IOException if the file could not be read, is malformed, or the password was incorrect.
+	 */
+	public static KeystoreScanResult scan(final File file, final char[] password, final CompiledExpiryPolicy policy,
+			final boolean collectCertificates) throws IOException {
+		try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return scan(file, in, password, policy, collectCertificates);
+		}
+	}
+
+	/**
+	 * Scans the content of a keystore file which has already been read.
+	 *
+	 * @param file the keystore file the content was read from.
+	 * @param content the file content.
+	 * @param password the password used to verify the integrity of the file.
+	 * @param policy the policy telling which entries are removed.
+	 * @param collectCertificates whether to report the certificates, which costs one SHA-256 per entry.
+	 * @return the scan result, or null if the content is not in a format that can be streamed.
+	 * @throws IOException if the content is malformed, or the password was incorrect.
+	 */
+	public static KeystoreScanResult scan(final File file, final byte[] content, final char[] password,
+			final CompiledExpiryPolicy policy, final boolean collectCertificates) throws IOException {
+		return scan(file, new ByteArrayInputStream(content), password, policy, collectCertificates);
+	}
+
+	private static KeystoreScanResult scan(final File file, final InputStream input, final char[] password,
+			final CompiledExpiryPolicy policy, final boolean collectCertificates) throws IOException {
+		final MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available to verify the keystore integrity.", e);
+		}
+		// The stored digest covers the password, a fixed salt phrase and every byte that precedes it.
+		for (final char c : password) {
+			md.update((byte) (c >> 8));
+			md.update((byte) c);
+		}
+		md.update("Mighty Aphrodite".getBytes(StandardCharsets.UTF_8));
+
+		final MessageDigest content = KeystoreFiles.contentDigest();
+		try (final DataInputStream in = new DataInputStream(new DigestInputStream(new DigestInputStream(input, content), md))) {
+			final KeystoreFormat format = KeystoreFormat.of(in.readInt());
+			if (format != KeystoreFormat.JKS && format != KeystoreFormat.JCEKS) {
+				return null;
+			}
+			final int version = in.readInt();
+			if (version != 1 && version != 2) {
+				return null;
+			}
+
+			final int count = in.readInt();
+			final List<String> expiredAliases = new ArrayList<>();
+			final List<CertificateExpiry> kept = collectCertificates ? new ArrayList<>() : Collections.emptyList();
+			final MessageDigest fingerprint = collectCertificates ? KeystoreFiles.contentDigest() : null;
+			long earliestExpiry = Long.MAX_VALUE;
+			byte[] buffer = new byte[4096];
+
+			for (int i = 0; i < count; i++) {
+				final int tag = in.readInt();
+				if (tag != PRIVATE_KEY_ENTRY && tag != TRUSTED_CERT_ENTRY) {
+					// Secret key entries are serialized Java objects and cannot be streamed.
+					log.log(Level.FINE, "Entry type {0} in {1} cannot be streamed.", new Object[] { tag, file });
+					return null;
+				}
+				final String alias = in.readUTF();
+				in.readLong(); // creation date
+
+				int certificates = 1;
+				if (tag == PRIVATE_KEY_ENTRY) {
+					buffer = readBlock(in, buffer);
+					certificates = in.readInt();
+				}
+
+				final boolean applies = policy.appliesTo(alias);
+				final boolean wholeChain = applies && tag == PRIVATE_KEY_ENTRY && policy.checksWholeChain();
+				boolean removable = false;
+				long notAfter = 0;
+				long removal = Long.MAX_VALUE;
+				String leafFingerprint = null;
+				for (int c = 0; c < certificates; c++) {
+					if (version == 2) {
+						in.readUTF(); // certificate type
+					}
+					buffer = readBlock(in, buffer);
+					if (c == 0 || (wholeChain && !removable)) {
+						final long[] validity = validity(buffer);
+						if (applies && policy.isRemovable(validity[0], validity[1])) {
+							removable = true;
+						}
+						removal = Math.min(removal, policy.removalTime(validity[1]));
+						if (c == 0) {
+							notAfter = validity[1];
+							if (collectCertificates && !removable) {
+								// The block is the DER encoding, whose digest is the certificate fingerprint.
+								fingerprint.update(buffer, 0, skip(buffer, 0));
+								leafFingerprint = KeystoreFiles.hex(fingerprint.digest());
+							}
+						}
+					}
+				}
+				if (removable) {
+					expiredAliases.add(alias);
+				} else {
+					if (applies) {
+						earliestExpiry = Math.min(earliestExpiry, removal);
+					}
+					if (collectCertificates) {
+						kept.add(new CertificateExpiry(notAfter, file.getPath(), alias, leafFingerprint));
+					}
+				}
+			}
+
+			final byte[] computed = md.digest();
+			final byte[] stored = new byte[DIGEST_LENGTH];
+			in.readFully(stored);
+			if (!MessageDigest.isEqual(computed, stored)) {
+				throw new IOException("Keystore was tampered with, or password was incorrect",
+						new UnrecoverableKeyException("Password verification failed"));
+			}
+			return new KeystoreScanResult(format, count, expiredAliases, earliestExpiry, KeystoreFiles.hex(content.digest()),
+					kept);
+		} catch (EOFException e) {
+			throw new IOException(String.format("The keystore %s is truncated.", file.getAbsolutePath()), e);
+		}
+	}
+
+	// Reads a length-prefixed block into the buffer, growing it when needed; the block always starts at offset 0.
+	private static byte[] readBlock(final DataInputStream in, final byte[] buffer) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative block length in keystore.");
+		}
+		final byte[] target = length > buffer.length ? new byte[Math.max(length, buffer.length * 2)] : buffer;
+		in.readFully(target, 0, length);
+		return target;
+	}
+
+	/**
+	 * Extracts notBefore and notAfter from a DER encoded X.509 certificate.
+	 *
+	 * @param der the encoded certificate, starting at offset 0.
+	 * @return notBefore and notAfter in epoch milliseconds.
+	 * @throws IOException if the encoding is not a certificate.
+	 */
+	static long[] validity(final byte[] der) throws IOException {
+		try {
+			return parseValidity(der);
+		} catch (IndexOutOfBoundsException | DateTimeException e) {
+			throw new IOException("Malformed certificate in keystore.", e);
+		}
+	}
+
+	private static long[] parseValidity(final byte[] der) throws IOException {
+		int pos = enter(der, 0, TAG_SEQUENCE); // Certificate
+		pos = enter(der, pos, TAG_SEQUENCE); // TBSCertificate
+		if ((der[pos] & 0xff) == TAG_EXPLICIT_VERSION) {
+			pos = skip(der, pos);
+		}
+		pos = skip(der, pos); // serialNumber
+		pos = skip(der, pos); // signature
+		pos = skip(der, pos); // issuer
+		pos = enter(der, pos, TAG_SEQUENCE); // validity
+		final long notBefore = time(der, pos);
+		pos = skip(der, pos);
+		final long notAfter = time(der, pos);
+		return new long[] { notBefore, notAfter };
+	}
+
+	private static int enter(final byte[] der, final int pos, final int expectedTag) throws IOException {
+		if ((der[pos] & 0xff) != expectedTag) {
+			throw new IOException(String.format("Unexpected DER tag 0x%02x in certificate.", der[pos] & 0xff));
+		}
+		return contentStart(der, pos);
+	}
+
+	private static int skip(final byte[] der, final int pos) throws IOException {
+		return contentStart(der, pos) + length(der, pos);
+	}
+
+	private static int contentStart(final byte[] der, final int pos) {
+		final int first = der[pos + 1] & 0xff;
+		return first < 0x80 ? pos + 2 : pos + 2 + (first & 0x7f);
+	}
+
+	private static int length(final byte[] der, final int pos) throws IOException {
+		final int first = der[pos + 1] & 0xff;
+		if (first < 0x80) {
+			return first;
+		}
+		final int octets = first & 0x7f;
+		if (octets == 0 || octets > 4) {
+			throw new IOException("Unsupported DER length encoding in certificate.");
+		}
+		int length = 0;
+		for (int i = 0; i < octets; i++) {
+			length = (length << 8) | (der[pos + 2 + i] & 0xff);
+		}
+		return length;
+	}
+
+	private static long time(final byte[] der, final int pos) throws IOException {
+		final int tag = der[pos] & 0xff;
+		int p = contentStart(der, pos);
+		final int end = p + length(der, pos);
+		final int year;
+		if (tag == TAG_UTC_TIME) {
+			final int yy = digits(der, p, 2);
+			year = yy < 50 ? 2000 + yy : 1900 + yy;
+			p += 2;
+		} else if (tag == TAG_GENERALIZED_TIME) {
+			year = digits(der, p, 4);
+			p += 4;
+		} else {
+			throw new IOException(String.format("Unexpected DER time tag 0x%02x in certificate.", tag));
+		}
+		final int month = digits(der, p, 2);
+		final int day = digits(der, p + 2, 2);
+		final int hour = digits(der, p + 4, 2);
+		final int minute = digits(der, p + 6, 2);
+		final int second = digits(der, p + 8, 2);
+		p += 10;
+		int millis = 0;
+		if (p < end && der[p] == '.') {
+			// Fractional seconds are only allowed in GeneralizedTime; keep millisecond precision.
+			int scale = 100;
+			for (p++; p < end && der[p] >= '0' && der[p] <= '9'; p++) {
+				millis += (der[p] - '0') * scale;
+				scale /= 10;
+			}
+		}
+		return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC) * 1000L + millis;
+	}
+
+	private static int digits(final byte[] der, final int pos, final int count) throws IOException {
+		int value = 0;
+		for (int i = 0; i < count; i++) {
+			final int d = der[pos + i] - '0';
+			if (d < 0 || d > 9) {
+				throw new IOException("Malformed DER time in certificate.");
+			}
+			value = value * 10 + d;
+		}
+		return value;
+	}
+}
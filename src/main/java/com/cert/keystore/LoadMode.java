@@ -0,0 +1,13 @@
+package com.cert.keystore;
+
+/**
+ * How {@link KeystoreManager} reads a keystore file.
+ */
+public enum LoadMode {
+	/** Reads through a buffered {@link java.io.FileInputStream}. */
+	STREAM,
+	/** Reads the whole file through a {@link java.nio.channels.FileChannel} into a buffer borrowed from a shared pool. */
+	CHANNEL,
+	/** Memory-maps the file through a {@link java.nio.channels.FileChannel}; the mapping is released once loaded. */
+	MAPPED
+}
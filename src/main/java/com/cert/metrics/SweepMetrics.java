@@ -0,0 +1,150 @@
+package com.cert.metrics;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.cert.keystore.CertificateCache;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.task.MemoryBudget;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes per-keystore and per-run sweep measurements to a Micrometer registry.
+ * 
+ * Meters are not tagged by keystore path to keep their cardinality bounded; per-file detail
+ * is in the JSON run report.
+ */
+public class SweepMetrics {
+
+	private final MeterRegistry registry;
+	private final Timer keystoreTimer;
+	private final Timer loadTimer;
+	private final Timer filterTimer;
+	private final Timer saveTimer;
+	private final Timer sweepTimer;
+	private final Counter bytesRead;
+	private final Counter bytesWritten;
+	private final Counter entriesScanned;
+	private final Counter entriesRemoved;
+	private final DistributionSummary keystoreEntries;
+	
+	private volatile double lastThroughput;
+
+	public SweepMetrics(final MeterRegistry registry) {
+		this.registry = registry;
+		this.keystoreTimer = Timer.builder("keystore.task").description("Time to process one keystore")
+				.publishPercentiles(0.5, 0.99).register(registry);
+		this.loadTimer = Timer.builder("keystore.load").description("Time to read or stream one keystore").register(registry);
+		this.filterTimer = Timer.builder("keystore.filter").description("Time to filter one keystore").register(registry);
+		this.saveTimer = Timer.builder("keystore.save").description("Time to write one keystore back").register(registry);
+		this.sweepTimer = Timer.builder("keystore.sweep").description("Wall-clock time of a sweep").register(registry);
+		this.bytesRead = Counter.builder("keystore.bytes.read").baseUnit("bytes").register(registry);
+		this.bytesWritten = Counter.builder("keystore.bytes.written").baseUnit("bytes").register(registry);
+		this.entriesScanned = Counter.builder("keystore.entries.scanned").register(registry);
+		this.entriesRemoved = Counter.builder("keystore.entries.removed").register(registry);
+		this.keystoreEntries = DistributionSummary.builder("keystore.entries").description("Entries per loaded keystore")
+				.register(registry);
+		registry.gauge("keystore.sweep.throughput", this, metrics -> metrics.lastThroughput);
+	}
+
+	/**
+	 * Publishes the hit ratio and size of a certificate cache.
+	 * 
+	 * @param cache the cache.
+	 */
+	public void bind(final CertificateCache cache) {
+		FunctionCounter.builder("keystore.certificate.cache.hits", cache, CertificateCache::getHits).register(registry);
+		FunctionCounter.builder("keystore.certificate.cache.misses", cache, CertificateCache::getMisses).register(registry);
+		Gauge.builder("keystore.certificate.cache.size", cache, CertificateCache::size).register(registry);
+	}
+
+	/**
+	 * Publishes the heap taken by the keystores in flight against the memory budget.
+	 * 
+	 * @param budget the memory budget.
+	 */
+	public void bind(final MemoryBudget budget) {
+		Gauge.builder("keystore.sweep.memory.in.use", budget, MemoryBudget::getInUseBytes).baseUnit("bytes").register(registry);
+		Gauge.builder("keystore.sweep.memory.peak", budget, MemoryBudget::getPeakInUseBytes).baseUnit("bytes").register(registry);
+	}
+
+	/**
+	 * Records the outcome of one keystore.
+	 * 
+	 * @param result the keystore result.
+	 */
+	public void record(final SweepResult result) {
+		registry.counter("keystore.results", "status", result.getStatus().name()).increment();
+		if (result.getLoadMicros() == 0 && result.getFilterMicros() == 0 && result.getSaveMicros() == 0) {
+			// Skipped or cancelled before any work was done.
+			return;
+		}
+		keystoreTimer.record(result.getElapsedMillis(), TimeUnit.MILLISECONDS);
+		loadTimer.record(result.getLoadMicros(), TimeUnit.MICROSECONDS);
+		if (result.getFilterMicros() > 0) {
+			filterTimer.record(result.getFilterMicros(), TimeUnit.MICROSECONDS);
+		}
+		if (result.getSaveMicros() > 0) {
+			saveTimer.record(result.getSaveMicros(), TimeUnit.MICROSECONDS);
+		}
+		bytesRead.increment(result.getBytesRead());
+		bytesWritten.increment(result.getBytesWritten());
+		entriesScanned.increment(result.getEntriesScanned());
+		entriesRemoved.increment(result.getEntriesRemoved());
+		keystoreEntries.record(result.getEntriesScanned());
+	}
+
+	/**
+	 * Records the totals of a sweep run.
+	 * 
+	 * @param report the run report.
+	 */
+	public void record(final SweepReport report) {
+		sweepTimer.record(report.getElapsedMillis(), TimeUnit.MILLISECONDS);
+		lastThroughput = report.getThroughputPerSecond();
+	}
+
+	/**
+	 * Renders the current value of every keystore meter of the registry, one meter per line, so that the
+	 * measurements are readable even when no monitoring system scrapes the registry.
+	 * 
+	 * @return the meters, sorted by name.
+	 */
+	public String summary() {
+		return registry.getMeters().stream()
+				.filter(meter -> meter.getId().getName().startsWith("keystore."))
+				.sorted(Comparator.comparing(SweepMetrics::name))
+				.map(meter -> name(meter) + " " + measurements(meter))
+				.collect(Collectors.joining("\n"));
+	}
+
+	private static String name(final Meter meter) {
+		final String tags = meter.getId().getTags().stream()
+				.map(tag -> tag.getKey() + "=" + tag.getValue())
+				.collect(Collectors.joining(","));
+		return meter.getId().getName() + (tags.isEmpty() ? "" : "{" + tags + "}");
+	}
+
+	private static String measurements(final Meter meter) {
+		final StringBuilder text = new StringBuilder();
+		for (final Measurement measurement : meter.measure()) {
+			if (text.length() > 0) text.append(' ');
+			final double value = measurement.getValue();
+			text.append(measurement.getStatistic().name().toLowerCase(Locale.ROOT)).append('=')
+					.append(value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value)
+							: String.format(Locale.ROOT, "%.6f", value));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,57 @@
+package com.cert.metrics;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.cert.model.SweepReport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Writes sweep run reports as JSON.
+ */
+public final class SweepReportWriter {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private SweepReportWriter() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Writes the report, replacing the previous one atomically.
+	 * 
+	 * @param report the run report.
+	 * @param file the report file.
+	 * @throws IOException if there was an I/O problem with data.
+	 */
+	public static void write(final SweepReport report, final Path file) throws IOException {
+		final Path target = file.toAbsolutePath();
+		final Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+		try {
+			MAPPER.writeValue(temp.toFile(), report);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads a report back, for tooling and tests.
+	 * 
+	 * @param file the report file.
+	 * @return the report as a JSON tree.
+	 * @throws IOException if there was an I/O problem with data.
+	 */
+	public static JsonNode read(final Path file) throws IOException {
+		return MAPPER.readTree(file.toFile());
+	}
+}
@@ -0,0 +1,24 @@
+package com.cert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * When the certificate of a keystore entry expires, as recorded by the last sweep of that keystore.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class CertificateExpiry {
+	// Epoch milliseconds of the certificate notAfter.
+	private final long notAfter;
+	private final String pathToStore;
+	private final String alias;
+	// Hex encoded SHA-256 of the DER encoded certificate.
+	private final String fingerprint;
+}
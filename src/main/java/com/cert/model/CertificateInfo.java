@@ -0,0 +1,26 @@
+package com.cert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * What the sweep needs to know about a certificate, parsed and rendered once however many keystores hold it.
+ */
+@Getter
+@Builder
+@AllArgsConstructor
+@ToString
+public class CertificateInfo {
+	// Hex encoded SHA-256 of the DER encoding, empty if the certificate could not be encoded.
+	private final String fingerprint;
+	private final String subject;
+	private final String issuer;
+	private final String signatureAlgorithm;
+	// Validity window in epoch milliseconds.
+	private final long notBefore;
+	private final long notAfter;
+	// notAfter formatted for log messages and reports.
+	private final String expiry;
+}
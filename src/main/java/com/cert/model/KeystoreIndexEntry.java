@@ -0,0 +1,31 @@
+package com.cert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * What the last sweep learnt about a keystore: the file state it saw and the earliest
+ * certificate expiry left in the store.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class KeystoreIndexEntry {
+	private String pathToStore;
+	private long size;
+	private long lastModified;
+	// Epoch milliseconds of the earliest notAfter in the store, Long.MAX_VALUE if there is none.
+	private long earliestExpiry;
+	private int entryCount;
+	// Hex encoded SHA-256 of the file content, empty if unknown.
+	private String contentHash;
+	// Fingerprint of the expiry policy the keystore was swept with, empty if unknown.
+	private String policy;
+	// Epoch milliseconds at which the file state above was observed, 0 if unknown.
+	private long recordedAt;
+}
@@ -0,0 +1,25 @@
+package com.cert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A keystore entry removed by a sweep, as recorded in the undo journal.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@ToString(exclude = "entry")
+public class RemovedEntry {
+	// Identifier of the sweep run which removed the entry, as in its report.
+	private final String runId;
+	// Epoch milliseconds at which the removal was journaled.
+	private final long removedAt;
+	private final String pathToStore;
+	private final String alias;
+	// A keystore of the type of the source keystore, holding only this entry under its alias and protected
+	// by the password of the source keystore, so key material is never journaled in the clear.
+	private final byte[] entry;
+}
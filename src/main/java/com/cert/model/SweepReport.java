@@ -0,0 +1,37 @@
+package com.cert.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Machine-readable summary of one sweep run.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@ToString(exclude = "results")
+public class SweepReport {
+	private String runId;
+	// ISO-8601 instants.
+	private String startedAt;
+	private String finishedAt;
+	private long elapsedMillis;
+	// From the start of the sweep until the first keystore was processed; -1 if none was.
+	private long firstResultMillis;
+	private int keystores;
+	private int succeeded;
+	private int skipped;
+	private int failed;
+	private int cancelled;
+	// Processed (non-skipped) keystores per second of wall-clock time.
+	private double throughputPerSecond;
+	private long bytesRead;
+	private long bytesWritten;
+	private long entriesScanned;
+	private long entriesRemoved;
+	private List<SweepResult> results;
+}
@@ -0,0 +1,35 @@
+package com.cert.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Per-file summary produced by a keystore sweep.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@ToString
+public class SweepResult {
+	private String pathToStore;
+	private SweepStatus status;
+	private long elapsedMillis;
+	// Failure reason, or a note on how the keystore was handled.
+	private String message;
+	private long loadMicros;
+	private long filterMicros;
+	private long saveMicros;
+	private long bytesRead;
+	private long bytesWritten;
+	private int entriesScanned;
+	private int entriesRemoved;
+	
+	@JsonIgnore
+	public boolean isSuccess() {
+		return status == SweepStatus.SUCCESS;
+	}
+}
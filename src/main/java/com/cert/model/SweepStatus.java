@@ -0,0 +1,15 @@
+package com.cert.model;
+
+/**
+ * Outcome of processing a single keystore during a sweep.
+ */
+public enum SweepStatus {
+	/** The keystore was scanned (and written back if required) successfully. */
+	SUCCESS,
+	/** The keystore was unchanged since the last sweep and had nothing expiring, so it was not loaded. */
+	SKIPPED,
+	/** The keystore could not be loaded, filtered or written. */
+	FAILED,
+	/** The task was cancelled or interrupted before it completed. */
+	CANCELLED
+}
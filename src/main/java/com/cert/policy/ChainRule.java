@@ -0,0 +1,11 @@
+package com.cert.policy;
+
+/**
+ * Which certificates of a private key entry decide whether the entry is removed.
+ */
+public enum ChainRule {
+	// Only the end-entity certificate, like trusted certificate entries.
+	LEAF,
+	// Any certificate of the chain; a key whose intermediate has expired cannot be presented anymore.
+	WHOLE_CHAIN
+}
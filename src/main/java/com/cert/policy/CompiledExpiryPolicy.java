@@ -0,0 +1,174 @@
+package com.cert.policy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * An {@link ExpiryPolicy} reduced to comparisons of epoch milliseconds against one clock snapshot.
+ *
+ * Evaluating an entry reads no clock and allocates nothing, so the policy can be applied to every entry of
+ * a large inventory at the cost of a few primitive comparisons. Instances are immutable and thread-safe.
+ */
+public final class CompiledExpiryPolicy {
+
+	private final long now;
+	private final long gracePeriodMillis;
+	// Certificates whose notAfter is before this are removed.
+	private final long removeBefore;
+	private final boolean removeNotYetValid;
+	private final ChainRule chainRule;
+	private final String[] include;
+	private final String[] exclude;
+	// Identifies the settings, whatever the clock snapshot.
+	private final String fingerprint;
+
+	CompiledExpiryPolicy(final long now, final long gracePeriodMillis, final boolean removeNotYetValid,
+			final ChainRule chainRule, final String[] include, final String[] exclude) {
+		this.now = now;
+		this.gracePeriodMillis = gracePeriodMillis;
+		this.removeBefore = now - gracePeriodMillis;
+		this.removeNotYetValid = removeNotYetValid;
+		this.chainRule = chainRule;
+		this.include = include;
+		this.exclude = exclude;
+		this.fingerprint = fingerprint(gracePeriodMillis, removeNotYetValid, chainRule, include, exclude);
+	}
+
+	/**
+	 * Returns a fingerprint of the settings of the policy, which changes whenever a setting changes what the
+	 * policy removes; globs are compared regardless of their case and order.
+	 *
+	 * @return 16 hex digits.
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the clock snapshot the policy was compiled against.
+	 *
+	 * @return epoch milliseconds.
+	 */
+	public long getNow() {
+		return now;
+	}
+
+	/**
+	 * Tells whether the policy applies to an alias; entries it does not apply to are always kept.
+	 *
+	 * @param alias the entry alias.
+	 * @return true if the alias is included and not excluded.
+	 */
+	public boolean appliesTo(final String alias) {
+		for (final String glob : exclude) {
+			if (matches(glob, alias)) {
+				return false;
+			}
+		}
+		if (include.length == 0) {
+			return true;
+		}
+		for (final String glob : include) {
+			if (matches(glob, alias)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether a certificate with the given validity window makes its entry removable.
+	 *
+	 * @param notBefore the start of the validity window, in epoch milliseconds.
+	 * @param notAfter the end of the validity window, in epoch milliseconds.
+	 * @return true if the certificate is expired beyond the grace period, or not yet valid and such
+	 *         certificates are removed.
+	 */
+	public boolean isRemovable(final long notBefore, final long notAfter) {
+		return notAfter < removeBefore || (removeNotYetValid && now < notBefore);
+	}
+
+	/**
+	 * Returns when a certificate kept now becomes removable, which is when its keystore next needs a sweep.
+	 *
+	 * @param notAfter the end of the validity window, in epoch milliseconds.
+	 * @return epoch milliseconds.
+	 */
+	public long removalTime(final long notAfter) {
+		return notAfter > Long.MAX_VALUE - gracePeriodMillis ? Long.MAX_VALUE : notAfter + gracePeriodMillis;
+	}
+
+	/**
+	 * Tells whether every certificate of a private key entry is checked, rather than its first one.
+	 *
+	 * @return true for {@link ChainRule#WHOLE_CHAIN}.
+	 */
+	public boolean checksWholeChain() {
+		return chainRule == ChainRule.WHOLE_CHAIN;
+	}
+
+	// Case-insensitive glob matching with * and ?, backtracking to the last star only.
+	static boolean matches(final String glob, final String text) {
+		int g = 0;
+		int t = 0;
+		int star = -1;
+		int mark = 0;
+		while (t < text.length()) {
+			if (g < glob.length() && (glob.charAt(g) == '?' || sameChar(glob.charAt(g), text.charAt(t)))) {
+				g++;
+				t++;
+			} else if (g < glob.length() && glob.charAt(g) == '*') {
+				star = g++;
+				mark = t;
+			} else if (star >= 0) {
+				g = star + 1;
+				t = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (g < glob.length() && glob.charAt(g) == '*') {
+			g++;
+		}
+		return g == glob.length();
+	}
+
+	private static String fingerprint(final long gracePeriodMillis, final boolean removeNotYetValid,
+			final ChainRule chainRule, final String[] include, final String[] exclude) {
+		final String settings = "grace=" + gracePeriodMillis + ";notYetValid=" + removeNotYetValid + ";chain=" + chainRule
+				+ ";include=" + sorted(include) + ";exclude=" + sorted(exclude);
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(settings.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder hex = new StringBuilder(16);
+			for (int i = 0; i < 8; i++) {
+				hex.append(String.format("%02x", digest[i]));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String sorted(final String[] globs) {
+		final String[] lower = new String[globs.length];
+		for (int i = 0; i < globs.length; i++) {
+			lower[i] = globs[i].toLowerCase(Locale.ROOT);
+		}
+		Arrays.sort(lower);
+		return Arrays.toString(lower);
+	}
+
+	private static boolean sameChar(final char a, final char b) {
+		return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CompiledExpiryPolicy(now=%d, gracePeriodMillis=%d, removeNotYetValid=%s, chainRule=%s, include=%s, exclude=%s)",
+				now, gracePeriodMillis, removeNotYetValid, chainRule, Arrays.toString(include), Arrays.toString(exclude));
+	}
+}
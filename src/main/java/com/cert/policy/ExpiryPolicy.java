@@ -0,0 +1,76 @@
+package com.cert.policy;
+
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Decides which keystore entries a sweep removes.
+ *
+ * A policy is compiled once per sweep, against one clock snapshot, into a {@link CompiledExpiryPolicy}
+ * which every keystore of the sweep is evaluated with; the outcome of a sweep therefore does not depend on
+ * how long it runs or in which order keystores are processed.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class ExpiryPolicy {
+
+	// How long an expired certificate is kept after its notAfter.
+	private final long gracePeriodMillis;
+
+	// Certificates whose notBefore is still ahead are about to become valid, and are kept unless this is set.
+	private final boolean removeNotYetValid;
+
+	// Which certificates of private key entries are checked; LEAF when not set.
+	private final ChainRule chainRule;
+
+	// Aliases the policy applies to, as case-insensitive globs with * and ?; every alias when empty.
+	private final List<String> includeAliases;
+
+	// Aliases never removed, as case-insensitive globs with * and ?.
+	private final List<String> excludeAliases;
+
+	public ChainRule getChainRule() {
+		return chainRule == null ? ChainRule.LEAF : chainRule;
+	}
+
+	public List<String> getIncludeAliases() {
+		return includeAliases == null ? Collections.<String>emptyList() : includeAliases;
+	}
+
+	public List<String> getExcludeAliases() {
+		return excludeAliases == null ? Collections.<String>emptyList() : excludeAliases;
+	}
+
+	/**
+	 * Creates the policy removing the certificates which have expired, and nothing else.
+	 *
+	 * @return the default policy.
+	 */
+	public static ExpiryPolicy defaults() {
+		return ExpiryPolicy.builder().build();
+	}
+
+	/**
+	 * Compiles the policy against a clock snapshot.
+	 *
+	 * @param now the time, in epoch milliseconds, every entry of the sweep is evaluated at.
+	 * @return the compiled policy.
+	 */
+	public CompiledExpiryPolicy compile(final long now) {
+		if (gracePeriodMillis < 0) {
+			throw new IllegalArgumentException("The grace period cannot be negative.");
+		}
+		return new CompiledExpiryPolicy(now, gracePeriodMillis, removeNotYetValid, getChainRule(),
+				globs(getIncludeAliases()), globs(getExcludeAliases()));
+	}
+
+	private static String[] globs(final List<String> patterns) {
+		return patterns.stream()
+				.map(String::trim)
+				.filter(pattern -> !pattern.isEmpty())
+				.toArray(String[]::new);
+	}
+}
@@ -0,0 +1,14 @@
+package com.cert.service;
+
+/**
+ * Kind of threads keystore tasks run on.
+ */
+public enum ExecutorMode {
+	/** A fixed pool of platform threads, sized by the sweep parallelism. */
+	PLATFORM,
+	/**
+	 * One virtual thread per keystore on JDK 21 and later, with the number of keystores in flight bounded
+	 * separately; falls back to {@link #PLATFORM} on older JDKs.
+	 */
+	VIRTUAL
+}
@@ -0,0 +1,215 @@
+package com.cert.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.cert.model.JKSFile;
+import com.cert.model.SweepResult;
+import com.cert.task.KeystoreManagerTask;
+import com.cert.task.SweepContext;
+
+import lombok.Builder;
+import lombok.extern.java.Log;
+
+/**
+ * Runs keystore tasks as a pipeline of four stages, each on its own bounded pool: read, parse and filter,
+ * encode, and write.
+ *
+ * Threads blocked on slow disks only hold read or write slots, while the integrity checks, certificate
+ * decoding and re-encoding keep the CPU pools busy. A full stage queue blocks the stage feeding it, so a
+ * slow disk or a busy CPU throttles the whole sweep instead of piling up keystores in memory. Stages only
+ * hand work downstream, which keeps the blocking hand-off free of deadlocks.
+ */
+@Log
+public class KeystorePipeline {
+
+	private final ThreadPoolExecutor readPool;
+	private final ThreadPoolExecutor parsePool;
+	private final ThreadPoolExecutor encodePool;
+	private final ThreadPoolExecutor writePool;
+	private final int ioPerMount;
+
+	// I/O permits per file store, looked up once per directory.
+	private final Map<Path, Semaphore> directoryPermits = new ConcurrentHashMap<>();
+	private final Map<String, Semaphore> mountPermits = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new KeystorePipeline; a stage without a positive size gets one thread per processor, and a
+	 * queue without a positive capacity holds as many keystores as its stage has threads.
+	 *
+	 * @param readThreads threads reading keystore files.
+	 * @param parseThreads threads checking, decoding and filtering keystores.
+	 * @param encodeThreads threads re-encoding modified keystores.
+	 * @param writeThreads threads writing modified keystores back.
+	 * @param queueCapacity keystores waiting in front of each stage.
+	 * @param ioPerMount reads and writes running at once on one file store, zero for no limit.
+	 */
+	@Builder
+	public KeystorePipeline(final int readThreads, final int parseThreads, final int encodeThreads, final int writeThreads,
+			final int queueCapacity, final int ioPerMount) {
+		// Built from the last stage, so each stage shuts the next one down once it has drained.
+		this.writePool = new StagePool("keystore-write-", writeThreads, queueCapacity, null);
+		this.encodePool = new StagePool("keystore-encode-", encodeThreads, queueCapacity, writePool);
+		this.parsePool = new StagePool("keystore-parse-", parseThreads, queueCapacity, encodePool);
+		this.readPool = new StagePool("keystore-read-", readThreads, queueCapacity, parsePool);
+		this.ioPerMount = ioPerMount;
+	}
+
+	/**
+	 * Submits a keystore to the pipeline; blocks while the read stage is full.
+	 *
+	 * @param file the keystore.
+	 * @param context the collaborators shared by the keystore tasks.
+	 * @return the result of the keystore, completed when its last stage has run.
+	 * @throws RejectedExecutionException if the pipeline is shut down.
+	 */
+	public CompletableFuture<SweepResult> submit(final JKSFile file, final SweepContext context) {
+		final KeystoreManagerTask task = new KeystoreManagerTask(file, context);
+		final Path path = Paths.get(file.getPathToStore());
+		final CompletableFuture<Boolean> read = CompletableFuture.supplyAsync(() -> io(path, task::read), readPool);
+		final CompletableFuture<Boolean> parsed = then(read, task::parseAndFilter, parsePool);
+		final CompletableFuture<Boolean> encoded = then(parsed, task::encode, encodePool);
+		final CompletableFuture<Boolean> written = then(encoded, () -> io(path, task::write), writePool);
+		return written.thenApply(more -> task.getResult());
+	}
+
+	/**
+	 * Stops accepting keystores; those already submitted run through every stage.
+	 */
+	public void shutdown() {
+		readPool.shutdown();
+	}
+
+	/**
+	 * Waits until every submitted keystore has gone through the pipeline, then stops its threads.
+	 *
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return true if the pipeline has drained within the timeout.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		readPool.shutdown();
+		for (final ThreadPoolExecutor pool : stages()) {
+			if (!pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops every stage, interrupting the running ones.
+	 */
+	public void shutdownNow() {
+		stages().forEach(ThreadPoolExecutor::shutdownNow);
+	}
+
+	private List<ThreadPoolExecutor> stages() {
+		return Arrays.asList(readPool, parsePool, encodePool, writePool);
+	}
+
+	// Runs the next stage on its pool if the previous one asked for it.
+	private static CompletableFuture<Boolean> then(final CompletableFuture<Boolean> previous, final BooleanSupplier stage,
+			final Executor pool) {
+		return previous.thenCompose(more -> more
+				? CompletableFuture.supplyAsync(stage::getAsBoolean, pool)
+				: CompletableFuture.completedFuture(false));
+	}
+
+	// Runs an I/O stage within the concurrency limit of the file store holding the keystore.
+	private boolean io(final Path path, final BooleanSupplier stage) {
+		final Semaphore permits = permits(path);
+		if (permits == null) {
+			return stage.getAsBoolean();
+		}
+		permits.acquireUninterruptibly();
+		try {
+			return stage.getAsBoolean();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private Semaphore permits(final Path path) {
+		final Path directory = path.toAbsolutePath().getParent();
+		if (ioPerMount <= 0 || directory == null) {
+			return null;
+		}
+		return directoryPermits.computeIfAbsent(directory, dir -> {
+			try {
+				return mountPermits.computeIfAbsent(Files.getFileStore(dir).name(), store -> new Semaphore(ioPerMount));
+			} catch (IOException e) {
+				// The stage itself reports the missing directory.
+				log.log(Level.FINE, "Could not find the file store of {0}: {1}", new Object[] { dir, e.getMessage() });
+				return new Semaphore(ioPerMount);
+			}
+		});
+	}
+
+	// How often a submitter waiting for room checks whether the stage was shut down in the meantime.
+	private static final long OFFER_MILLIS = 100;
+
+	// Makes the submitting stage wait for room instead of dropping the keystore or running it on the wrong pool.
+	// A stage shut down while a submitter waits rejects the keystore: once its workers have drained the queue and
+	// exited, a keystore queued after them would never run, and neither the stage nor the sweep would end.
+	static final RejectedExecutionHandler BLOCK_WHEN_FULL = (task, executor) -> {
+		try {
+			while (!executor.getQueue().offer(task, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (executor.isShutdown()) {
+					throw new RejectedExecutionException("The keystore pipeline is shut down.");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for the keystore pipeline.", e);
+		}
+		// Shut down as the keystore was queued: take it back, unless a worker has already picked it up.
+		if (executor.isShutdown() && executor.getQueue().remove(task)) {
+			throw new RejectedExecutionException("The keystore pipeline is shut down.");
+		}
+	};
+
+	// A fixed-size stage; once drained and terminated, it shuts down the stage it feeds.
+	private static final class StagePool extends ThreadPoolExecutor {
+
+		private final ThreadPoolExecutor downstream;
+
+		private StagePool(final String name, final int threads, final int queueCapacity, final ThreadPoolExecutor downstream) {
+			super(size(threads), size(threads), 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(queueCapacity > 0 ? queueCapacity : size(threads)),
+					new CustomizableThreadFactory(name), BLOCK_WHEN_FULL);
+			this.downstream = downstream;
+		}
+
+		@Override
+		protected void terminated() {
+			if (downstream != null) {
+				downstream.shutdown();
+			}
+		}
+
+		private static int size(final int threads) {
+			return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		}
+	}
+}
@@ -1,34 +1,70 @@
 package com.cert.service;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import com.cert.cluster.ClusterCoordinator;
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.index.KeystoreIndex;
+import com.cert.journal.UndoJournal;
+import com.cert.inventory.CsvInventorySource;
+import com.cert.inventory.DirectoryInventorySource;
+import com.cert.inventory.InventorySource;
+import com.cert.keystore.CertificateCache;
+import com.cert.keystore.LoadMode;
+import com.cert.metrics.SweepMetrics;
+import com.cert.metrics.SweepReportWriter;
+import com.cert.model.CertificateExpiry;
 import com.cert.model.JKSFile;
-import com.cert.task.KeystoreManagerTask;
-import com.cert.util.OpenCSVReader;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.policy.ChainRule;
+import com.cert.policy.ExpiryPolicy;
+import com.cert.task.MemoryBudget;
+import com.cert.task.SweepContext;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.java.Log;
 
-import static com.cert.util.Constants.CSV_FILE;;
+import static com.cert.util.Constants.CSV_FILE;
+import static com.cert.util.Constants.DEFAULT_EXPIRY_INDEX_FILE;
+import static com.cert.util.Constants.DEFAULT_INDEX_FILE;
+import static com.cert.util.Constants.DEFAULT_LOAD_MODE;
+import static com.cert.util.Constants.DEFAULT_MAX_IN_FLIGHT;
+import static com.cert.util.Constants.DEFAULT_PARALLEL_FILTER_THRESHOLD;
+import static com.cert.util.Constants.DEFAULT_REPORT_FILE;
+import static com.cert.util.Constants.DEFAULT_STREAMING_SCAN;
+import static com.cert.util.Constants.DEFAULT_SWEEP_PARALLELISM;
 
 // When we apply @Service annotation on any class in Spring boot then Spring boot create a object of that
 // class on application startup using default constructor of that class.
@@ -39,70 +75,460 @@ import static com.cert.util.Constants.CSV_FILE;;
 public class KeystoreService {
 
 	@Autowired
-	private ResourceLoader resourceLoader;	
+	private MeterRegistry meterRegistry;
+
+	// CSV listing keystores and their passwords; an empty value disables it.
+	@Value("${keystore.inventory.csv:" + CsvInventorySource.CLASSPATH_PREFIX + CSV_FILE + "}")
+	private String inventoryCsv;
+
+	// Directories searched for keystores matching the patterns; an empty value disables discovery.
+	@Value("${keystore.discovery.roots:}")
+	private String[] discoveryRoots;
+
+	@Value("${keystore.discovery.patterns:*.jks,cacerts}")
+	private String[] discoveryPatterns;
+
+	@Value("${keystore.discovery.password:changeit}")
+	private String discoveryPassword;
+
+	@Value("${keystore.sweep.parallelism:" + DEFAULT_SWEEP_PARALLELISM + "}")
+	private int parallelism;
+
+	// PLATFORM runs keystores on a pool of parallelism threads, VIRTUAL on one virtual thread each (JDK 21+).
+	@Value("${keystore.sweep.executor:PLATFORM}")
+	private ExecutorMode executorMode;
+
+	// Keystores processed at once on virtual threads; bounds open files and load on network mounts.
+	@Value("${keystore.sweep.max-in-flight:" + DEFAULT_MAX_IN_FLIGHT + "}")
+	private int maxInFlight;
+
+	// The pipeline runs reads, parsing and filtering, encoding and writes on separate pools, keeping disks
+	// and processors busy at the same time; thread counts of 0 mean one thread per processor.
+	@Value("${keystore.sweep.pipeline.enabled:false}")
+	private boolean pipelineEnabled;
+
+	@Value("${keystore.sweep.pipeline.read-threads:4}")
+	private int pipelineReadThreads;
+
+	@Value("${keystore.sweep.pipeline.parse-threads:0}")
+	private int pipelineParseThreads;
+
+	@Value("${keystore.sweep.pipeline.encode-threads:0}")
+	private int pipelineEncodeThreads;
+
+	@Value("${keystore.sweep.pipeline.write-threads:2}")
+	private int pipelineWriteThreads;
+
+	// Keystores waiting in front of each stage; a full queue holds back the stage feeding it.
+	@Value("${keystore.sweep.pipeline.queue-capacity:64}")
+	private int pipelineQueueCapacity;
+
+	// Reads and writes running at once on one file store; 0 for no limit.
+	@Value("${keystore.sweep.pipeline.io-per-mount:0}")
+	private int pipelineIoPerMount;
+
+	// Expiry policy, compiled once per sweep: expired certificates are kept for the grace period, not yet valid
+	// ones are kept unless configured otherwise, and excluded aliases are never removed.
+	@Value("${keystore.policy.grace-period-days:0}")
+	private long gracePeriodDays;
+
+	@Value("${keystore.policy.remove-not-yet-valid:false}")
+	private boolean removeNotYetValid;
+
+	@Value("${keystore.policy.chain-rule:LEAF}")
+	private ChainRule chainRule;
+
+	@Value("${keystore.policy.include-aliases:}")
+	private String[] includeAliases;
+
+	@Value("${keystore.policy.exclude-aliases:}")
+	private String[] excludeAliases;
+
+	// Heap the keystores in flight may take together, estimated as their file size times the cost factor;
+	// 0 disables the budget and only the parallelism bounds the keystores loaded at once.
+	@Value("${keystore.sweep.memory-budget-mb:0}")
+	private long memoryBudgetMb;
+
+	@Value("${keystore.sweep.memory-cost-factor:" + MemoryBudget.DEFAULT_COST_FACTOR + "}")
+	private int memoryCostFactor;
+
+	// Directory shared by the instances sweeping the same keystores; an empty value disables cluster mode.
+	@Value("${keystore.cluster.directory:}")
+	private String clusterDirectory;
+
+	// Unique name of this instance in the cluster; the process name (pid@host) when empty.
+	@Value("${keystore.cluster.node-id:}")
+	private String clusterNodeId;
+
+	@Value("${keystore.cluster.node-timeout-seconds:300}")
+	private long clusterNodeTimeoutSeconds;
+
+	@Value("${keystore.cluster.lease-ttl-seconds:600}")
+	private long clusterLeaseTtlSeconds;
+
+	// Certificates whose details are kept across keystores, which mostly share the same public CAs.
+	@Value("${keystore.certificate-cache.max-size:" + CertificateCache.DEFAULT_MAX_SIZE + "}")
+	private int certificateCacheSize;
+
+	// Location of the persisted expiry index; an empty value disables incremental sweeps.
+	@Value("${keystore.index.file:" + DEFAULT_INDEX_FILE + "}")
+	private String indexFile;
+
+	// Location of the inventory-wide certificate expiry index; an empty value disables it.
+	@Value("${keystore.expiry-index.file:" + DEFAULT_EXPIRY_INDEX_FILE + "}")
+	private String expiryIndexFile;
+
+	// Append-only journal of removed entries, restorable with the restore command; an empty value disables it.
+	@Value("${keystore.journal.file:}")
+	private String journalFile;
+
+	@Value("${keystore.sweep.streaming-scan:" + DEFAULT_STREAMING_SCAN + "}")
+	private boolean streamingScan;
+
+	// Keystores with at least this many entries have their entries evaluated in parallel; 0 disables it.
+	@Value("${keystore.sweep.parallel-filter-threshold:" + DEFAULT_PARALLEL_FILTER_THRESHOLD + "}")
+	private int parallelFilterThreshold;
+
+	@Value("${keystore.sweep.load-mode:" + DEFAULT_LOAD_MODE + "}")
+	private LoadMode loadMode;
+
+	// Location of the JSON run report; an empty value disables it.
+	@Value("${keystore.report.file:" + DEFAULT_REPORT_FILE + "}")
+	private String reportFile;
+
+	// Daemon mode keeps the executor, index and JIT warm and sweeps on a schedule instead of once at startup.
+	@Value("${keystore.daemon.enabled:false}")
+	private boolean daemon;
+
+	@Value("${keystore.daemon.interval-seconds:3600}")
+	private long intervalSeconds;
+
+	// How long shutdown waits for in-flight keystores to be written back.
+	@Value("${keystore.daemon.shutdown-timeout-seconds:60}")
+	private long shutdownTimeoutSeconds;
+
+	// Watch mode re-sweeps keystores as soon as they change on disk or reach their next expiry.
+	@Value("${keystore.watch.enabled:false}")
+	private boolean watch;
+
+	@Value("${keystore.watch.debounce-millis:2000}")
+	private long debounceMillis;
 
 	private Set<JKSFile> jksFiles = new HashSet<>();
 	
 	private ExecutorService executorService;
-	 
-	private volatile boolean stopThread = false;
+	
+	private KeystorePipeline pipeline;
+	
+	// Evaluates the entries of large keystores, apart from the common pool the directory walk runs on.
+	private ForkJoinPool filterPool;
+	
+	private SweepMetrics metrics;
+	
+	private ScheduledExecutorService scheduler;
+	
+	private KeystoreSweeper sweeper;
+	
+	private KeystoreIndex index;
+	
+	private CertificateExpiryIndex expiryIndex;
+	
+	private KeystoreWatcher watcher;
+	
+	private InventorySource inventory;
+	
+	private ClusterCoordinator cluster;
+
+	private UndoJournal journal;
+	
+	// Guards against overlapping sweeps, whether scheduled or triggered by hand.
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	
+	// Per-file results of the last completed sweep.
+	@Getter
+	private volatile List<SweepResult> lastSweepResults = Collections.emptyList();
+	
+	// Report of the last completed sweep.
+	@Getter
+	private volatile SweepReport lastReport;
 	 
 	// When we apply @PostConstruct annotation on init() method then init() method call after default constructor of Service Bean.
-	// Create a method for load CSV file and put data of CSV file inside a ArrayList
+	// Create the long-lived sweep engine, then either sweep once or schedule sweeps in daemon mode.
 	@PostConstruct
 	public void init() throws KeyStoreException, NoSuchAlgorithmException, CertificateException {		
-		log.log(Level.INFO, "Loading jks file paths from the jksfiles.csv file.");
+		inventory = inventory();
+		index = indexFile.isEmpty() ? null : KeystoreIndex.load(Paths.get(indexFile));
+		expiryIndex = expiryIndexFile.isEmpty() ? null : CertificateExpiryIndex.load(Paths.get(expiryIndexFile));
+		final CertificateCache certificateCache = new CertificateCache(certificateCacheSize);
+		metrics = new SweepMetrics(meterRegistry);
+		metrics.bind(certificateCache);
+		final MemoryBudget memoryBudget = memoryBudgetMb <= 0 ? null : new MemoryBudget(memoryBudgetMb * 1024 * 1024, memoryCostFactor);
+		if (memoryBudget != null) {
+			metrics.bind(memoryBudget);
+		}
+		if (!clusterDirectory.isEmpty()) {
+			cluster = ClusterCoordinator.builder()
+					.directory(Paths.get(clusterDirectory))
+					.nodeId(clusterNodeId)
+					.nodeTimeoutMillis(TimeUnit.SECONDS.toMillis(clusterNodeTimeoutSeconds))
+					.leaseTtlMillis(TimeUnit.SECONDS.toMillis(clusterLeaseTtlSeconds))
+					.build();
+			try {
+				cluster.join();
+			} catch (IOException e) {
+				// Sweeping everything from every node would defeat the leases of the others.
+				throw new IllegalStateException("Could not join the cluster in " + clusterDirectory, e);
+			}
+		}
+		if (!journalFile.isEmpty()) {
+			try {
+				journal = UndoJournal.open(Paths.get(journalFile));
+			} catch (IOException e) {
+				// Removing entries which cannot be restored is what the journal was configured to prevent.
+				throw new IllegalStateException("Could not open the undo journal " + journalFile, e);
+			}
+		}
+		filterPool = parallelFilterThreshold > 0 ? new ForkJoinPool(parallelism) : null;
+		final SweepContext context = SweepContext.builder()
+				.index(index)
+				.expiryIndex(expiryIndex)
+				.streamingScan(streamingScan)
+				.loadMode(loadMode)
+				.parallelFilterThreshold(parallelFilterThreshold)
+				.parallelFilterPool(filterPool)
+				.metrics(metrics)
+				.certificateCache(certificateCache)
+				.expiryPolicy(ExpiryPolicy.builder()
+						.gracePeriodMillis(TimeUnit.DAYS.toMillis(gracePeriodDays))
+						.removeNotYetValid(removeNotYetValid)
+						.chainRule(chainRule)
+						.includeAliases(Arrays.asList(includeAliases))
+						.excludeAliases(Arrays.asList(excludeAliases))
+						.build())
+				.memoryBudget(memoryBudget)
+				.cluster(cluster)
+				.journal(journal)
+				.build();
+		// Concurrency is bounded by the configuration, not by the size of the inventory.
+		if (pipelineEnabled) {
+			pipeline = KeystorePipeline.builder()
+					.readThreads(pipelineReadThreads)
+					.parseThreads(pipelineParseThreads)
+					.encodeThreads(pipelineEncodeThreads)
+					.writeThreads(pipelineWriteThreads)
+					.queueCapacity(pipelineQueueCapacity)
+					.ioPerMount(pipelineIoPerMount)
+					.build();
+			sweeper = new KeystoreSweeper(pipeline, context);
+		} else {
+			executorService = SweepExecutors.create(executorMode, parallelism, maxInFlight);
+			sweeper = new KeystoreSweeper(executorService, context);
+		}
+
+		if (watch) {
+			try {
+				watcher = new KeystoreWatcher(this::sweep, expiryIndex, TimeUnit.DAYS.toMillis(gracePeriodDays), debounceMillis);
+				final Thread thread = new Thread(watcher, "keystore-watcher");
+				thread.start();
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Could not start watching keystores: {0}", e.getMessage());
+				watcher = null;
+			}
+		}
+
+		if (daemon) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("keystore-scheduler-"));
+			// A fixed delay never starts a sweep before the previous one has finished.
+			scheduler.scheduleWithFixedDelay(this::sweep, 0, intervalSeconds, TimeUnit.SECONDS);
+			log.log(Level.INFO, "Daemon mode: sweeping every {0} seconds.", intervalSeconds);
+		} else {
+			sweep();
+			if (watcher != null) {
+				// The executor is needed to sweep changed keystores.
+				return;
+			}
+			
+			// When finished using an ExecutorService, we need to shut it down explicitly.
+			if (pipeline != null) {
+				pipeline.shutdown();
+			} else {
+				executorService.shutdown();
+			}
+			if (filterPool != null) {
+				filterPool.shutdown();
+			}
+			
+			log.log(Level.INFO, "The executor service has been shut down successfully.");
+		}
+	}
+
+	/**
+	 * Sweeps every keystore of the inventory, unless a sweep is already running.
+	 * 
+	 * @return the report of the sweep, or null if it did not run.
+	 */
+	public SweepReport sweep() {
+		if (!sweeping.compareAndSet(false, true)) {
+			log.log(Level.WARNING, "A sweep is already running, skipping this one.");
+			return null;
+		}
+		try {
+			log.log(Level.INFO, "Discovering keystores.");
+			final Set<JKSFile> discovered = ConcurrentHashMap.newKeySet();
+			final SweepReport report = sweeper.run(sink -> inventory.discover(file -> {
+				discovered.add(file);
+				sink.accept(file);
+			}));
+			jksFiles = discovered;
+			if (watcher != null) watcher.watch(jksFiles);
+			
+			lastReport = report;
+			lastSweepResults = report.getResults();
+			
+			saveIndexes();
+			if(!reportFile.isEmpty()) SweepReportWriter.write(report, Paths.get(reportFile));
+			logMetrics();
+			return report;
+		} catch (IOException | RuntimeException e) {
+			// Never let an exception escape, it would cancel the scheduled sweeps.
+			log.log(Level.SEVERE, "An exception occurred: {0}", e.getMessage());
+			return null;
+		} finally {
+			sweeping.set(false);
+		}
+	}
+	
+	/**
+	 * Sweeps the given keystores, unless a sweep is already running; watch mode sweeps through here, so it
+	 * never processes the same keystores as a scheduled sweep at the same time.
+	 * 
+	 * @param keystores the keystores to sweep.
+	 * @return the report of the sweep, or null if it did not run.
+	 */
+	public SweepReport sweep(final Collection<JKSFile> keystores) {
+		if (!sweeping.compareAndSet(false, true)) {
+			return null;
+		}
+		try {
+			final SweepReport report = sweeper.run(keystores);
+			saveIndexes();
+			logMetrics();
+			return report;
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "An exception occurred: {0}", e.getMessage());
+			return null;
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Returns the certificates expiring in the given time range, answered from the expiry index without
+	 * opening any keystore.
+	 * 
+	 * @param from the start of the range, inclusive.
+	 * @param to the end of the range, exclusive.
+	 * @return the matching certificates, earliest first; empty if the expiry index is disabled.
+	 */
+	public List<CertificateExpiry> expiringBetween(final Instant from, final Instant to) {
+		if (expiryIndex == null) {
+			return Collections.emptyList();
+		}
+		return expiryIndex.expiringBetween(from.toEpochMilli(), to.toEpochMilli());
+	}
+
+	private void saveIndexes() {
 		try {
-			final Resource resource = resourceLoader.getResource("classpath:" + CSV_FILE);			
-			jksFiles = OpenCSVReader.loadCSVFile(resource.getInputStream());
-             if(jksFiles.size() > 0) {
-            	 executorService = Executors.newFixedThreadPool(jksFiles.size());
-            	 jksFiles.forEach(file -> {
-            		// This is important to stop further indexing
-            		 if(stopThread) return;
-            		 
-            		 log.log(Level.INFO, "JKS storage: {0} ", file.getPathToStore());
-            		
-            		 try {    			 
-            		    final KeystoreManagerTask task = new KeystoreManagerTask(file);
-            		 
-            		    final Future<Boolean> future = executorService.submit(task);
-        	
-						boolean result = future.get().booleanValue();
-						
-						if(result) log.log(Level.INFO, "JKS storage {0} has been scanned successfully.", file.getPathToStore());
-						
-					} catch (InterruptedException | ExecutionException e) {
-						log.log(Level.SEVERE, "An exception occurred: ", e.getMessage());
-					}           		 
-            		
-            	 });
-            	 
-            	 // When finished using an ExecutorService, we need to shut it down explicitly.
-            	 executorService.shutdown();
-            	 
-            	 log.log(Level.INFO, "The executor service has been shut down successfully.");
-             }
-    
-		}catch (IOException e) {
-		   log.log(Level.SEVERE, "An exception occurred: ", e.getMessage());
+			if(index != null) index.save();
+			if(expiryIndex != null) expiryIndex.save();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not save the keystore indexes: {0}", e.getMessage());
+		}
+	}
+	
+	// The registry is in memory unless the context provides another one, so the meters are logged after each sweep.
+	private void logMetrics() {
+		log.log(Level.INFO, "Sweep metrics since startup:\n{0}", metrics.summary());
+	}
+	
+	// Combines the CSV inventory with the keystores discovered under the configured directories.
+	private InventorySource inventory() {
+		final List<InventorySource> sources = new ArrayList<>();
+		if (!inventoryCsv.isEmpty()) {
+			sources.add(new CsvInventorySource(inventoryCsv));
+		}
+		if (discoveryRoots.length > 0) {
+			final List<Path> roots = new ArrayList<>();
+			for (final String root : discoveryRoots) {
+				roots.add(Paths.get(root.trim()));
+			}
+			sources.add(new DirectoryInventorySource(roots, Arrays.asList(discoveryPatterns),
+					discoveryPassword.toCharArray()));
 		}
+		log.log(Level.INFO, "Keystore inventory: {0}", sources);
+		return InventorySource.concat(sources);
 	}
 	
 	// When we annotate a Spring Bean method with PreDestroy annotation, 
 	// it gets called when bean instance is getting removed from the context. 
 	@PreDestroy
 	 public void shutdown() {
-	  this.stopThread = true;
+	  if(watcher != null){
+	   try {
+	    watcher.close();
+	   } catch (IOException e) {
+	    log.log(Level.WARNING, "An error occured: {0}", e.getMessage());
+	   }
+	  }
+	  if(scheduler != null){
+	   scheduler.shutdown();
+	  }
+	  if(sweeper != null){
+	   sweeper.stop();
+	  }
+	  if(pipeline != null){
+	   try {
+	    // Keystores already in the pipeline go through every stage before it stops.
+	    if (!pipeline.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+	     log.log(Level.WARNING, "Keystores still in the pipeline after {0} seconds, interrupting them.", shutdownTimeoutSeconds);
+	     pipeline.shutdownNow();
+	    }
+	   } catch (InterruptedException e) {
+		   log.log(Level.SEVERE, "An error occured: {0}", e.getMessage());
+		   pipeline.shutdownNow();
+	       Thread.currentThread().interrupt();
+	   }
+	  }
 	  if(executorService != null){
+	   executorService.shutdown();
 	   try {
-	    // Wait 1 second for closing all threads
-	    executorService.awaitTermination(1, TimeUnit.SECONDS);
+	    // Let in-flight keystores finish their save; writes are atomic, so interrupting a late one is safe.
+	    if (!executorService.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+	     log.log(Level.WARNING, "Keystores still in flight after {0} seconds, interrupting them.", shutdownTimeoutSeconds);
+	     executorService.shutdownNow();
+	    }
+	    if (scheduler != null) {
+	     scheduler.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS);
+	    }
 	    log.log(Level.INFO, "The executor service has been shut down.");
 	   } catch (InterruptedException e) {
-		   log.log(Level.SEVERE, "An error occured: ", e.getMessage());
+		   log.log(Level.SEVERE, "An error occured: {0}", e.getMessage());
+		   executorService.shutdownNow();
 	       Thread.currentThread().interrupt();
 	   }
 	  }
+	  if(filterPool != null){
+	   filterPool.shutdown();
+	  }
+	  if(cluster != null){
+	   cluster.close();
+	  }
+	  if(journal != null){
+	   try {
+	    journal.close();
+	   } catch (IOException e) {
+	    log.log(Level.WARNING, "An error occured: {0}", e.getMessage());
+	   }
+	  }
 	 }
 }
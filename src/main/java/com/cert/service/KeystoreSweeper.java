@@ -0,0 +1,429 @@
+package com.cert.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import com.cert.cluster.ClusterCoordinator;
+import com.cert.cluster.KeystoreLease;
+import com.cert.index.KeystoreIndex;
+import com.cert.inventory.InventorySource;
+import com.cert.keystore.KeystoreFiles;
+import com.cert.metrics.SweepMetrics;
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.task.KeystoreManagerTask;
+import com.cert.task.MemoryBudget;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+/**
+ * Runs a {@link KeystoreManagerTask} for every keystore of an inventory on the given executor, or through
+ * the stages of a {@link KeystorePipeline}.
+ * 
+ * Tasks are submitted as keystores are discovered and their results are collected in completion order,
+ * so the level of parallelism is bounded only by the executor or the pipeline. In a cluster, only the
+ * keystores owned by this node are swept, each under a lease which keeps other nodes away from it. With a
+ * memory budget, discovery waits until the next keystore fits in what the keystores in flight leave of it.
+ */
+@Log
+public class KeystoreSweeper {
+
+	private final ExecutorService executorService;
+	
+	private final KeystorePipeline pipeline;
+	
+	private final SweepContext context;
+	
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a new KeystoreSweeper.
+	 * 
+	 * @param executorService the executor the keystore tasks are submitted to.
+	 */
+	public KeystoreSweeper(final ExecutorService executorService) {
+		this(executorService, SweepContext.defaults());
+	}
+
+	/**
+	 * Creates a new KeystoreSweeper.
+	 * 
+	 * @param executorService the executor the keystore tasks are submitted to.
+	 * @param context the collaborators shared by the keystore tasks.
+	 */
+	public KeystoreSweeper(final ExecutorService executorService, final SweepContext context) {
+		if (executorService == null) {
+			throw new IllegalArgumentException("The executor service cannot be null.");
+		}
+		if (context == null) {
+			throw new IllegalArgumentException("The sweep context cannot be null.");
+		}
+		this.executorService = executorService;
+		this.pipeline = null;
+		this.context = context;
+	}
+
+	/**
+	 * Creates a new KeystoreSweeper running every keystore through the stages of a pipeline.
+	 * 
+	 * @param pipeline the pipeline the keystores are submitted to.
+	 * @param context the collaborators shared by the keystore tasks.
+	 */
+	public KeystoreSweeper(final KeystorePipeline pipeline, final SweepContext context) {
+		if (pipeline == null) {
+			throw new IllegalArgumentException("The keystore pipeline cannot be null.");
+		}
+		if (context == null) {
+			throw new IllegalArgumentException("The sweep context cannot be null.");
+		}
+		this.executorService = null;
+		this.pipeline = pipeline;
+		this.context = context;
+	}
+
+	/**
+	 * Sweeps the given keystores and waits until all of them have been processed.
+	 * 
+	 * @param jksFiles the keystores to sweep.
+	 * @return one result per submitted keystore, in completion order.
+	 */
+	public List<SweepResult> sweep(final Collection<JKSFile> jksFiles) {
+		return run(jksFiles).getResults();
+	}
+
+	/**
+	 * Sweeps the given keystores, waits until all of them have been processed and reports on the run.
+	 * 
+	 * @param jksFiles the keystores to sweep.
+	 * @return the run report, with one result per submitted keystore in completion order.
+	 */
+	public SweepReport run(final Collection<JKSFile> jksFiles) {
+		return run(InventorySource.of(jksFiles));
+	}
+
+	/**
+	 * Sweeps the keystores of the given source, waits until all of them have been processed and reports on the run.
+	 * 
+	 * Each keystore is submitted as soon as the source discovers it, so keystores are processed while
+	 * discovery is still running. A keystore discovered more than once, under the same name or through a
+	 * link or relative path resolving to the same file, is only swept once.
+	 * 
+	 * @param source the source of the keystores to sweep.
+	 * @return the run report, with one result per submitted keystore in completion order.
+	 */
+	public SweepReport run(final InventorySource source) {
+		final String runId = UUID.randomUUID().toString();
+		final Instant startedAt = Instant.now();
+		final long sweepStart = System.nanoTime();
+		// Executor tasks and pipeline futures are both collected from this queue as they complete.
+		final BlockingQueue<Future<SweepResult>> completed = new LinkedBlockingQueue<>();
+		final CompletionService<SweepResult> completionService = executorService == null ? null
+				: new ExecutorCompletionService<>(executorService, completed);
+		// The source may discover keystores on several threads.
+		final Map<Future<SweepResult>, JKSFile> pending = new ConcurrentHashMap<>();
+		final List<SweepResult> results = Collections.synchronizedList(new ArrayList<>());
+		final Set<Path> submitted = ConcurrentHashMap.newKeySet();
+		final KeystoreIndex index = context.getIndex();
+		final SweepMetrics metrics = context.getMetrics();
+		final ClusterCoordinator cluster = context.getCluster();
+		final MemoryBudget budget = context.getMemoryBudget();
+		// Gives back the memory budget of each pending keystore, in case it is cancelled before it has run.
+		final Map<Future<SweepResult>, Runnable> admissions = new ConcurrentHashMap<>();
+		final long now = System.currentTimeMillis();
+		// Every keystore of the sweep is evaluated against the same time, however long the sweep runs.
+		final SweepContext sweepContext = context.snapshot(runId, now);
+		log.log(Level.FINE, "Sweeping with {0}.", sweepContext.getCompiledPolicy());
+		// Keystores indexed under another policy may hold entries this one removes.
+		final String policy = sweepContext.getCompiledPolicy().getFingerprint();
+
+		try {
+			(cluster == null ? source : cluster.shard(source)).discover(file -> {
+				// This is important to stop further indexing
+				if (stopped) return;
+
+				if (!submitted.add(KeystoreFiles.canonicalPath(Paths.get(file.getPathToStore())))) {
+					log.log(Level.FINE, "JKS storage {0} was already discovered, skipping.", file.getPathToStore());
+					return;
+				}
+
+				if (index != null && index.isUpToDate(new File(file.getPathToStore()), now, policy)) {
+					log.log(Level.FINE, "JKS storage {0} is unchanged and has nothing expiring, skipping.", file.getPathToStore());
+					results.add(SweepResult.builder()
+							.pathToStore(file.getPathToStore())
+							.status(SweepStatus.SKIPPED)
+							.build());
+					return;
+				}
+
+				// Holds back discovery until the keystore fits in the memory budget.
+				final Runnable admission;
+				try {
+					admission = admit(budget, file);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					results.add(cancelled(file));
+					return;
+				}
+
+				log.log(Level.INFO, "JKS storage: {0} ", file.getPathToStore());
+				try {
+					final Future<SweepResult> submission;
+					if (pipeline != null) {
+						// Pipeline queues are bounded, so the lease is not held long before the keystore is read.
+						final KeystoreLease lease = cluster == null ? null : lease(cluster, file);
+						if (cluster != null && lease == null) {
+							admission.run();
+							results.add(leased(file));
+							return;
+						}
+						final CompletableFuture<SweepResult> future;
+						try {
+							future = pipeline.submit(file, sweepContext);
+						} catch (RejectedExecutionException e) {
+							release(lease);
+							throw e;
+						}
+						pending.put(future, file);
+						future.whenComplete((result, e) -> {
+							release(lease);
+							admission.run();
+							completed.add(future);
+						});
+						submission = future;
+					} else {
+						submission = completionService.submit(() -> {
+							try {
+								return process(file, sweepContext);
+							} finally {
+								admission.run();
+							}
+						});
+						pending.put(submission, file);
+					}
+					if (budget != null) admissions.put(submission, admission);
+				} catch (RejectedExecutionException e) {
+					// The executor is shutting down.
+					admission.run();
+					results.add(cancelled(file));
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			// Keystores discovered so far are still swept and reported.
+			log.log(Level.SEVERE, "Discovery of {0} failed: {1}", new Object[] { source, e.getMessage() });
+		}
+
+		long firstResultNanos = -1;
+		while (!pending.isEmpty()) {
+			final Future<SweepResult> future;
+			try {
+				future = completed.take();
+			} catch (InterruptedException e) {
+				log.log(Level.SEVERE, "The sweep was interrupted, cancelling {0} pending keystores.", pending.size());
+				pending.forEach((pendingFuture, file) -> {
+					pendingFuture.cancel(true);
+					results.add(cancelled(file));
+				});
+				pending.clear();
+				admissions.values().forEach(Runnable::run);
+				Thread.currentThread().interrupt();
+				break;
+			}
+			if (firstResultNanos < 0) {
+				firstResultNanos = System.nanoTime() - sweepStart;
+			}
+
+			final JKSFile file = pending.remove(future);
+			admissions.remove(future);
+			try {
+				results.add(future.get());
+			} catch (CancellationException e) {
+				results.add(cancelled(file));
+			} catch (InterruptedException e) {
+				results.add(cancelled(file));
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				results.add(SweepResult.builder()
+						.pathToStore(file.getPathToStore())
+						.status(SweepStatus.FAILED)
+						.message(String.valueOf(e.getCause()))
+						.build());
+			}
+		}
+
+		final SweepReport report = report(results, runId, startedAt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sweepStart))
+				.firstResultMillis(firstResultNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstResultNanos))
+				.build();
+		logSummary(report);
+		if (metrics != null) {
+			results.forEach(metrics::record);
+			metrics.record(report);
+		}
+		return report;
+	}
+
+	/**
+	 * Stops submitting further keystores; tasks already submitted are left to complete.
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+
+	private SweepResult process(final JKSFile file, final SweepContext sweepContext) {
+		final ClusterCoordinator cluster = context.getCluster();
+		if (cluster == null) {
+			return call(file, sweepContext);
+		}
+		// Taken when the task starts, as executor queues are not bounded.
+		final KeystoreLease lease = lease(cluster, file);
+		if (lease == null) {
+			return leased(file);
+		}
+		try {
+			return call(file, sweepContext);
+		} finally {
+			lease.close();
+		}
+	}
+
+	private SweepResult call(final JKSFile file, final SweepContext sweepContext) {
+		final long start = System.nanoTime();
+		final KeystoreManagerTask task = new KeystoreManagerTask(file, sweepContext);
+		try {
+			if (task.call().booleanValue()) {
+				log.log(Level.INFO, "JKS storage {0} has been scanned successfully.", file.getPathToStore());
+			}
+			return task.getResult();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return outcome(task, file, start).status(SweepStatus.CANCELLED).message(e.getMessage()).build();
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "An exception occurred: {0}", e.getMessage());
+			return outcome(task, file, start).status(SweepStatus.FAILED).message(e.getMessage()).build();
+		}
+	}
+
+	// Keeps whatever the task measured before it was interrupted or failed unexpectedly.
+	private static SweepResult.SweepResultBuilder outcome(final KeystoreManagerTask task, final JKSFile file, final long start) {
+		final SweepResult partial = task.getResult();
+		return (partial == null ? SweepResult.builder().pathToStore(file.getPathToStore()) : partial.toBuilder())
+				.elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	// Returns null if another node holds the lease, or if it cannot be told which node does.
+	private static KeystoreLease lease(final ClusterCoordinator cluster, final JKSFile file) {
+		try {
+			return cluster.tryLease(Paths.get(file.getPathToStore()));
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not lease JKS storage {0}: {1}", new Object[] { file.getPathToStore(), e.getMessage() });
+			return null;
+		}
+	}
+
+	// Takes the estimated cost of the keystore from the budget; returns the action giving it back, at most once.
+	private static Runnable admit(final MemoryBudget budget, final JKSFile file) throws InterruptedException {
+		if (budget == null) {
+			return () -> { };
+		}
+		final int cost = budget.acquire(Paths.get(file.getPathToStore()));
+		final AtomicBoolean released = new AtomicBoolean();
+		return () -> {
+			if (released.compareAndSet(false, true)) {
+				budget.release(cost);
+			}
+		};
+	}
+
+	private static void release(final KeystoreLease lease) {
+		if (lease != null) {
+			lease.close();
+		}
+	}
+
+	private static SweepResult leased(final JKSFile file) {
+		return SweepResult.builder()
+				.pathToStore(file.getPathToStore())
+				.status(SweepStatus.SKIPPED)
+				.message("Leased by another node.")
+				.build();
+	}
+
+	private static SweepResult cancelled(final JKSFile file) {
+		return SweepResult.builder()
+				.pathToStore(file.getPathToStore())
+				.status(SweepStatus.CANCELLED)
+				.build();
+	}
+
+	private static SweepReport.SweepReportBuilder report(final List<SweepResult> results, final String runId,
+			final Instant startedAt, final long elapsedMillis) {
+		final Map<SweepStatus, Integer> counts = new EnumMap<>(SweepStatus.class);
+		long bytesRead = 0;
+		long bytesWritten = 0;
+		long entriesScanned = 0;
+		long entriesRemoved = 0;
+		for (final SweepResult result : results) {
+			counts.merge(result.getStatus(), 1, Integer::sum);
+			bytesRead += result.getBytesRead();
+			bytesWritten += result.getBytesWritten();
+			entriesScanned += result.getEntriesScanned();
+			entriesRemoved += result.getEntriesRemoved();
+		}
+		final int processed = results.size() - counts.getOrDefault(SweepStatus.SKIPPED, 0);
+		return SweepReport.builder()
+				.runId(runId)
+				.startedAt(startedAt.toString())
+				.finishedAt(startedAt.plusMillis(elapsedMillis).toString())
+				.elapsedMillis(elapsedMillis)
+				.keystores(results.size())
+				.succeeded(counts.getOrDefault(SweepStatus.SUCCESS, 0))
+				.skipped(counts.getOrDefault(SweepStatus.SKIPPED, 0))
+				.failed(counts.getOrDefault(SweepStatus.FAILED, 0))
+				.cancelled(counts.getOrDefault(SweepStatus.CANCELLED, 0))
+				.throughputPerSecond(elapsedMillis == 0 ? processed : processed * 1000.0 / elapsedMillis)
+				.bytesRead(bytesRead)
+				.bytesWritten(bytesWritten)
+				.entriesScanned(entriesScanned)
+				.entriesRemoved(entriesRemoved)
+				.results(results);
+	}
+
+	private static void logSummary(final SweepReport report) {
+		for (final SweepResult result : report.getResults()) {
+			if (result.getStatus() == SweepStatus.SKIPPED) continue;
+			log.log(Level.INFO, "  {0} {1} ({2} ms){3}", new Object[] { result.getStatus(), result.getPathToStore(),
+					result.getElapsedMillis(), result.getMessage() == null ? "" : ": " + result.getMessage() });
+		}
+		log.log(Level.INFO, "Sweep of {0} keystores finished in {1} ms: {2} succeeded, {3} skipped, {4} failed, {5} cancelled.",
+				new Object[] { report.getKeystores(), report.getElapsedMillis(), report.getSucceeded(),
+						report.getSkipped(), report.getFailed(), report.getCancelled() });
+	}
+}
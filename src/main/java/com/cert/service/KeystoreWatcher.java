@@ -0,0 +1,256 @@
+package com.cert.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.keystore.KeystoreFiles;
+import com.cert.model.CertificateExpiry;
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+
+import lombok.extern.java.Log;
+
+/**
+ * Re-sweeps keystores when they change on disk, and when a certificate they hold becomes removable.
+ *
+ * The directories of the watched keystores are registered with a {@link WatchService}; bursts of events
+ * for the same file are debounced, so a deploy rewriting a keystore several times triggers one sweep of
+ * that file only, and the rewrite of a keystore by the watcher's own sweep triggers none.
+ *
+ * Expiries are read from the head of the {@link CertificateExpiryIndex}. The watcher keeps a cursor into it:
+ * once the certificates up to a time have been handed to a sweep, they are behind the cursor and never
+ * trigger again, even when the sweep keeps them, for instance because their alias is excluded.
+ */
+@Log
+public class KeystoreWatcher implements Runnable, Closeable {
+
+	// How long keystores wait before being retried when another sweep was running, however short the debounce.
+	private static final long RETRY_MILLIS = 1000;
+
+	private final Function<Collection<JKSFile>, SweepReport> sweep;
+	private final CertificateExpiryIndex expiryIndex;
+	private final long gracePeriodMillis;
+	private final long debounceMillis;
+	private final WatchService watchService;
+
+	// Watched keystores by absolute path, and by canonical path as in the expiry index; the registered directories.
+	private final Map<Path, JKSFile> inventory = new ConcurrentHashMap<>();
+	private final Map<String, Path> canonical = new ConcurrentHashMap<>();
+	private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+	// Keystores with pending changes, with the time they are due to be swept.
+	private final Map<Path, Long> changed = new HashMap<>();
+	// Last modification time and size of the keystores the watcher's sweeps rewrote.
+	private final Map<Path, long[]> written = new HashMap<>();
+	// Certificates expiring before this time, in epoch milliseconds, have already been handed to a sweep.
+	private long handledUntil;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new KeystoreWatcher sweeping with the given sweeper directly, for tests and tools which run
+	 * no other sweep.
+	 *
+	 * @param sweeper the sweeper changed keystores are handed to.
+	 * @param expiryIndex the certificate expiry index telling when keystores next expire, or null.
+	 * @param debounceMillis how long a keystore must stay quiet before it is swept.
+	 * @throws IOException if the watch service could not be created.
+	 */
+	public KeystoreWatcher(final KeystoreSweeper sweeper, final CertificateExpiryIndex expiryIndex, final long debounceMillis)
+			throws IOException {
+		this(sweeper::run, expiryIndex, 0, debounceMillis);
+	}
+
+	/**
+	 * Creates a new KeystoreWatcher.
+	 *
+	 * @param sweep sweeps the given keystores, or returns null if it cannot right now because another sweep
+	 *        is running; the keystores are then retried after the debounce delay, and at least a second later.
+	 * @param expiryIndex the certificate expiry index telling when keystores next expire, or null.
+	 * @param gracePeriodMillis how long after their expiry certificates are removed, as in the expiry policy.
+	 * @param debounceMillis how long a keystore must stay quiet before it is swept, zero to sweep it right away.
+	 * @throws IOException if the watch service could not be created.
+	 */
+	public KeystoreWatcher(final Function<Collection<JKSFile>, SweepReport> sweep, final CertificateExpiryIndex expiryIndex,
+			final long gracePeriodMillis, final long debounceMillis) throws IOException {
+		if (debounceMillis < 0) {
+			throw new IllegalArgumentException("The debounce delay cannot be negative.");
+		}
+		this.sweep = sweep;
+		this.expiryIndex = expiryIndex;
+		this.gracePeriodMillis = gracePeriodMillis;
+		this.debounceMillis = debounceMillis;
+		this.handledUntil = removeBefore(System.currentTimeMillis());
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Starts watching the given keystores, in addition to those already watched.
+	 *
+	 * @param jksFiles the keystores to watch.
+	 */
+	public void watch(final Collection<JKSFile> jksFiles) {
+		for (final JKSFile file : jksFiles) {
+			final Path path = key(file);
+			inventory.put(path, file);
+			canonical.put(KeystoreFiles.canonicalPath(path).toString(), path);
+			final Path directory = path.getParent();
+			if (directory == null || directories.containsKey(directory)) continue;
+			try {
+				directories.put(directory, directory.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+				log.log(Level.INFO, "Watching keystore directory {0}.", directory);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Could not watch directory {0}: {1}", new Object[] { directory, e.getMessage() });
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				final long now = System.currentTimeMillis();
+				final long deadline = Math.min(nextDebounceDeadline(), nextRemoval());
+				final WatchKey key;
+				if (deadline == Long.MAX_VALUE) {
+					// Nothing pending: wait for the next change without waking up.
+					key = watchService.take();
+				} else if (deadline > now) {
+					key = watchService.poll(deadline - now, TimeUnit.MILLISECONDS);
+				} else {
+					key = watchService.poll();
+				}
+				if (key != null) {
+					collect(key);
+				}
+				sweepDue(System.currentTimeMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			} catch (RuntimeException e) {
+				// Keep watching, the next change or expiry is retried.
+				log.log(Level.SEVERE, "An exception occurred: {0}", e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		watchService.close();
+	}
+
+	private void collect(final WatchKey key) {
+		final Path directory = (Path) key.watchable();
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Events were lost, treat every keystore of the directory as changed.
+				inventory.keySet().stream()
+						.filter(path -> directory.equals(path.getParent()))
+						.forEach(path -> changed.put(path, System.currentTimeMillis() + debounceMillis));
+				continue;
+			}
+			final Path path = directory.resolve((Path) event.context());
+			if (inventory.containsKey(path)) {
+				changed.put(path, System.currentTimeMillis() + debounceMillis);
+			}
+		}
+		key.reset();
+	}
+
+	// When the first changed keystore is due, or Long.MAX_VALUE if none changed.
+	private long nextDebounceDeadline() {
+		long deadline = Long.MAX_VALUE;
+		for (final Long due : changed.values()) {
+			deadline = Math.min(deadline, due);
+		}
+		return deadline;
+	}
+
+	// When the first certificate not handled yet becomes removable.
+	private long nextRemoval() {
+		final CertificateExpiry next = expiryIndex == null ? null : expiryIndex.firstExpiringFrom(handledUntil);
+		if (next == null || next.getNotAfter() > Long.MAX_VALUE - gracePeriodMillis - 1) {
+			return Long.MAX_VALUE;
+		}
+		return next.getNotAfter() + gracePeriodMillis + 1;
+	}
+
+	private void sweepDue(final long now) {
+		final Map<Path, JKSFile> due = new LinkedHashMap<>();
+		for (final Iterator<Map.Entry<Path, Long>> it = changed.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<Path, Long> entry = it.next();
+			if (entry.getValue() <= now) {
+				it.remove();
+				if (!rewrittenBySweep(entry.getKey())) {
+					due.put(entry.getKey(), inventory.get(entry.getKey()));
+				}
+			}
+		}
+		final long removeBefore = removeBefore(now);
+		if (expiryIndex != null && handledUntil < removeBefore) {
+			for (final CertificateExpiry expiry : expiryIndex.expiringBetween(handledUntil, removeBefore)) {
+				final Path path = canonical.get(expiry.getPathToStore());
+				if (path != null) {
+					due.put(path, inventory.get(path));
+				}
+			}
+		}
+		handledUntil = Math.max(handledUntil, removeBefore);
+		if (due.isEmpty()) return;
+
+		log.log(Level.INFO, "Sweeping {0} changed or expiring keystores.", due.size());
+		final SweepReport report = sweep.apply(due.values());
+		if (report == null) {
+			// Another sweep is running; try again once it had the time to finish.
+			log.log(Level.INFO, "A sweep is already running, retrying {0} keystores later.", due.size());
+			due.keySet().forEach(path -> changed.put(path, now + Math.max(debounceMillis, RETRY_MILLIS)));
+			return;
+		}
+		for (final SweepResult result : report.getResults()) {
+			if (result.getBytesWritten() > 0) {
+				final Path path = Paths.get(result.getPathToStore()).toAbsolutePath().normalize();
+				final File file = path.toFile();
+				written.put(path, new long[] { file.lastModified(), file.length() });
+			}
+		}
+	}
+
+	// Tells whether the keystore is still as the watcher's own sweep left it, so its events came from that sweep.
+	private boolean rewrittenBySweep(final Path path) {
+		final long[] state = written.remove(path);
+		if (state == null) return false;
+		final File file = path.toFile();
+		return file.lastModified() == state[0] && file.length() == state[1];
+	}
+
+	private long removeBefore(final long now) {
+		return now - gracePeriodMillis;
+	}
+
+	private static Path key(final JKSFile file) {
+		return Paths.get(file.getPathToStore()).toAbsolutePath().normalize();
+	}
+}
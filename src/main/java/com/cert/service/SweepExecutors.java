@@ -0,0 +1,153 @@
+package com.cert.service;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import lombok.extern.java.Log;
+
+/**
+ * Creates the executors keystore sweeps run on.
+ *
+ * The application targets Java 8, so virtual threads are reached through reflection and only used when
+ * the running JDK provides them.
+ */
+@Log
+public final class SweepExecutors {
+
+	private static final String THREAD_NAME_PREFIX = "keystore-sweep-";
+
+	private SweepExecutors() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Creates a sweep executor.
+	 *
+	 * @param mode the kind of threads to run keystore tasks on.
+	 * @param parallelism the size of the platform thread pool.
+	 * @param maxInFlight the maximum number of keystores processed at once on virtual threads.
+	 * @return the executor.
+	 */
+	public static ExecutorService create(final ExecutorMode mode, final int parallelism, final int maxInFlight) {
+		if (mode == ExecutorMode.VIRTUAL) {
+			final ThreadFactory factory = virtualThreadFactory();
+			if (factory != null) {
+				log.log(Level.INFO, "Sweeping on virtual threads, at most {0} keystores in flight.", maxInFlight);
+				return limited(newThreadPerTaskExecutor(factory), maxInFlight);
+			}
+			log.log(Level.WARNING, "Virtual threads are not available on Java {0}, using {1} platform threads.",
+					new Object[] { System.getProperty("java.version"), parallelism });
+		}
+		return Executors.newFixedThreadPool(Math.max(1, parallelism), new CustomizableThreadFactory(THREAD_NAME_PREFIX));
+	}
+
+	/**
+	 * Tells whether the running JDK supports virtual threads.
+	 *
+	 * @return true on JDK 21 and later.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreadFactory() != null;
+	}
+
+	// Thread.ofVirtual().name("keystore-sweep-", 0).factory()
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			final Object named = builderType.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(named);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	// Executors.newThreadPerTaskExecutor(factory)
+	private static ExecutorService newThreadPerTaskExecutor(final ThreadFactory factory) {
+		try {
+			final Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) method.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual thread executor could not be created.", e);
+		}
+	}
+
+	/**
+	 * Bounds the number of tasks of an executor running at once. Waiting tasks hold a thread, which is
+	 * cheap with virtual threads, rather than sitting in a queue.
+	 *
+	 * @param delegate the executor running the tasks.
+	 * @param permits the maximum number of tasks running at once.
+	 * @return the bounded executor.
+	 */
+	static ExecutorService limited(final ExecutorService delegate, final int permits) {
+		return new LimitedExecutorService(delegate, Math.max(1, permits));
+	}
+
+	private static final class LimitedExecutorService extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+
+		private LimitedExecutorService(final ExecutorService delegate, final int permits) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(permits);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			delegate.execute(() -> {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					// Interrupted by shutdownNow() before it started: report the task as cancelled.
+					Thread.currentThread().interrupt();
+					if (command instanceof Future) {
+						((Future<?>) command).cancel(false);
+					}
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					permits.release();
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
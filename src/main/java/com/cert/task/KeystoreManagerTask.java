@@ -2,21 +2,58 @@ package com.cert.task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
+import com.cert.cluster.ClusterCoordinator;
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.index.KeystoreIndex;
+import com.cert.jfr.KeystoreEvents;
+import com.cert.jfr.KeystoreTaskEvent;
+import com.cert.journal.UndoJournal;
 import com.cert.keystore.KeystoreManager;
+import com.cert.keystore.KeystoreScanResult;
+import com.cert.keystore.KeystoreScanner;
 import com.cert.model.JKSFile;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.policy.CompiledExpiryPolicy;
 
 import lombok.extern.java.Log;
 
+/**
+ * Sweeps one keystore: reads it, removes its expired entries and writes it back if anything changed.
+ * 
+ * {@link #call()} runs every step on the calling thread. The same work is also split into the stages
+ * {@link #read()}, {@link #parseAndFilter()}, {@link #encode()} and {@link #write()}, so a pipeline can run
+ * the I/O bound and the CPU bound steps on separate pools; each stage tells whether the next one is needed.
+ */
 @Log
 public class KeystoreManagerTask implements Callable<Boolean> {
 
     private final JKSFile jksfile;
+    private final SweepContext context;
+    // Resolved once, so that the scan and the filter of a keystore agree on the time.
+    private final CompiledExpiryPolicy policy;
+    private SweepResult.SweepResultBuilder result;
+    // Spans a whole run, across the pipeline stages; null if Flight Recorder events are not supported.
+    private KeystoreTaskEvent event;
+    private boolean streamed;
+
+    // State handed from one pipeline stage to the next.
+    private File keyStoreFile;
+    private long start;
+    private long readMicros;
+    private byte[] content;
+    private KeystoreManager storeManager;
+    private byte[] encoded;
+    private long encodeMicros;
 
     /**
      * Creates a new KeystoreManagerTask.
@@ -25,52 +62,378 @@ public class KeystoreManagerTask implements Callable<Boolean> {
      * 
      */
     public KeystoreManagerTask(final JKSFile jksfile) {
-        this.jksfile = jksfile;       
+        this(jksfile, SweepContext.defaults());
+    }
+
+    /**
+     * Creates a new KeystoreManagerTask sharing the collaborators of a sweep.
+     * 
+     * @param jksfile - the keystore file.
+     * @param context - the sweep context.
+     * 
+     */
+    public KeystoreManagerTask(final JKSFile jksfile, final SweepContext context) {
+        this.jksfile = jksfile;
+        this.context = context;
+        this.policy = context.getCompiledPolicy();
     }
 
 	@Override
 	public Boolean call() throws Exception {
-		 final File keyStoreFile = new File(jksfile.getPathToStore());
+		final long start = System.nanoTime();
+		final File keyStoreFile = new File(jksfile.getPathToStore());
+		result = SweepResult.builder()
+				.pathToStore(jksfile.getPathToStore())
+				.status(SweepStatus.FAILED);
+		begin();
+		try {
+			if (context.isStreamingScan()) {
+				final KeystoreScanResult scan = scan(keyStoreFile);
+				if (scan != null && !scan.hasExpiredEntries()) {
+					recordScan(keyStoreFile, scan);
+					return true;
+				}
+			}
+			
+			final KeystoreManager storeManager = process(keyStoreFile);
+			recordOutcome(keyStoreFile, storeManager);
+			return storeManager != null;
+		} finally {
+			result.elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			commit();
+		}
+	}
+
+	/**
+	 * First pipeline stage, I/O bound: reads the keystore file into memory.
+	 * 
+	 * @return true if {@link #parseAndFilter()} has to run.
+	 */
+	public boolean read() {
+		start = System.nanoTime();
+		keyStoreFile = new File(jksfile.getPathToStore());
+		result = SweepResult.builder()
+				.pathToStore(jksfile.getPathToStore())
+				.status(SweepStatus.FAILED);
+		begin();
+		try {
+			content = Files.readAllBytes(keyStoreFile.toPath());
+			result.bytesRead(content.length);
+			return true;
+		} catch (IOException e) {
+			failed("Could not read keystore", e);
+			return done(null);
+		} finally {
+			readMicros = micros(start);
+			result.loadMicros(readMicros);
+		}
+	}
+
+	/**
+	 * Second pipeline stage, CPU bound: checks the integrity of the content read, decodes it and removes the
+	 * expired entries.
+	 * 
+	 * @return true if the keystore was modified and {@link #encode()} has to run.
+	 */
+	public boolean parseAndFilter() {
+		final long stageStart = System.nanoTime();
+		try {
+			if (context.isStreamingScan()) {
+				final KeystoreScanResult scan = scan(keyStoreFile, content);
+				if (scan != null && !scan.hasExpiredEntries()) {
+					result.loadMicros(readMicros + micros(stageStart));
+					recordScan(keyStoreFile, scan);
+					return done();
+				}
+			}
+			storeManager = load(() -> new KeystoreManager(keyStoreFile, jksfile.getPasswordArray(), content), stageStart);
+		} finally {
+			// Key material must not outlive the parse.
+			Arrays.fill(content, (byte) 0);
+			content = null;
+		}
+		if (storeManager == null || !filter(keyStoreFile, storeManager)) {
+			return done(null);
+		}
+		return storeManager.isDirty() || done(storeManager);
+	}
+
+	/**
+	 * Third pipeline stage, CPU bound: encodes the modified keystore.
+	 * 
+	 * @return true if {@link #write()} has to run.
+	 */
+	public boolean encode() {
+		final long stageStart = System.nanoTime();
+		try {
+			encoded = storeManager.encode();
+			return true;
+		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+			failed("Unexpected error writing back to keystore", e);
+			return done(null);
+		} finally {
+			encodeMicros = micros(stageStart);
+			result.saveMicros(encodeMicros);
+		}
+	}
+
+	/**
+	 * Last pipeline stage, I/O bound: replaces the keystore file with the encoded keystore.
+	 * 
+	 * @return false, there is no further stage.
+	 */
+	public boolean write() {
+		final long stageStart = System.nanoTime();
+		try {
+			if (!leased(keyStoreFile) || !journal(keyStoreFile, storeManager)) {
+				return done(null);
+			}
+			storeManager.write(encoded);
+			result.bytesWritten(storeManager.getBytesWritten());
+			return done(storeManager);
+		} catch (IOException e) {
+			failed("Unexpected error writing back to keystore", e);
+			return done(null);
+		} finally {
+			encoded = null;
+			result.saveMicros(encodeMicros + micros(stageStart));
+		}
+	}
+
+	/**
+	 * Returns the outcome and measurements of the last call.
+	 * 
+	 * @return the result, or null if the task has not run yet.
+	 */
+	public SweepResult getResult() {
+		return result == null ? null : result.build();
+	}
+
+	// Ends a pipeline run which was completed by recordScan().
+	private boolean done() {
+		result.elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		storeManager = null;
+		commit();
+		return false;
+	}
+
+	// Ends a pipeline run with its outcome; storeManager is null if a step failed.
+	private boolean done(final KeystoreManager outcome) {
+		recordOutcome(keyStoreFile, outcome);
+		return done();
+	}
+
+	private void begin() {
+		streamed = false;
+		event = KeystoreEvents.SUPPORTED ? new KeystoreTaskEvent() : null;
+		if (event != null) event.begin();
+	}
+
+	// Commits the task event with the outcome of the run, unless it is not recorded.
+	private void commit() {
+		final KeystoreTaskEvent ended = event;
+		event = null;
+		if (ended == null || !ended.shouldCommit()) return;
+		final SweepResult outcome = result.build();
+		ended.path = outcome.getPathToStore();
+		ended.status = outcome.getStatus().name();
+		ended.streamed = streamed;
+		ended.bytesRead = outcome.getBytesRead();
+		ended.bytesWritten = outcome.getBytesWritten();
+		ended.entriesScanned = outcome.getEntriesScanned();
+		ended.entriesRemoved = outcome.getEntriesRemoved();
+		ended.message = outcome.getMessage();
+		ended.commit();
+	}
+
+	private void recordScan(final File keyStoreFile, final KeystoreScanResult scan) {
+		streamed = true;
+		log.log(Level.INFO, "No expired certificates found in {0} ({1} entries), skipping load.",
+				new Object[] { keyStoreFile.getAbsolutePath(), scan.getEntryCount() });
+		if (context.getIndex() != null) {
+			context.getIndex().record(keyStoreFile, scan.getEarliestExpiry(), scan.getEntryCount(), scan.getContentHash(),
+					policy.getFingerprint());
+		}
+		if (context.getExpiryIndex() != null) {
+			context.getExpiryIndex().update(keyStoreFile, scan.getCertificates());
+		}
+		result.status(SweepStatus.SUCCESS)
+				.entriesScanned(scan.getEntryCount())
+				.message("Streamed, nothing expired.");
+	}
+
+	private void recordOutcome(final File keyStoreFile, final KeystoreManager storeManager) {
+		final KeystoreIndex index = context.getIndex();
+		final CertificateExpiryIndex expiryIndex = context.getExpiryIndex();
+		try {
+			if (index != null) {
+				if (storeManager != null) {
+					index.record(keyStoreFile, storeManager.getEarliestExpiry(), storeManager.getEntryCount(),
+							storeManager.getContentHash(), policy.getFingerprint());
+				} else {
+					index.remove(keyStoreFile);
+				}
+			}
+		} catch (KeyStoreException e) {
+			// Cannot happen on a loaded store; forget the keystore so it is fully processed next time.
+			index.remove(keyStoreFile);
+		}
+		if (expiryIndex != null) {
+			if (storeManager != null) {
+				expiryIndex.update(keyStoreFile, storeManager.getRetainedCertificates());
+			} else if (!keyStoreFile.exists()) {
+				// A keystore which fails for another reason keeps its last known certificates.
+				expiryIndex.remove(keyStoreFile);
+			}
+		}
+		if (storeManager != null) {
+			result.status(SweepStatus.SUCCESS);
+		}
+	}
+
+	// Streams the keystore; returns null if it has to be fully loaded to find out what to do with it.
+	private KeystoreScanResult scan(final File keyStoreFile) {
+		final long start = System.nanoTime();
+		try {
+			final KeystoreScanResult scan = KeystoreScanner.scan(keyStoreFile, jksfile.getPasswordArray(), policy,
+					context.getExpiryIndex() != null);
+			result.bytesRead(keyStoreFile.length());
+			return scan;
+		} catch (IOException e) {
+			// The full load reports the actual problem.
+			log.log(Level.FINE, "Could not stream keystore {0}: {1}", new Object[] { keyStoreFile.getAbsolutePath(), e.getMessage() });
+			return null;
+		} finally {
+			result.loadMicros(micros(start));
+		}
+	}
+
+	// Scans content already read; returns null if it has to be fully loaded to find out what to do with it.
+	private KeystoreScanResult scan(final File keyStoreFile, final byte[] content) {
+		try {
+			return KeystoreScanner.scan(keyStoreFile, content, jksfile.getPasswordArray(), policy,
+					context.getExpiryIndex() != null);
+		} catch (IOException e) {
+			// The full load reports the actual problem.
+			log.log(Level.FINE, "Could not stream keystore {0}: {1}", new Object[] { keyStoreFile.getAbsolutePath(), e.getMessage() });
+			return null;
+		}
+	}
+
+	// Loads, filters and, if needed, saves the keystore; returns null if any step failed.
+	private KeystoreManager process(final File keyStoreFile) {
  		
-		 KeystoreManager storeManager;
+		 final KeystoreManager storeManager = load(
+				 () -> new KeystoreManager(keyStoreFile, jksfile.getPasswordArray(), context.getLoadMode()), System.nanoTime());
+		 if (storeManager == null || !filter(keyStoreFile, storeManager)) {
+			 return null;
+		 }
+
+	        // Most keystores have nothing expired; rewriting them would only cost I/O and a MAC computation.
+	        if (!storeManager.isDirty()) {
+	            return storeManager;
+	        }
+  	
+	        log.log(Level.INFO, "Started writing back to keystore...");
+	        
+	        final long start = System.nanoTime();
+	        try {
+	            if (!leased(keyStoreFile) || !journal(keyStoreFile, storeManager)) {
+	                return null;
+	            }
+	            storeManager.save();
+	        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+	            return failed("Unexpected error writing back to keystore", e);
+	        } finally {
+	            result.saveMicros(micros(start));
+	        }
+	        result.bytesWritten(storeManager.getBytesWritten());
+		
+		return storeManager;
+	}
+
+	// Creates the keystore manager, which reads and decodes the keystore; returns null if it failed.
+	private KeystoreManager load(final Loader loader, final long start) {
 	        try {
-	            storeManager = new KeystoreManager(keyStoreFile, jksfile.getPasswordArray());
+	            final KeystoreManager storeManager = loader.load();
+	            result.bytesRead(storeManager.getBytesRead());
+	            return storeManager;
 	        } catch (NoSuchAlgorithmException e) {
-	            log.log(Level.SEVERE, "The algorithm used for checking the integrity of the keystore cannot be found: {0}", e.getMessage());
-	            return false;
+	            return failed("The algorithm used for checking the integrity of the keystore cannot be found", e);
 	        } catch (CertificateException e) {
-	            log.log(Level.SEVERE, "Could not load certificate from keystore: {0}", e.getMessage());
-	            return false;
+	            return failed("Could not load certificate from keystore", e);
 	        } catch (KeyStoreException e) {
-	            log.log(Level.SEVERE, "Could not create copy of keystore: {0}", e.getMessage());
-	            return false;
+	            return failed("Could not create copy of keystore", e);
 	        } catch (IOException e) {
-	            log.log(Level.SEVERE, "Incorrect password provided: {0}", e.getMessage());
-	            return false;
+	            return failed("Incorrect password provided", e);
 	        } catch (IllegalArgumentException e) {
-	            log.log(Level.SEVERE, "An error ocurred: {0}", e.getMessage());
-	            return false;
-	        }  
-	        
+	            return failed("An error ocurred", e);
+	        } finally {
+	            result.loadMicros(readMicros + micros(start));
+	        }
+	}
+
+	// Removes the expired entries; returns false if it failed.
+	private boolean filter(final File keyStoreFile, final KeystoreManager storeManager) {
 	        log.log(Level.INFO, "Started removing expired certificates from the keystore...");
 	       
+	        final long start = System.nanoTime();
 	        try {
-	            storeManager.filterExpiredKeys();
+	            result.entriesScanned(storeManager.getEntryCount());
+	            storeManager.setExportRemoved(context.getJournal() != null);
+	            storeManager.setParallelThreshold(context.getParallelFilterThreshold(), context.getParallelFilterPool());
+	            result.entriesRemoved(storeManager.filterExpiredKeys(context.getCertificateCache(), policy));
 	        } catch (KeyStoreException e) {
-	            log.log(Level.SEVERE, "Error removing expired certificate from the store: {0}", e.getMessage());
+	            failed("Error removing expired certificate from the store", e);
 	            return false;
+	        } finally {
+	            result.filterMicros(micros(start));
 	        }
-  	
-	        log.log(Level.INFO, "Started writing back to keystore...");
-	        
-	        try {
-	            storeManager.save();
-	        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
-	            log.log(Level.SEVERE, "Unexpected error writing back to keystore: {0}", e.getMessage());
-	            return false;
+	        if (!storeManager.isDirty()) {
+	            log.log(Level.INFO, "No expired certificates removed from {0}, skipping write.", keyStoreFile.getAbsolutePath());
 	        }
-		
-		return true;
+	        return true;
+	}
+
+	// In a cluster, checks the lease of the keystore is still held right before writing it; returns false if not.
+	private boolean leased(final File keyStoreFile) {
+		final ClusterCoordinator cluster = context.getCluster();
+		if (cluster == null || cluster.holdsLease(keyStoreFile.toPath())) {
+			return true;
+		}
+		log.log(Level.SEVERE, "Lost the lease of {0}, keystore left unchanged.", keyStoreFile.getAbsolutePath());
+		result.status(SweepStatus.FAILED).message("Lost the lease of the keystore, keystore left unchanged.");
+		return false;
+	}
+
+	// Journals the removed entries before the keystore is replaced; returns false if they could not be.
+	private boolean journal(final File keyStoreFile, final KeystoreManager storeManager) {
+		final UndoJournal journal = context.getJournal();
+		if (journal == null) {
+			return true;
+		}
+		try {
+			journal.append(context.getRunId(), keyStoreFile, storeManager.getRemovedEntries());
+			return true;
+		} catch (IOException e) {
+			failed("Could not journal the removed entries, keystore left unchanged", e);
+			return false;
+		}
+	}
+
+	private KeystoreManager failed(final String reason, final Exception e) {
+		log.log(Level.SEVERE, reason + ": {0}", e.getMessage());
+		result.status(SweepStatus.FAILED).message(reason + ": " + e.getMessage());
+		return null;
+	}
+
+	private static long micros(final long start) {
+		return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+	}
+
+	// Creates a keystore manager from the file or from content already read.
+	private interface Loader {
+		KeystoreManager load() throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException;
 	}
 
-}
\ No newline at end of file
+}
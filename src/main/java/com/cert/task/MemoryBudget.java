@@ -0,0 +1,117 @@
+package com.cert.task;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Bounds the heap taken by the keystores being processed at the same time.
+ *
+ * The cost of a keystore is estimated from its file size times a cost factor, covering the bytes read, the
+ * decoded entries and the re-encoded copy. A keystore is only admitted once its cost fits in what the
+ * keystores in flight leave of the budget, and gives it back once it has been saved and released; waiting
+ * keystores are admitted in order, so a large truststore is not starved by small ones. A keystore costing
+ * more than the whole budget is admitted alone.
+ */
+@Log
+public class MemoryBudget {
+
+	// A decoded keystore typically takes a few times its file size; the encoded copy adds one more.
+	public static final int DEFAULT_COST_FACTOR = 4;
+
+	// The budget is counted in KiB, so that an int number of permits covers terabytes.
+	private static final int UNIT = 1024;
+
+	private final Semaphore permits;
+	private final int capacity;
+	@Getter
+	private final int costFactor;
+	private final AtomicLong inUse = new AtomicLong();
+	private final AtomicLong peakInUse = new AtomicLong();
+
+	/**
+	 * Creates a new MemoryBudget.
+	 *
+	 * @param capacityBytes the heap the keystores in flight may take together.
+	 * @param costFactor the estimated heap taken by a keystore per byte of its file.
+	 */
+	public MemoryBudget(final long capacityBytes, final int costFactor) {
+		if (capacityBytes < UNIT) {
+			throw new IllegalArgumentException("The memory budget must be at least 1 KiB.");
+		}
+		if (costFactor <= 0) {
+			throw new IllegalArgumentException("The cost factor must be positive.");
+		}
+		this.capacity = (int) Math.min(Integer.MAX_VALUE, capacityBytes / UNIT);
+		this.costFactor = costFactor;
+		// Fair, so that waiting keystores are admitted in order.
+		this.permits = new Semaphore(capacity, true);
+	}
+
+	/**
+	 * Waits until the estimated cost of a keystore fits in the budget and takes it.
+	 *
+	 * @param file the keystore file.
+	 * @return the cost taken, to be given back with {@link #release(int)}.
+	 * @throws InterruptedException if interrupted while waiting; nothing is taken then.
+	 */
+	public int acquire(final Path file) throws InterruptedException {
+		final int cost = cost(size(file));
+		// Unlike the untimed tryAcquire, a timed one does not barge ahead of the keystores already waiting.
+		if (!permits.tryAcquire(cost, 0, TimeUnit.SECONDS)) {
+			log.log(Level.FINE, "Waiting for {0} KiB of memory budget to load {1}.", new Object[] { cost, file });
+			permits.acquire(cost);
+		}
+		peakInUse.accumulateAndGet(inUse.addAndGet(cost), Math::max);
+		return cost;
+	}
+
+	/**
+	 * Gives back the cost taken for a keystore which has been saved and released.
+	 *
+	 * @param cost the cost returned by {@link #acquire(Path)}.
+	 */
+	public void release(final int cost) {
+		inUse.addAndGet(-cost);
+		permits.release(cost);
+	}
+
+	/**
+	 * Estimates the cost of a keystore.
+	 *
+	 * @param fileSize the size of the keystore file, in bytes.
+	 * @return the cost in KiB, at least 1 and at most the whole budget.
+	 */
+	int cost(final long fileSize) {
+		final long bytes = fileSize > Long.MAX_VALUE / costFactor ? Long.MAX_VALUE : fileSize * costFactor;
+		return (int) Math.max(1, Math.min(capacity, (bytes + UNIT - 1) / UNIT));
+	}
+
+	public long getCapacityBytes() {
+		return (long) capacity * UNIT;
+	}
+
+	public long getInUseBytes() {
+		return inUse.get() * UNIT;
+	}
+
+	public long getPeakInUseBytes() {
+		return peakInUse.get() * UNIT;
+	}
+
+	private static long size(final Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			// The task reports the missing file; it fails before loading anything.
+			return 0;
+		}
+	}
+}
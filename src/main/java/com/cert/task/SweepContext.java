@@ -0,0 +1,119 @@
+package com.cert.task;
+
+import static com.cert.util.Constants.DEFAULT_SWEEP_PARALLELISM;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.cert.cluster.ClusterCoordinator;
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.index.KeystoreIndex;
+import com.cert.journal.UndoJournal;
+import com.cert.keystore.CertificateCache;
+import com.cert.keystore.LoadMode;
+import com.cert.metrics.SweepMetrics;
+import com.cert.policy.CompiledExpiryPolicy;
+import com.cert.policy.ExpiryPolicy;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Collaborators shared by all keystore tasks of a sweep.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class SweepContext {
+
+	// Optional expiry index; when present it is updated by every task and consulted before submitting one.
+	private final KeystoreIndex index;
+	
+	// Optional inventory-wide certificate expiry index; every task replaces the entries of its keystore.
+	private final CertificateExpiryIndex expiryIndex;
+	
+	// When set, JKS/JCEKS files are streamed first and only loaded as a KeyStore if they hold expired entries.
+	private final boolean streamingScan;
+	
+	// How keystores are read when they have to be loaded; STREAM when not set.
+	private final LoadMode loadMode;
+	
+	// Keystores with at least this many entries are evaluated in parallel chunks; 0 when never.
+	private final int parallelFilterThreshold;
+	
+	// Pool the chunks of those keystores are evaluated on; a pool of DEFAULT_SWEEP_PARALLELISM threads when not set.
+	private final ForkJoinPool parallelFilterPool;
+	
+	// Optional metrics registry every keystore result and run report is published to.
+	private final SweepMetrics metrics;
+	
+	// Details of the certificates met in any keystore; the process-wide cache when not set.
+	private final CertificateCache certificateCache;
+	
+	// Which entries are removed; only expired certificates when not set.
+	private final ExpiryPolicy expiryPolicy;
+	
+	// The policy compiled against the clock snapshot of the running sweep, see snapshot(String, long).
+	private final CompiledExpiryPolicy compiledPolicy;
+	
+	// Optional undo journal; when present removed entries are journaled before their keystore is rewritten.
+	private final UndoJournal journal;
+	
+	// Identifier of the running sweep, recorded with every journaled entry.
+	private final String runId;
+	
+	// Optional heap budget; when present keystores are only loaded once their estimated cost fits in it.
+	private final MemoryBudget memoryBudget;
+	
+	// Optional cluster; when present only the keystores of this node are swept, each under a lease.
+	private final ClusterCoordinator cluster;
+
+	public LoadMode getLoadMode() {
+		return loadMode == null ? LoadMode.STREAM : loadMode;
+	}
+
+	public ForkJoinPool getParallelFilterPool() {
+		return parallelFilterPool == null ? DefaultFilterPool.POOL : parallelFilterPool;
+	}
+
+	public CertificateCache getCertificateCache() {
+		return certificateCache == null ? CertificateCache.shared() : certificateCache;
+	}
+
+	public ExpiryPolicy getExpiryPolicy() {
+		return expiryPolicy == null ? ExpiryPolicy.defaults() : expiryPolicy;
+	}
+
+	/**
+	 * Returns the policy every keystore of the sweep is evaluated with; a task running outside of a sweep
+	 * compiles it against the current time.
+	 * 
+	 * @return the compiled policy.
+	 */
+	public CompiledExpiryPolicy getCompiledPolicy() {
+		return compiledPolicy == null ? getExpiryPolicy().compile(System.currentTimeMillis()) : compiledPolicy;
+	}
+
+	/**
+	 * Creates the context of one sweep, whose keystores are all evaluated against the same time.
+	 * 
+	 * @param runId the identifier of the sweep.
+	 * @param now the clock snapshot of the sweep, in epoch milliseconds.
+	 * @return a copy of this context holding the run identifier and the compiled policy.
+	 */
+	public SweepContext snapshot(final String runId, final long now) {
+		return toBuilder().runId(runId).compiledPolicy(getExpiryPolicy().compile(now)).build();
+	}
+
+	/**
+	 * Creates a context without any optional collaborators.
+	 * 
+	 * @return the default context.
+	 */
+	public static SweepContext defaults() {
+		return SweepContext.builder().build();
+	}
+
+	// Created on first use only, as most sweeps never evaluate a keystore in parallel.
+	private static final class DefaultFilterPool {
+		private static final ForkJoinPool POOL = new ForkJoinPool(DEFAULT_SWEEP_PARALLELISM);
+	}
+}
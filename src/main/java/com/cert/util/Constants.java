@@ -1,5 +1,8 @@
 package com.cert.util;
 
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
 /**
 Collected constants of general utility.
 */
@@ -7,6 +10,24 @@ public final class Constants {
 
 	public static final String CSV_FILE = "assets/csv/jksfiles.csv";
 	
+	// Number of keystores processed concurrently when keystore.sweep.parallelism is not set.
+	public static final int DEFAULT_SWEEP_PARALLELISM = 4;
+	
+	// Number of keystores in flight on virtual threads when keystore.sweep.max-in-flight is not set.
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	
+	// Defaults shared by application.properties, the KeystoreService fallbacks and the sweep command.
+	public static final String DEFAULT_INDEX_FILE = "jksIndex.csv";
+	public static final String DEFAULT_EXPIRY_INDEX_FILE = "jksExpiryIndex.csv";
+	public static final String DEFAULT_REPORT_FILE = "jksSweepReport.json";
+	public static final boolean DEFAULT_STREAMING_SCAN = true;
+	public static final String DEFAULT_LOAD_MODE = "CHANNEL";
+	public static final int DEFAULT_PARALLEL_FILTER_THRESHOLD = 10000;
+	
+	// Shared, thread-safe formatter for certificate expiry dates in log messages.
+	public static final DateTimeFormatter EXPIRY_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy")
+			.withZone(ZoneId.systemDefault());
+	
 	/**
 	   The caller references the constants using <tt>Consts.EMPTY_STRING</tt>, 
 	   and so on. Thus, the caller should be prevented from constructing objects of 
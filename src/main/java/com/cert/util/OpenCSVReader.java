@@ -4,10 +4,17 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.cert.keystore.KeystoreFiles;
 import com.cert.model.JKSFile;
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
@@ -21,28 +28,49 @@ public interface OpenCSVReader {
 	 /**
      * Reads entries from the cvs file.
      * 
+     * Rows naming the same keystore, through a different relative path or a symbolic link, are only
+     * returned once; the first row wins.
+     * 
      * @throws IOException if there was an I/O problem with data.
      */
 	// http://zetcode.com/articles/opencsv/
 	public static Set<JKSFile> loadCSVFile(final InputStream inputStream) throws IOException{
 		  
-		final Set<JKSFile> jksFiles = new HashSet<>();
+		final Map<Path, JKSFile> jksFiles = new LinkedHashMap<>();
+		
+		readCSVFile(inputStream, file -> jksFiles.putIfAbsent(KeystoreFiles.canonicalPath(Paths.get(file.getPathToStore())), file));
+		
+		return new LinkedHashSet<>(jksFiles.values());
+	}
+
+	 /**
+     * Reads entries from the cvs file one row at a time, handing each of them to the sink as soon as it is parsed.
+     * Blank rows are ignored; rows without a path and a password are skipped with a warning naming their line.
+     * 
+     * @throws IOException if there was an I/O problem with data.
+     */
+	public static void readCSVFile(final InputStream inputStream, final Consumer<JKSFile> sink) throws IOException{
 		
 		 final CSVParser parser = new CSVParserBuilder().withSeparator(',').build();
+		 final Logger log = Logger.getLogger(OpenCSVReader.class.getName());
 
 		 try (final BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
 	                CSVReader reader = new CSVReaderBuilder(br).withCSVParser(parser)
 	                        .build()) {
 
-	            final List<String[]> rows = reader.readAll();
-
-	            for (final String[] row : rows) {
-	                final JKSFile file = new JKSFile(row[0].toString(),
-	                		row[1].toString().toCharArray());
-	                jksFiles.add(file);                
+	            String[] row;
+	            while ((row = reader.readNext()) != null) {
+	                if (row.length == 1 && row[0].trim().isEmpty()) continue;
+	                if (row.length < 2 || row[0].trim().isEmpty()) {
+	                	// Otherwise a mistyped line would silently leave its keystore unswept; the password is not logged.
+	                	log.log(Level.WARNING, "Skipping inventory line {0}, expected a keystore path and a password: \"{1}\"",
+	                			new Object[] { reader.getLinesRead(), row[0] });
+	                	continue;
+	                }
+	                sink.accept(new JKSFile(row[0],
+	                		row[1].toCharArray()));
 	            }
 	        }
-		 return jksFiles;
 	}
 
 }
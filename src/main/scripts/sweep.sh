@@ -0,0 +1,41 @@
+#!/bin/sh
+# Runs a one-shot sweep from the CLI jar built by "mvn -Pcli package", without the Spring application context.
+#
+# On JDK 13 and later the first run also records the classes it loads into an AppCDS archive next to the jar,
+# and later runs map them from the archive instead of loading and verifying them again; the archive is
+# recreated whenever the jar is rebuilt. JDK 11 and 12 use a class list and an explicit dump instead. JDK 8
+# has no application class data sharing and simply runs the jar.
+#
+# Usage: sweep.sh [sweep options], see com.cert.cli.SweepCommand; JAVA_OPTS is passed to the JVM.
+
+HOME_DIR=${KEYSTORE_CLEANER_HOME:-$(cd "$(dirname "$0")/../../../target" && pwd)}
+JAR="$HOME_DIR/jks-keystore-cleaner-1.0-cli.jar"
+ARCHIVE="$HOME_DIR/jks-keystore-cleaner-cli.jsa"
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+if [ ! -f "$JAR" ]; then
+    echo "No CLI jar at $JAR, build it with: mvn -Pcli package" >&2
+    exit 2
+fi
+
+# 1.8.0_392 gives 1, 17.0.9 gives 17.
+FEATURE=$("$JAVA" -version 2>&1 | sed -n 's/.*version "\([0-9]*\).*/\1/p' | head -n 1)
+
+if [ "$FEATURE" -lt 11 ]; then
+    exec "$JAVA" $JAVA_OPTS -jar "$JAR" "$@"
+fi
+
+if [ -f "$ARCHIVE" ] && [ ! "$JAR" -nt "$ARCHIVE" ]; then
+    exec "$JAVA" $JAVA_OPTS -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -jar "$JAR" "$@"
+fi
+
+# Training run: a real sweep, whose loaded classes are archived.
+rm -f "$ARCHIVE"
+if [ "$FEATURE" -ge 13 ]; then
+    exec "$JAVA" $JAVA_OPTS -XX:ArchiveClassesAtExit="$ARCHIVE" -jar "$JAR" "$@"
+fi
+CLASS_LIST="$HOME_DIR/jks-keystore-cleaner-cli.classlist"
+"$JAVA" $JAVA_OPTS -XX:DumpLoadedClassList="$CLASS_LIST" -jar "$JAR" "$@"
+STATUS=$?
+"$JAVA" -Xshare:dump -XX:SharedClassListFile="$CLASS_LIST" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" > /dev/null
+exit $STATUS
@@ -1,6 +1,12 @@
 package com.cert;
 
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -9,6 +15,33 @@ import org.springframework.test.context.junit4.SpringRunner;
 @SpringBootTest 
 public class SpringBootConsoleApplicationTests {
 
+	// Files the startup sweep writes, kept out of the working directory.
+	private static final String[][] FILES = { { "keystore.index.file", "jksIndex.csv" },
+			{ "keystore.expiry-index.file", "jksExpiryIndex.csv" }, { "keystore.report.file", "jksSweepReport.json" } };
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	   * Points the files of the startup sweep at the temporary folder, before the context is loaded.
+	   */
+	@BeforeClass
+	public static void setup() throws IOException {
+		for (final String[] file : FILES) {
+			System.setProperty(file[0], folder.getRoot().toPath().resolve(file[1]).toString());
+		}
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@AfterClass
+	public static void end() {
+		for (final String[] file : FILES) {
+			System.clearProperty(file[0]);
+		}
+	}
+
 	@Test
 	public void contextLoads() {
 	}
@@ -0,0 +1,77 @@
+package com.cert.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.model.CertificateExpiry;
+
+import lombok.extern.java.Log;
+
+@Log
+public class ExpiringCommandTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that only the certificates expiring within the requested days are listed.
+	 */
+	@Test
+	public void testGivenIndex_whenQueriedByDays_thenOnlyCertificatesInRangeAreListed() throws Exception {
+		final Path indexFile = folder.getRoot().toPath().resolve("expiry.csv");
+		final File store = folder.newFile("store.jks");
+		final long now = System.currentTimeMillis();
+		final CertificateExpiryIndex index = CertificateExpiryIndex.load(indexFile);
+		index.update(store, Arrays.asList(
+				new CertificateExpiry(now + TimeUnit.DAYS.toMillis(5), store.getPath(), "soon", "aa"),
+				new CertificateExpiry(now + TimeUnit.DAYS.toMillis(90), store.getPath(), "later", "bb")));
+		index.save();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		final int exitCode = ExpiringCommand.run(new String[] { "--days", "30", "--index", indexFile.toString() },
+				new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream(), true));
+
+		assertEquals(0, exitCode);
+		final String[] lines = out.toString().trim().split("\n");
+		assertEquals(1, lines.length);
+		assertTrue(lines[0].endsWith("\tsoon\taa"));
+		assertEquals(2, ExpiringCommand.run(new String[] { "--days" }, new PrintStream(out), new PrintStream(out)));
+	}
+}
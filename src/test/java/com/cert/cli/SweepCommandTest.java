@@ -0,0 +1,112 @@
+package com.cert.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class SweepCommandTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that the command sweeps the discovered keystores, saves the indexes and reports the time to the first keystore.
+	 */
+	@Test
+	public void testGivenKeystoreDirectory_whenSwept_thenExpiredEntriesAreRemovedAndTimingReported() throws Exception {
+		final Path keystores = folder.newFolder("keystores").toPath();
+		final File first = KeystoreFixtures.createKeystore(keystores.resolve("first.jks"), "JKS", 2, 1);
+		final File second = KeystoreFixtures.createKeystore(keystores.resolve("second.jks"), "JKS", 1, 0);
+		final Path expiryIndex = folder.getRoot().toPath().resolve("expiry.csv");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		final int exitCode = SweepCommand.run(new String[] { "--csv", "none", "--root", keystores.toString(),
+				"--password", new String(KeystoreFixtures.PASSWORD), "--expiry-index", expiryIndex.toString(), "--streaming-scan" },
+				new PrintStream(out, true), new PrintStream(err, true));
+
+		assertEquals(0, exitCode);
+		assertEquals(2, out.toString().trim().split("\n").length);
+		assertEquals(2, KeystoreFixtures.load(first, "JKS").size());
+		assertEquals(1, KeystoreFixtures.load(second, "JKS").size());
+		assertTrue(Files.isRegularFile(expiryIndex));
+		assertEquals(3, CertificateExpiryIndex.load(expiryIndex).size());
+		assertTrue(err.toString(), err.toString().matches("(?s).*JVM start to first keystore: \\d+ ms\\..*"));
+
+		assertEquals(2, SweepCommand.run(new String[] { "--parallelism", "many" }, new PrintStream(out), new PrintStream(err)));
+	}
+
+	/**
+	 * Test that the policy options are applied, and that a keystore indexed under one policy is swept again
+	 * under another.
+	 */
+	@Test
+	public void testGivenPolicyOptions_whenSwept_thenPolicyIsAppliedAndIndexedWithIt() throws Exception {
+		final Path keystores = folder.newFolder("keystores").toPath();
+		final File file = KeystoreFixtures.createKeystore(keystores.resolve("store.jks"), "JKS", 1, 2);
+		final Path index = folder.getRoot().toPath().resolve("index.csv");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final String[] common = { "--csv", "none", "--root", keystores.toString(), "--password",
+				new String(KeystoreFixtures.PASSWORD), "--index", index.toString() };
+
+		assertEquals(0, SweepCommand.run(concat(common, "--exclude-alias", "EXPIRED-1", "--chain-rule", "WHOLE_CHAIN"),
+				new PrintStream(out, true), new PrintStream(err, true)));
+		assertTrue(KeystoreFixtures.load(file, "JKS").containsAlias("expired-1"));
+		assertEquals(2, KeystoreFixtures.load(file, "JKS").size());
+
+		out.reset();
+		assertEquals(0, SweepCommand.run(common, new PrintStream(out, true), new PrintStream(err, true)));
+		assertTrue(out.toString(), out.toString().startsWith("SUCCESS"));
+		assertEquals(1, KeystoreFixtures.load(file, "JKS").size());
+
+		assertEquals(2, SweepCommand.run(concat(common, "--chain-rule", "ROOT"), new PrintStream(out), new PrintStream(err)));
+	}
+
+	private static String[] concat(final String[] first, final String... second) {
+		final String[] all = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		return all;
+	}
+}
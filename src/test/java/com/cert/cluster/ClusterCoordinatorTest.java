@@ -0,0 +1,237 @@
+package com.cert.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.inventory.InventorySource;
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class ClusterCoordinatorTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private final List<ClusterCoordinator> nodes = new ArrayList<>();
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		executorService = Executors.newFixedThreadPool(4);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		nodes.forEach(ClusterCoordinator::close);
+		executorService.shutdown();
+		executorService.awaitTermination(1, TimeUnit.SECONDS);
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that nodes sharing a directory sweep disjoint shares which together cover the whole inventory.
+	 */
+	@Test
+	public void testGivenTwoNodes_whenBothSweep_thenEachKeystoreIsSweptByOneNode() throws Exception {
+		final List<JKSFile> inventory = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			inventory.add(KeystoreFixtures.jksFile(KeystoreFixtures.createKeystore(
+					folder.getRoot().toPath().resolve("store-" + i + ".jks"), "JKS", 1, 1)));
+		}
+		final ClusterCoordinator a = join("a");
+		final ClusterCoordinator b = join("b");
+
+		final Future<SweepReport> first = executorService.submit(() -> sweep(a, inventory));
+		final Future<SweepReport> second = executorService.submit(() -> sweep(b, inventory));
+
+		final Set<String> swept = new HashSet<>();
+		int total = 0;
+		for (final SweepReport report : Arrays.asList(first.get(), second.get())) {
+			assertTrue(report.getSucceeded() > 0);
+			for (final SweepResult result : report.getResults()) {
+				assertEquals(SweepStatus.SUCCESS, result.getStatus());
+				swept.add(result.getPathToStore());
+				total++;
+			}
+		}
+		assertEquals(20, total);
+		assertEquals(20, swept.size());
+		for (final JKSFile file : inventory) {
+			assertEquals(1, KeystoreFixtures.load(new File(file.getPathToStore()), "JKS").size());
+		}
+		assertEquals(0, folder.getRoot().toPath().resolve("cluster").resolve("leases").toFile().list().length);
+	}
+
+	/**
+	 * Test that a lease excludes other nodes until it is released, and that a stale lease is taken over.
+	 */
+	@Test
+	public void testGivenLeasedKeystore_whenLeasedByAnotherNode_thenRefusedUntilReleasedOrStale() throws Exception {
+		final Path keystore = folder.getRoot().toPath().resolve("shared.jks");
+		final ClusterCoordinator a = join("a");
+		final ClusterCoordinator b = join("b");
+
+		final KeystoreLease lease = a.tryLease(keystore);
+		assertNotNull(lease);
+		assertNull(b.tryLease(keystore));
+		lease.close();
+
+		final KeystoreLease crashed = b.tryLease(keystore);
+		assertNotNull(crashed);
+		Files.setLastModifiedTime(crashed.getFile(), FileTime.fromMillis(System.currentTimeMillis() - 120000));
+		final KeystoreLease takenOver = a.tryLease(keystore);
+		assertNotNull(takenOver);
+
+		// The crashed node must not release the lease of the node which took it over.
+		crashed.close();
+		assertTrue(Files.exists(takenOver.getFile()));
+		takenOver.close();
+		assertFalse(Files.exists(takenOver.getFile()));
+	}
+
+	/**
+	 * Test that two nodes competing for one stale lease never both hold it: a node which checked the stale
+	 * lease after another had already taken it over puts the fresh lease back, and concurrent takeovers leave
+	 * exactly one holder.
+	 */
+	@Test
+	public void testGivenStaleLease_whenTwoNodesTakeItOver_thenOnlyOneHoldsIt() throws Exception {
+		final Path keystore = folder.getRoot().toPath().resolve("shared.jks");
+		final ClusterCoordinator a = join("a");
+		final ClusterCoordinator b = join("b");
+		final ClusterCoordinator crashed = join("c");
+
+		final KeystoreLease stale = crashed.tryLease(keystore);
+		final FileTime expired = FileTime.fromMillis(System.currentTimeMillis() - 120000);
+		Files.setLastModifiedTime(stale.getFile(), expired);
+		// Node a has found the lease stale, then node b takes it over before a moves it away.
+		final byte[] seen = Files.readAllBytes(stale.getFile());
+		final KeystoreLease fresh = b.tryLease(keystore);
+		assertNotNull(fresh);
+		assertFalse(a.takeOver(stale.getFile(), keystore, seen, expired));
+		assertTrue(fresh.isHeld());
+		assertTrue(b.holdsLease(keystore));
+		assertFalse(a.holdsLease(keystore));
+		assertFalse(crashed.holdsLease(keystore));
+		assertEquals(1, folder.getRoot().toPath().resolve("cluster").resolve("leases").toFile().list().length);
+		fresh.close();
+
+		for (int round = 0; round < 50; round++) {
+			Files.write(stale.getFile(), seen);
+			Files.setLastModifiedTime(stale.getFile(), expired);
+			final CountDownLatch ready = new CountDownLatch(4);
+			final List<Future<KeystoreLease>> attempts = new ArrayList<>();
+			for (final ClusterCoordinator node : Arrays.asList(a, b, a, b)) {
+				attempts.add(executorService.submit(() -> {
+					ready.countDown();
+					ready.await();
+					return node.tryLease(keystore);
+				}));
+			}
+			final List<KeystoreLease> held = new ArrayList<>();
+			for (final Future<KeystoreLease> attempt : attempts) {
+				if (attempt.get() != null) held.add(attempt.get());
+			}
+			assertEquals("Holders in round " + round, 1, held.stream().filter(KeystoreLease::isHeld).count());
+			held.forEach(KeystoreLease::close);
+		}
+	}
+
+	/**
+	 * Test that the heartbeat renews the leases of a node, so a keystore which takes longer than the lease TTL
+	 * to process is not taken over, and that a lease stops being held once it is not renewed.
+	 */
+	@Test
+	public void testGivenLongRunningKeystore_whenHeartbeatRenewsLease_thenNotTakenOver() throws Exception {
+		final Path keystore = folder.getRoot().toPath().resolve("shared.jks");
+		final ClusterCoordinator a = join("a", 300);
+		final ClusterCoordinator b = join("b", 300);
+
+		final KeystoreLease lease = a.tryLease(keystore);
+		Thread.sleep(900);
+		assertNull(b.tryLease(keystore));
+		assertTrue(a.holdsLease(keystore));
+
+		// Without heartbeat, the lease expires and the keystore must not be written any more.
+		a.close();
+		Thread.sleep(400);
+		assertFalse(a.holdsLease(keystore));
+		final KeystoreLease takenOver = b.tryLease(keystore);
+		assertNotNull(takenOver);
+		lease.close();
+		assertTrue(takenOver.isHeld());
+		takenOver.close();
+	}
+
+	private ClusterCoordinator join(final String nodeId) throws Exception {
+		return join(nodeId, 60000);
+	}
+
+	private ClusterCoordinator join(final String nodeId, final long ttlMillis) throws Exception {
+		final ClusterCoordinator node = ClusterCoordinator.builder()
+				.directory(folder.getRoot().toPath().resolve("cluster"))
+				.nodeId(nodeId)
+				.nodeTimeoutMillis(60000)
+				.leaseTtlMillis(ttlMillis)
+				.build();
+		node.join();
+		nodes.add(node);
+		return node;
+	}
+
+	private static SweepReport sweep(final ClusterCoordinator node, final List<JKSFile> inventory) {
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			return new KeystoreSweeper(pool, SweepContext.builder().cluster(node).build()).run(InventorySource.of(inventory));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
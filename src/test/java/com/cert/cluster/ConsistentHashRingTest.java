@@ -0,0 +1,79 @@
+package com.cert.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import lombok.extern.java.Log;
+
+@Log
+public class ConsistentHashRingTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that keys are spread evenly and that a node joining only takes keys, never moves them between the others.
+	 */
+	@Test
+	public void testGivenNodeJoining_whenOwnersCompared_thenOnlyKeysOfTheNewNodeMove() {
+		final ConsistentHashRing three = new ConsistentHashRing(Arrays.asList("a", "b", "c"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+		final ConsistentHashRing four = new ConsistentHashRing(Arrays.asList("d", "c", "b", "a"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+		final Map<String, Integer> shares = new HashMap<>();
+		int moved = 0;
+
+		for (int i = 0; i < 10000; i++) {
+			final String key = "/mnt/keystores/app-" + i + ".jks";
+			final String before = three.owner(key);
+			final String after = four.owner(key);
+			shares.merge(before, 1, Integer::sum);
+			if (!before.equals(after)) {
+				assertEquals("d", after);
+				moved++;
+			}
+		}
+
+		for (final int share : shares.values()) {
+			assertTrue("Unbalanced share: " + shares, share > 2500 && share < 4200);
+		}
+		assertTrue("Moved: " + moved, moved > 1500 && moved < 3500);
+	}
+
+	/**
+	 * Test that a ring without node owns nothing.
+	 */
+	@Test
+	public void testGivenNoNode_whenOwnerAsked_thenNull() {
+		assertNull(new ConsistentHashRing(Collections.<String>emptyList(), 8).owner("/mnt/keystores/app.jks"));
+	}
+}
@@ -0,0 +1,107 @@
+package com.cert.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.keystore.CertificateCache;
+import com.cert.model.CertificateExpiry;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class CertificateExpiryIndexTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private Path indexFile;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		indexFile = folder.getRoot().toPath().resolve("expiry.csv");
+		executorService = Executors.newFixedThreadPool(2);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		executorService.shutdown();
+		executorService.awaitTermination(1, TimeUnit.SECONDS);
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that a sweep indexes the kept certificates of streamed and loaded keystores alike.
+	 */
+	@Test
+	public void testGivenSweptKeystores_whenQueried_thenKeptCertificatesAreIndexed() throws Exception {
+		final File streamed = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("streamed.jks"), "JKS", 2, 0);
+		final File loaded = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("loaded.p12"), "PKCS12", 1, 2);
+		final CertificateExpiryIndex index = CertificateExpiryIndex.load(indexFile);
+
+		new KeystoreSweeper(executorService, SweepContext.builder().expiryIndex(index).streamingScan(true).build())
+				.sweep(Arrays.asList(KeystoreFixtures.jksFile(streamed), KeystoreFixtures.jksFile(loaded)));
+
+		final long notAfter = KeystoreFixtures.validCertificate().getNotAfter().getTime();
+		final String fingerprint = CertificateCache.fingerprint(KeystoreFixtures.validCertificate());
+		final List<CertificateExpiry> expiring = index.expiringBetween(notAfter, notAfter + 1);
+		assertEquals(3, expiring.size());
+		assertTrue(expiring.stream().allMatch(e -> e.getAlias().startsWith("valid-") && fingerprint.equals(e.getFingerprint())));
+		assertEquals(2, index.get(streamed).size());
+		assertEquals(1, index.get(loaded).size());
+		assertTrue(index.expiringBetween(0, notAfter).isEmpty());
+	}
+
+	/**
+	 * Test that an update replaces the entries of a keystore and that the index survives a save and load.
+	 */
+	@Test
+	public void testGivenUpdatedKeystore_whenSavedAndLoaded_thenOnlyLatestEntriesAreRestored() throws Exception {
+		final File file = folder.newFile("store.jks");
+		final CertificateExpiryIndex index = CertificateExpiryIndex.load(indexFile);
+		index.update(file, Arrays.asList(new CertificateExpiry(1000L, file.getPath(), "a", "aa"),
+				new CertificateExpiry(3000L, file.getPath(), "b", "bb")));
+		index.update(file, Arrays.asList(new CertificateExpiry(2000L, file.getPath(), "c", "cc")));
+		index.save();
+
+		final CertificateExpiryIndex reloaded = CertificateExpiryIndex.load(indexFile);
+
+		assertEquals(1, reloaded.size());
+		assertEquals("c", reloaded.expiringBetween(2000L, 2001L).get(0).getAlias());
+		assertTrue(reloaded.expiringBetween(0L, 2000L).isEmpty());
+		reloaded.remove(file);
+		assertEquals(0, reloaded.size());
+	}
+}
@@ -0,0 +1,195 @@
+package com.cert.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.keystore.KeystoreFiles;
+import com.cert.model.SweepResult;
+import com.cert.policy.ExpiryPolicy;
+import com.cert.model.SweepStatus;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreIndexTest {
+
+	private static final String POLICY = ExpiryPolicy.defaults().compile(0).getFingerprint();
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private Path indexFile;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		indexFile = folder.getRoot().toPath().resolve("index.csv");
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that recorded entries survive a save and load round trip.
+	 */
+	@Test
+	public void testGivenRecordedEntry_whenSavedAndLoaded_thenEntryIsRestored() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 0);
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		index.record(file, 5000L, 1, null, POLICY);
+		index.save();
+
+		final KeystoreIndex loaded = KeystoreIndex.load(indexFile);
+
+		assertEquals(1, loaded.size());
+		assertEquals(index.get(file), loaded.get(file));
+	}
+
+	/**
+	 * Test that a keystore is only up to date while unchanged and before its earliest expiry.
+	 */
+	@Test
+	public void testGivenRecordedEntry_whenFileOrClockMoves_thenNoLongerUpToDate() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 0);
+		assertTrue(file.setLastModified(file.lastModified() - 10000L));
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		index.record(file, 5000L, 1, null, POLICY);
+
+		assertTrue(index.isUpToDate(file, 4999L, POLICY));
+		assertFalse(index.isUpToDate(file, 5000L, POLICY));
+
+		assertTrue(file.setLastModified(file.lastModified() - 10000L));
+		assertFalse(index.isUpToDate(file, 4999L, POLICY));
+	}
+
+	/**
+	 * Test that a keystore indexed under one expiry policy is not up to date under another, while the clock
+	 * snapshot and the order and case of the alias globs do not change the fingerprint.
+	 */
+	@Test
+	public void testGivenRecordedEntry_whenPolicyChanges_thenNoLongerUpToDate() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 0);
+		assertTrue(file.setLastModified(file.lastModified() - 10000L));
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		index.record(file, 5000L, 1, null, POLICY);
+		index.save();
+		final KeystoreIndex loaded = KeystoreIndex.load(indexFile);
+
+		assertTrue(loaded.isUpToDate(file, 4999L, ExpiryPolicy.defaults().compile(4999L).getFingerprint()));
+		assertFalse(loaded.isUpToDate(file, 4999L,
+				ExpiryPolicy.builder().gracePeriodMillis(1).build().compile(0).getFingerprint()));
+		assertFalse(loaded.isUpToDate(file, 4999L,
+				ExpiryPolicy.builder().excludeAliases(Arrays.asList("pinned-*")).build().compile(0).getFingerprint()));
+		assertEquals(
+				ExpiryPolicy.builder().includeAliases(Arrays.asList("a-*", "B-*")).build().compile(0).getFingerprint(),
+				ExpiryPolicy.builder().includeAliases(Arrays.asList("b-*", "a-*")).build().compile(1).getFingerprint());
+	}
+
+	/**
+	 * Test that a keystore which was only touched is still up to date when its content hash matches.
+	 */
+	@Test
+	public void testGivenTouchedFileWithSameContent_whenChecked_thenUpToDate() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 0);
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		index.record(file, 5000L, 1, KeystoreFiles.contentHash(file.toPath()), POLICY);
+
+		assertTrue(file.setLastModified(file.lastModified() - 10000L));
+		assertTrue(index.isUpToDate(file, 4999L, POLICY));
+		assertEquals(Files.getLastModifiedTime(file.toPath()).toMillis(), index.get(file).getLastModified());
+	}
+
+	/**
+	 * Test that a keystore rewritten to the same size and modification time right after it was recorded is
+	 * told apart by its content hash, while an unchanged one is still up to date.
+	 */
+	@Test
+	public void testGivenRewriteWithinTimestampPrecision_whenChecked_thenContentHashDecides() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 0);
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		index.record(file, 5000L, 1, KeystoreFiles.contentHash(file.toPath()), POLICY);
+		final FileTime recorded = Files.getLastModifiedTime(file.toPath());
+
+		assertTrue(index.isUpToDate(file, 4999L, POLICY));
+
+		final byte[] content = Files.readAllBytes(file.toPath());
+		content[content.length - 1] ^= 1;
+		Files.write(file.toPath(), content);
+		Files.setLastModifiedTime(file.toPath(), recorded);
+
+		assertFalse(index.isUpToDate(file, 4999L, POLICY));
+	}
+
+	/**
+	 * Test that an unreadable index file is ignored.
+	 */
+	@Test
+	public void testGivenCorruptIndexFile_whenLoaded_thenIndexIsEmpty() throws Exception {
+		Files.write(indexFile, Arrays.asList("store.jks,not-a-number,0,0,0"));
+
+		assertEquals(0, KeystoreIndex.load(indexFile).size());
+	}
+
+	/**
+	 * Test that the second sweep over unchanged keystores skips them.
+	 */
+	@Test
+	public void testGivenIndexedKeystores_whenSweptAgain_thenTheyAreSkipped() throws Exception {
+		final File first = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("first.jks"), "JKS", 2, 1);
+		final File second = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("second.jks"), "JKS", 2, 0);
+		final KeystoreIndex index = KeystoreIndex.load(indexFile);
+		final ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			final KeystoreSweeper sweeper = new KeystoreSweeper(executorService, SweepContext.builder().index(index).build());
+
+			final List<SweepResult> firstRun = sweeper.sweep(Arrays.asList(KeystoreFixtures.jksFile(first), KeystoreFixtures.jksFile(second)));
+			assertTrue(firstRun.stream().allMatch(result -> result.getStatus() == SweepStatus.SUCCESS));
+			assertEquals(2, index.get(first).getEntryCount());
+
+			final List<SweepResult> secondRun = sweeper.sweep(Arrays.asList(KeystoreFixtures.jksFile(first), KeystoreFixtures.jksFile(second)));
+			assertTrue(secondRun.stream().allMatch(result -> result.getStatus() == SweepStatus.SKIPPED));
+
+			// Another policy may remove what the previous one kept.
+			final KeystoreSweeper changed = new KeystoreSweeper(executorService, SweepContext.builder().index(index)
+					.expiryPolicy(ExpiryPolicy.builder().removeNotYetValid(true).build()).build());
+			final List<SweepResult> thirdRun = changed.sweep(Arrays.asList(KeystoreFixtures.jksFile(first), KeystoreFixtures.jksFile(second)));
+			assertTrue(thirdRun.stream().allMatch(result -> result.getStatus() == SweepStatus.SUCCESS));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.cert.inventory;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class DirectoryInventorySourceTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private Path root;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() throws Exception {
+		start = System.currentTimeMillis();
+		root = folder.getRoot().toPath();
+		for (final String app : Arrays.asList("app1", "app2", "app3/nested")) {
+			Files.createDirectories(root.resolve(app).resolve("conf"));
+			Files.write(root.resolve(app).resolve("conf").resolve("truststore.jks"), new byte[0]);
+			Files.write(root.resolve(app).resolve("conf").resolve("application.yml"), new byte[0]);
+		}
+		Files.write(root.resolve("cacerts"), new byte[0]);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that name patterns match at any depth and relative patterns only where they point.
+	 */
+	@Test
+	public void testGivenNameAndRelativePatterns_whenDiscovered_thenOnlyMatchingFilesAreFound() throws Exception {
+		assertEquals(new TreeSet<>(Arrays.asList("app1/conf/truststore.jks", "app2/conf/truststore.jks",
+				"app3/nested/conf/truststore.jks", "cacerts")), discover(Collections.singletonList(root), "*.jks", "cacerts"));
+
+		assertEquals(new TreeSet<>(Arrays.asList("app1/conf/truststore.jks", "app2/conf/truststore.jks")),
+				discover(Collections.singletonList(root), "*/conf/*.jks"));
+	}
+
+	/**
+	 * Test that overlapping roots report every keystore once, with the discovery password.
+	 */
+	@Test
+	public void testGivenOverlappingRoots_whenDiscovered_thenEachFileIsFoundOnce() throws Exception {
+		final Set<String> found = discover(Arrays.asList(root, root.resolve("app1")), "truststore.jks");
+
+		assertEquals(3, found.size());
+	}
+
+	private Set<String> discover(final List<Path> roots, final String... patterns) throws Exception {
+		final Set<String> found = ConcurrentHashMap.newKeySet();
+		new DirectoryInventorySource(roots, Arrays.asList(patterns), KeystoreFixtures.PASSWORD).discover(file -> {
+			assertEquals(new String(KeystoreFixtures.PASSWORD), new String(file.getPasswordArray()));
+			if (!found.add(root.relativize(new File(file.getPathToStore()).toPath()).toString().replace(File.separatorChar, '/'))) {
+				throw new AssertionError("Discovered twice: " + file.getPathToStore());
+			}
+		});
+		return new TreeSet<>(found);
+	}
+}
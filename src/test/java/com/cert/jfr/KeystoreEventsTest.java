@@ -0,0 +1,129 @@
+package com.cert.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.KeystoreManagerTask;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreEventsTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		Assume.assumeTrue("Flight Recorder events need JDK 8u262 or later.", KeystoreEvents.SUPPORTED);
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that sweeping a keystore, on one thread and as pipeline stages, records its load, filter, save and
+	 * task events with the path, the byte and entry counts and the outcome.
+	 */
+	@Test
+	public void testGivenRecording_whenKeystoreSwept_thenKeystoreEventsAreRecorded() throws Exception {
+		final File called = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("called.jks"), "JKS", 3, 2);
+		final File staged = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("staged.jks"), "JKS", 4, 1);
+		final long calledBytes = called.length();
+		final Path dump = folder.getRoot().toPath().resolve("sweep.jfr");
+
+		try (final Recording recording = new Recording()) {
+			for (final String event : new String[] { "com.cert.KeystoreLoad", "com.cert.KeystoreFilter",
+					"com.cert.KeystoreSave", "com.cert.KeystoreTask" }) {
+				recording.enable(event).withThreshold(Duration.ZERO);
+			}
+			recording.start();
+			assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(called)).call());
+			final KeystoreManagerTask task = new KeystoreManagerTask(KeystoreFixtures.jksFile(staged));
+			assertTrue(task.read() && task.parseAndFilter() && task.encode());
+			task.write();
+			recording.stop();
+			recording.dump(dump);
+		}
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+
+		final RecordedEvent load = single(events, "com.cert.KeystoreLoad", called);
+		assertEquals("STREAM", load.getString("loadMode"));
+		assertEquals("JKS", load.getString("format"));
+		assertEquals(calledBytes, load.getLong("bytesRead"));
+		assertEquals(5, load.getInt("entries"));
+		assertEquals("success", load.getString("outcome"));
+		assertEquals("CONTENT", single(events, "com.cert.KeystoreLoad", staged).getString("loadMode"));
+
+		final RecordedEvent filter = single(events, "com.cert.KeystoreFilter", called);
+		assertEquals(5, filter.getInt("entriesScanned"));
+		assertEquals(2, filter.getInt("entriesRemoved"));
+		assertEquals("success", filter.getString("outcome"));
+
+		final RecordedEvent save = single(events, "com.cert.KeystoreSave", called);
+		assertEquals("save", save.getString("phase"));
+		assertEquals(called.length(), save.getLong("bytesWritten"));
+		final List<String> phases = named(events, "com.cert.KeystoreSave", staged).stream()
+				.map(event -> event.getString("phase"))
+				.collect(Collectors.toList());
+		assertEquals(2, phases.size());
+		assertTrue(phases.contains("encode") && phases.contains("write"));
+
+		final RecordedEvent task = single(events, "com.cert.KeystoreTask", staged);
+		assertEquals("SUCCESS", task.getString("status"));
+		assertEquals(5, task.getLong("entriesScanned"));
+		assertEquals(1, task.getLong("entriesRemoved"));
+		assertEquals(staged.length(), task.getLong("bytesWritten"));
+		assertEquals(2, single(events, "com.cert.KeystoreTask", called).getLong("entriesRemoved"));
+	}
+
+	private static RecordedEvent single(final List<RecordedEvent> events, final String type, final File file) {
+		final List<RecordedEvent> matching = named(events, type, file);
+		assertEquals(type + " events of " + file, 1, matching.size());
+		return matching.get(0);
+	}
+
+	private static List<RecordedEvent> named(final List<RecordedEvent> events, final String type, final File file) {
+		final List<RecordedEvent> matching = new ArrayList<>();
+		for (final RecordedEvent event : events) {
+			if (event.getEventType().getName().equals(type) && file.getAbsolutePath().equals(event.getString("path"))) {
+				matching.add(event);
+			}
+		}
+		return matching;
+	}
+}
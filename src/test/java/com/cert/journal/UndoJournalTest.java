@@ -0,0 +1,189 @@
+package com.cert.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.cli.RestoreCommand;
+import com.cert.model.RemovedEntry;
+import com.cert.task.KeystoreManagerTask;
+import com.cert.task.SweepContext;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class UndoJournalTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that only the removed entries are journaled, and that the restore command puts them back in each format.
+	 */
+	@Test
+	public void testGivenJournaledSweep_whenRestored_thenRemovedEntriesAreBack() throws Exception {
+		final Path journalFile = folder.getRoot().toPath().resolve("undo.journal");
+		for (final String type : Arrays.asList("JKS", "PKCS12")) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store-" + type), type, 50, 2);
+			KeystoreFixtures.addKeyEntry(file, type, "expired-key", true);
+			final HashSet<String> before = new HashSet<>(Collections.list(KeystoreFixtures.load(file, type).aliases()));
+
+			try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+				assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(file), SweepContext.builder()
+						.journal(journal)
+						.runId("run-" + type)
+						.build()).call());
+			}
+			assertEquals(50, KeystoreFixtures.load(file, type).size());
+
+			// The backup is the size of the removed entries, not of the keystore.
+			final List<RemovedEntry> journaled = UndoJournal.read(journalFile);
+			assertEquals(3, journaled.stream().filter(entry -> entry.getRunId().equals("run-" + type)).count());
+			assertTrue(journaled.stream().filter(entry -> entry.getRunId().equals("run-" + type))
+					.mapToLong(entry -> entry.getEntry().length).sum() < file.length() / 4);
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(0, RestoreCommand.run(new String[] { "--journal", journalFile.toString(), "--run", "run-" + type,
+					"--password", new String(KeystoreFixtures.PASSWORD) }, new PrintStream(out), new PrintStream(new ByteArrayOutputStream())));
+			assertEquals(before, new HashSet<>(Collections.list(KeystoreFixtures.load(file, type).aliases())));
+			assertTrue(KeystoreFixtures.load(file, type).isKeyEntry("expired-key"));
+
+			// Restoring twice leaves the keystore alone.
+			RestoreCommand.run(new String[] { "--journal", journalFile.toString(), "--run", "run-" + type,
+					"--password", new String(KeystoreFixtures.PASSWORD) }, new PrintStream(out), new PrintStream(new ByteArrayOutputStream()));
+			assertEquals(53, KeystoreFixtures.load(file, type).size());
+		}
+	}
+
+	/**
+	 * Test that a record torn by a crash is dropped when the journal is reopened, so later records stay readable.
+	 */
+	@Test
+	public void testGivenTornRecord_whenReopened_thenLaterRecordsAreReadable() throws Exception {
+		final Path journalFile = folder.getRoot().toPath().resolve("undo.journal");
+		final File keystore = new File(folder.getRoot(), "store.jks");
+		try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+			journal.append("first", keystore, Collections.singletonMap("a", new byte[] { 1, 2, 3 }));
+		}
+		final long valid = Files.size(journalFile);
+		Files.write(journalFile, Arrays.copyOf(Files.readAllBytes(journalFile), 20), StandardOpenOption.APPEND);
+
+		assertEquals(1, UndoJournal.read(journalFile).size());
+		try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+			assertEquals(valid, Files.size(journalFile));
+			journal.append("second", keystore, Collections.singletonMap("b", new byte[] { 4 }));
+		}
+
+		final List<RemovedEntry> entries = UndoJournal.read(journalFile);
+		assertEquals(2, entries.size());
+		assertEquals("second", entries.get(1).getRunId());
+		assertEquals(keystore.getAbsolutePath(), entries.get(1).getPathToStore());
+		assertEquals("b", entries.get(1).getAlias());
+	}
+
+	/**
+	 * Test that a journal cannot be opened a second time while it is open, so its tail is never truncated under
+	 * the sweep appending to it.
+	 */
+	@Test
+	public void testGivenOpenJournal_whenOpenedAgain_thenRefused() throws Exception {
+		final Path journalFile = folder.getRoot().toPath().resolve("undo.journal");
+		final File keystore = new File(folder.getRoot(), "store.jks");
+		try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+			journal.append("first", keystore, Collections.singletonMap("a", new byte[] { 1, 2, 3 }));
+			try {
+				UndoJournal.open(journalFile).close();
+				fail("The journal was opened twice.");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("in use"));
+			}
+		}
+
+		try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+			journal.append("second", keystore, Collections.singletonMap("b", new byte[] { 4 }));
+		}
+		assertEquals(2, UndoJournal.read(journalFile).size());
+	}
+
+	/**
+	 * Test that entries removed from a keystore swept through a symbolic link are journaled under its canonical
+	 * path, and restored when the keystore is named either way.
+	 */
+	@Test
+	public void testGivenSymlinkedKeystore_whenRestoredByEitherPath_thenMatchedOnCanonicalPath() throws Exception {
+		final Path journalFile = folder.getRoot().toPath().resolve("undo.journal");
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 5, 2);
+		final Path link = folder.getRoot().toPath().resolve("link.jks");
+		try {
+			Files.createSymbolicLink(link, file.toPath());
+		} catch (UnsupportedOperationException | IOException e) {
+			Assume.assumeNoException("Symbolic links are not supported here.", e);
+		}
+
+		try (final UndoJournal journal = UndoJournal.open(journalFile)) {
+			assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(link.toFile()), SweepContext.builder()
+					.journal(journal)
+					.runId("run")
+					.build()).call());
+		}
+		assertEquals(5, KeystoreFixtures.load(file, "JKS").size());
+		final List<RemovedEntry> journaled = UndoJournal.read(journalFile);
+		assertEquals(2, journaled.size());
+		assertEquals(file.toPath().toRealPath().toString(), journaled.get(0).getPathToStore());
+
+		final PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+		for (final Path named : Arrays.asList(link, file.toPath())) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(0, RestoreCommand.run(new String[] { "--journal", journalFile.toString(), "--keystore", named.toString(),
+					"--list" }, new PrintStream(out), quiet));
+			assertEquals(2, out.toString().split("\n").length);
+		}
+		assertEquals(0, RestoreCommand.run(new String[] { "--journal", journalFile.toString(), "--keystore", link.toString(),
+				"--password", new String(KeystoreFixtures.PASSWORD) }, quiet, quiet));
+		assertEquals(7, KeystoreFixtures.load(file, "JKS").size());
+		assertTrue(Files.isSymbolicLink(link));
+	}
+}
@@ -0,0 +1,145 @@
+package com.cert.keystore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.model.CertificateInfo;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class CertificateCacheTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that the same certificate is described once and evicted in least-recently-used order.
+	 */
+	@Test
+	public void testGivenRepeatedCertificates_whenLookedUp_thenServedFromCacheUntilEvicted() throws Exception {
+		final CertificateCache cache = new CertificateCache(2);
+
+		final CertificateInfo valid = cache.get(KeystoreFixtures.validCertificate());
+		assertSame(valid, cache.get(KeystoreFixtures.validCertificate()));
+		cache.get(KeystoreFixtures.expiredCertificate());
+		// valid is the most recently used, so the expired certificate is evicted.
+		cache.get(KeystoreFixtures.validCertificate());
+		cache.get(KeystoreFixtures.notYetValidCertificate());
+		assertSame(valid, cache.get(KeystoreFixtures.validCertificate()));
+
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		assertEquals(CertificateCache.fingerprint(KeystoreFixtures.validCertificate()), valid.getFingerprint());
+	}
+
+	/**
+	 * Test that a striped cache looked up from many threads at once describes each certificate once it is cached
+	 * and counts every lookup.
+	 */
+	@Test
+	public void testGivenStripedCache_whenLookedUpConcurrently_thenEveryLookupIsCounted() throws Exception {
+		final CertificateCache cache = new CertificateCache(CertificateCache.DEFAULT_MAX_SIZE);
+		final X509Certificate[] certificates = { KeystoreFixtures.validCertificate(), KeystoreFixtures.expiredCertificate(),
+				KeystoreFixtures.notYetValidCertificate() };
+		for (final X509Certificate certificate : certificates) {
+			cache.get(certificate);
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Boolean>> lookups = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				lookups.add(executor.submit(() -> {
+					for (int j = 0; j < 1000; j++) {
+						final X509Certificate certificate = certificates[j % certificates.length];
+						if (!cache.get(certificate).getFingerprint().equals(CertificateCache.fingerprint(certificate))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (final Future<Boolean> lookup : lookups) {
+				assertTrue(lookup.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(3, cache.size());
+		assertEquals(3, cache.getMisses());
+		assertEquals(8000, cache.getHits());
+	}
+
+	/**
+	 * Test that the cached validity window, which the expiry policy is evaluated against, is the one of the
+	 * certificate itself.
+	 */
+	@Test
+	public void testGivenCachedInfo_whenValidityChecked_thenMatchesCertificate() throws Exception {
+		final CertificateCache cache = new CertificateCache(8);
+		for (final X509Certificate certificate : new X509Certificate[] { KeystoreFixtures.validCertificate(),
+				KeystoreFixtures.expiredCertificate(), KeystoreFixtures.notYetValidCertificate() }) {
+			final CertificateInfo info = cache.get(certificate);
+
+			assertEquals(certificate.getNotBefore().getTime(), info.getNotBefore());
+			assertEquals(certificate.getNotAfter().getTime(), info.getNotAfter());
+		}
+	}
+
+	/**
+	 * Test that keystores sharing certificates only miss the cache once per distinct certificate.
+	 */
+	@Test
+	public void testGivenKeystoresSharingCertificates_whenFiltered_thenEachCertificateMissesOnce() throws Exception {
+		final CertificateCache cache = new CertificateCache(8);
+		for (int i = 0; i < 3; i++) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store" + i + ".jks"), "JKS", 4, 2);
+
+			assertEquals(2, new KeystoreManager(file, KeystoreFixtures.PASSWORD).filterExpiredKeys(cache));
+		}
+
+		assertEquals(2, cache.getMisses());
+		assertEquals(16, cache.getHits());
+	}
+}
@@ -0,0 +1,103 @@
+package com.cert.keystore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreFilesTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that buffers released on one thread are borrowed by others, as with one virtual thread per keystore,
+	 * and that no more than the pool size of them are kept.
+	 */
+	@Test
+	public void testGivenBuffersReleased_whenBorrowedOnOtherThreads_thenBoundedPoolIsReused() throws Exception {
+		final int count = KeystoreFiles.POOLED_BUFFERS * 2;
+		final List<byte[]> released = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			// Also empties the pool, which holds at most POOLED_BUFFERS buffers.
+			released.add(KeystoreFiles.borrowBuffer(1024));
+		}
+		released.forEach(KeystoreFiles::releaseBuffer);
+
+		final Set<byte[]> reused = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Set<byte[]> borrowed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+		for (int i = 0; i < count; i++) {
+			final Thread thread = new Thread(() -> borrowed.add(KeystoreFiles.borrowBuffer(1024)));
+			thread.start();
+			thread.join();
+		}
+		for (final byte[] buffer : borrowed) {
+			assertTrue(buffer.length >= 1024);
+			if (released.stream().anyMatch(candidate -> candidate == buffer)) {
+				reused.add(buffer);
+			}
+		}
+		assertEquals(count, borrowed.size());
+		assertEquals(KeystoreFiles.POOLED_BUFFERS, reused.size());
+	}
+
+	/**
+	 * Test that hashing a keystore hands its buffer back to the pool without the keystore bytes in it.
+	 */
+	@Test
+	public void testGivenKeystoreHashed_whenBufferReleased_thenItHoldsNoKeystoreBytes() throws Exception {
+		final Path file = folder.getRoot().toPath().resolve("store.jks");
+		final byte[] content = new byte[8 * 1024];
+		Arrays.fill(content, (byte) 0x5a);
+		Files.write(file, content);
+
+		KeystoreFiles.contentHash(file);
+
+		// Empties the pool, so the buffer of the hash is among the borrowed ones.
+		for (int i = 0; i < KeystoreFiles.POOLED_BUFFERS * 2; i++) {
+			final byte[] buffer = KeystoreFiles.borrowBuffer(1024);
+			for (final byte b : buffer) {
+				assertEquals(0, b);
+			}
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.cert.keystore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.attribute.UserPrincipalNotFoundException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.policy.ExpiryPolicy;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.KeystoreManagerTask;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreManagerTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that a store without expired entries is not marked dirty.
+	 */
+	@Test
+	public void testGivenNoExpiredEntries_whenFiltered_thenStoreIsClean() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("clean.jks"), "JKS", 3, 0);
+		final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+
+		assertEquals(0, manager.filterExpiredKeys());
+		assertFalse(manager.isDirty());
+	}
+
+	/**
+	 * Test that the task leaves a keystore without expired entries untouched.
+	 */
+	@Test
+	public void testGivenNoExpiredEntries_whenTaskRuns_thenFileIsNotRewritten() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("clean.jks"), "JKS", 3, 0);
+		final byte[] before = Files.readAllBytes(file.toPath());
+		assertTrue(file.setLastModified(1000L));
+
+		assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(file)).call());
+
+		assertEquals(1000L, file.lastModified());
+		assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * Test that removing entries marks the store dirty and saving writes it back without leftovers.
+	 */
+	@Test
+	public void testGivenExpiredEntries_whenFilteredAndSaved_thenFileIsReplaced() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("dirty.jks"), "JKS", 2, 3);
+		final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+
+		assertEquals(3, manager.filterExpiredKeys());
+		assertTrue(manager.isDirty());
+
+		manager.save();
+
+		assertFalse(manager.isDirty());
+		assertEquals(2, KeystoreFixtures.load(file, "JKS").size());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	/**
+	 * Test that saving a symlinked keystore replaces the file the link points to and keeps the link.
+	 */
+	@Test
+	public void testGivenSymlinkedKeystore_whenSaved_thenLinkIsKept() throws Exception {
+		final Path real = KeystoreFixtures.createKeystore(
+				folder.newFolder("pki").toPath().resolve("cacerts.jks"), "JKS", 2, 1).toPath();
+		final Path link = folder.getRoot().toPath().resolve("cacerts");
+		try {
+			Files.createSymbolicLink(link, real);
+		} catch (UnsupportedOperationException | IOException e) {
+			Assume.assumeNoException("Symbolic links are not supported here.", e);
+		}
+		final KeystoreManager manager = new KeystoreManager(link.toFile(), KeystoreFixtures.PASSWORD);
+
+		assertEquals(1, manager.filterExpiredKeys());
+		manager.save();
+
+		assertTrue(Files.isSymbolicLink(link));
+		assertEquals(real, link.toRealPath());
+		assertEquals(2, KeystoreFixtures.load(real.toFile(), "JKS").size());
+		assertEquals(1, real.getParent().toFile().list().length);
+	}
+
+	/**
+	 * Test that saving a keystore keeps its permissions, owner and group; changing the owner needs root.
+	 */
+	@Test
+	public void testGivenKeystoreOfAnotherUser_whenSaved_thenOwnershipIsKept() throws Exception {
+		final Path file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("owned.jks"), "JKS", 2, 1).toPath();
+		Assume.assumeNotNull(Files.getFileAttributeView(file, PosixFileAttributeView.class));
+		final UserPrincipalLookupService users = file.getFileSystem().getUserPrincipalLookupService();
+		final UserPrincipal nobody;
+		GroupPrincipal group;
+		try {
+			nobody = users.lookupPrincipalByName("nobody");
+			try {
+				group = users.lookupPrincipalByGroupName("nogroup");
+			} catch (UserPrincipalNotFoundException e) {
+				group = users.lookupPrincipalByGroupName("nobody");
+			}
+			Files.setOwner(file, nobody);
+			Files.getFileAttributeView(file, PosixFileAttributeView.class).setGroup(group);
+		} catch (IOException e) {
+			Assume.assumeNoException("Only root can give a keystore to another user.", e);
+			return;
+		}
+		Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+		final KeystoreManager manager = new KeystoreManager(file.toFile(), KeystoreFixtures.PASSWORD);
+
+		assertEquals(1, manager.filterExpiredKeys());
+		manager.save();
+
+		final PosixFileAttributes attributes = Files.readAttributes(file, PosixFileAttributes.class);
+		assertEquals(nobody, attributes.owner());
+		assertEquals(group, attributes.group());
+		assertEquals("rw-r-----", PosixFilePermissions.toString(attributes.permissions()));
+	}
+
+	/**
+	 * Test that every load mode reads the same store and computes the same content hash as the save.
+	 */
+	@Test
+	public void testGivenEveryLoadMode_whenLoaded_thenSameContentAndHash() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("modes.jks"), "JKS", 2, 1);
+		final String expectedHash = KeystoreFiles.contentHash(file.toPath());
+
+		for (final LoadMode mode : LoadMode.values()) {
+			final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD, mode);
+
+			assertEquals(3, manager.getEntryCount());
+			assertEquals(file.length(), manager.getBytesRead());
+			assertEquals(expectedHash, manager.getContentHash());
+		}
+
+		final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD, LoadMode.CHANNEL);
+		manager.filterExpiredKeys();
+		manager.save();
+
+		assertEquals(file.length(), manager.getBytesWritten());
+		assertEquals(KeystoreFiles.contentHash(file.toPath()), manager.getContentHash());
+	}
+
+	/**
+	 * Test that a keystore loaded in MAPPED mode is unmapped once loaded, so that nothing keeps the file open
+	 * while it is saved, which on Windows would make the atomic replace fail.
+	 */
+	@Test
+	public void testGivenMappedLoad_whenLoaded_thenFileIsNoLongerMapped() throws Exception {
+		final Path maps = Paths.get("/proc/self/maps");
+		Assume.assumeTrue("The mappings of the process cannot be listed here.", Files.isReadable(maps));
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("mapped.jks"), "JKS", 2, 1);
+
+		final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD, LoadMode.MAPPED);
+
+		assertEquals(3, manager.getEntryCount());
+		assertFalse(new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(file.getAbsolutePath()));
+		manager.filterExpiredKeys();
+		manager.save();
+		assertEquals(2, KeystoreFixtures.load(file, "JKS").size());
+	}
+
+	/**
+	 * Test that every format is recognized, loaded with its own type and saved back in the same format.
+	 */
+	@Test
+	public void testGivenEachFormat_whenFilteredAndSaved_thenFormatIsPreserved() throws Exception {
+		for (final KeystoreFormat format : KeystoreFormat.values()) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store." + format), format.getType(), 2, 2);
+			KeystoreFixtures.addKeyEntry(file, format.getType(), "expired-key", true);
+
+			for (final LoadMode mode : LoadMode.values()) {
+				assertEquals(format, new KeystoreManager(file, KeystoreFixtures.PASSWORD, mode).getFormat());
+			}
+			final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+			assertEquals(3, manager.filterExpiredKeys());
+			manager.save();
+
+			final byte[] saved = Files.readAllBytes(file.toPath());
+			assertEquals(format, KeystoreFormat.of(saved, saved.length));
+			assertEquals(2, KeystoreFixtures.load(file, format.getType()).size());
+		}
+	}
+
+	/**
+	 * Test that evaluating a large store in parallel chunks removes and keeps the same entries as one thread does.
+	 */
+	@Test
+	public void testGivenLargeStore_whenFilteredInParallel_thenSameOutcomeAsSerial() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("large.jks"), "JKS", 1500, 700);
+		KeystoreFixtures.addKeyEntry(file, "JKS", "expired-key", true);
+		final long now = System.currentTimeMillis();
+
+		final KeystoreManager serial = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+		final int removed = serial.filterExpiredKeys(new CertificateCache(16), ExpiryPolicy.defaults().compile(now));
+		final KeystoreManager parallel = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setParallelThreshold(1000, pool);
+		parallel.setExportRemoved(true);
+
+		assertEquals(701, removed);
+		try {
+			assertEquals(removed, parallel.filterExpiredKeys(new CertificateCache(16), ExpiryPolicy.defaults().compile(now)));
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(serial.getEntryCount(), parallel.getEntryCount());
+		assertEquals(serial.getEarliestExpiry(), parallel.getEarliestExpiry());
+		assertEquals(serial.getRetainedCertificates(), parallel.getRetainedCertificates());
+		assertEquals(701, parallel.getRemovedEntries().size());
+		assertTrue(parallel.getRemovedEntries().containsKey("expired-key"));
+	}
+}
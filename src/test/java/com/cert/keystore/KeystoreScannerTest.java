@@ -0,0 +1,126 @@
+package com.cert.keystore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.KeystoreManagerTask;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreScannerTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that the scanner finds the same expired entries as a full load, for both streamable formats.
+	 */
+	@Test
+	public void testGivenJksAndJceks_whenScanned_thenExpiredAliasesAreReported() throws Exception {
+		for (final String type : Arrays.asList("JKS", "JCEKS")) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store." + type), type, 2, 2);
+			KeystoreFixtures.addKeyEntry(file, type, "key-valid", false);
+			KeystoreFixtures.addKeyEntry(file, type, "key-expired", true);
+
+			final KeystoreScanResult result = KeystoreScanner.scan(file, KeystoreFixtures.PASSWORD, System.currentTimeMillis());
+
+			assertEquals(KeystoreFormat.valueOf(type), result.getFormat());
+			assertEquals(6, result.getEntryCount());
+			assertEquals(new HashSet<>(Arrays.asList("expired-0", "expired-1", "key-expired")),
+					new HashSet<>(result.getExpiredAliases()));
+			assertEquals(KeystoreFixtures.validCertificate().getNotAfter().getTime(), result.getEarliestExpiry());
+		}
+	}
+
+	/**
+	 * Test that the validity decoded from DER matches the JDK certificate parser.
+	 */
+	@Test
+	public void testGivenCertificate_whenValidityDecoded_thenMatchesJdk() throws Exception {
+		for (final X509Certificate cert : Arrays.asList(KeystoreFixtures.validCertificate(),
+				KeystoreFixtures.expiredCertificate(), KeystoreFixtures.notYetValidCertificate())) {
+			assertArrayEquals(new long[] { cert.getNotBefore().getTime(), cert.getNotAfter().getTime() },
+					KeystoreScanner.validity(cert.getEncoded()));
+		}
+	}
+
+	/**
+	 * Test that a wrong password is detected through the integrity digest.
+	 */
+	@Test(expected = IOException.class)
+	public void testGivenWrongPassword_whenScanned_thenThrowException() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 1);
+
+		KeystoreScanner.scan(file, "wrong".toCharArray(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Test that formats which cannot be streamed are reported as such.
+	 */
+	@Test
+	public void testGivenPkcs12_whenScanned_thenNotStreamable() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.p12"), "PKCS12", 1, 1);
+
+		assertNull(KeystoreScanner.scan(file, KeystoreFixtures.PASSWORD, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Test that the task only rewrites streamed keystores which hold expired entries.
+	 */
+	@Test
+	public void testGivenStreamingScan_whenTaskRuns_thenOnlyExpiredStoresAreRewritten() throws Exception {
+		final SweepContext context = SweepContext.builder().streamingScan(true).build();
+		final File clean = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("clean.jks"), "JKS", 2, 0);
+		final File dirty = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("dirty.jks"), "JKS", 2, 1);
+		final byte[] cleanBefore = Files.readAllBytes(clean.toPath());
+
+		assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(clean), context).call());
+		assertTrue(new KeystoreManagerTask(KeystoreFixtures.jksFile(dirty), context).call());
+
+		assertArrayEquals(cleanBefore, Files.readAllBytes(clean.toPath()));
+		assertEquals(2, KeystoreFixtures.load(dirty, "JKS").size());
+		assertFalse(KeystoreFixtures.load(dirty, "JKS").containsAlias("expired-0"));
+	}
+}
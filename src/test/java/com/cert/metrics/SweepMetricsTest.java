@@ -0,0 +1,110 @@
+package com.cert.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.java.Log;
+
+@Log
+public class SweepMetricsTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		executorService = Executors.newFixedThreadPool(2);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		executorService.shutdown();
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that a sweep publishes its measurements and writes a readable JSON report.
+	 */
+	@Test
+	public void testGivenSweep_whenRun_thenMetricsAndReportAreProduced() throws Exception {
+		final File dirty = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("dirty.jks"), "JKS", 2, 3);
+		final JKSFile wrongPassword = JKSFile.builder()
+				.pathToStore(KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("locked.jks"), "JKS", 1, 0).getAbsolutePath())
+				.passwordArray("wrong".toCharArray())
+				.build();
+		final MeterRegistry registry = new SimpleMeterRegistry();
+		final KeystoreSweeper sweeper = new KeystoreSweeper(executorService,
+				SweepContext.builder().metrics(new SweepMetrics(registry)).build());
+
+		final SweepReport report = sweeper.run(Arrays.asList(KeystoreFixtures.jksFile(dirty), wrongPassword));
+
+		assertEquals(2, report.getKeystores());
+		assertEquals(1, report.getSucceeded());
+		assertEquals(1, report.getFailed());
+		assertEquals(3, report.getEntriesRemoved());
+		assertEquals(dirty.length(), report.getBytesWritten());
+		for (final SweepResult result : report.getResults()) {
+			if (result.getStatus() == SweepStatus.FAILED) {
+				assertTrue(result.getMessage().startsWith("Incorrect password provided"));
+			} else {
+				assertEquals(5, result.getEntriesScanned());
+				assertTrue(result.getSaveMicros() > 0);
+			}
+		}
+
+		assertEquals(3.0, registry.get("keystore.entries.removed").counter().count(), 0.0);
+		assertEquals(1.0, registry.get("keystore.results").tag("status", "FAILED").counter().count(), 0.0);
+		assertEquals(1L, registry.get("keystore.sweep").timer().count());
+		final String summary = new SweepMetrics(registry).summary();
+		assertTrue(summary.contains("keystore.entries.removed count=3"));
+		assertTrue(summary.contains("keystore.results{status=FAILED} count=1"));
+		assertTrue(summary.contains("keystore.sweep count=1 total_time="));
+
+		final Path reportFile = folder.getRoot().toPath().resolve("report.json");
+		SweepReportWriter.write(report, reportFile);
+		final JsonNode json = SweepReportWriter.read(reportFile);
+
+		assertEquals(report.getRunId(), json.get("runId").asText());
+		assertEquals(2, json.get("results").size());
+		assertTrue(json.get("results").get(0).has("loadMicros"));
+	}
+}
@@ -0,0 +1,120 @@
+package com.cert.policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.keystore.CertificateCache;
+import com.cert.keystore.KeystoreManager;
+import com.cert.keystore.KeystoreScanResult;
+import com.cert.keystore.KeystoreScanner;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class ExpiryPolicyTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that the compiled policy applies the grace period, keeps not yet valid certificates by default and
+	 * matches aliases against the include and exclude globs.
+	 */
+	@Test
+	public void testGivenPolicy_whenCompiled_thenRulesAreApplied() {
+		final long now = 1000000000000L;
+		final long day = TimeUnit.DAYS.toMillis(1);
+		final CompiledExpiryPolicy policy = ExpiryPolicy.builder()
+				.gracePeriodMillis(7 * day)
+				.includeAliases(Arrays.asList("app-*", "legacy-??"))
+				.excludeAliases(Arrays.asList("*-pinned"))
+				.build()
+				.compile(now);
+
+		assertFalse(policy.isRemovable(now - 100 * day, now - 3 * day));
+		assertTrue(policy.isRemovable(now - 100 * day, now - 8 * day));
+		assertFalse(policy.isRemovable(now + day, now + 100 * day));
+		assertTrue(ExpiryPolicy.builder().removeNotYetValid(true).build().compile(now).isRemovable(now + day, now + 100 * day));
+		assertEquals(now + 10 * day, policy.removalTime(now + 3 * day));
+		assertEquals(Long.MAX_VALUE, policy.removalTime(Long.MAX_VALUE - day));
+
+		assertTrue(policy.appliesTo("APP-frontend"));
+		assertTrue(policy.appliesTo("legacy-01"));
+		assertFalse(policy.appliesTo("legacy-001"));
+		assertFalse(policy.appliesTo("app-root-pinned"));
+		assertFalse(policy.appliesTo("mozillaroot"));
+		assertTrue(ExpiryPolicy.defaults().compile(now).appliesTo("anything"));
+	}
+
+	/**
+	 * Test that the full load and the streaming scan agree on chains, not yet valid entries and excluded aliases.
+	 */
+	@Test
+	public void testGivenChainAndNotYetValidEntries_whenFiltered_thenLoadAndScanAgree() throws Exception {
+		final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store.jks"), "JKS", 1, 2);
+		KeystoreFixtures.addChainEntry(file, "JKS", "key-expired-issuer");
+		KeystoreFixtures.addNotYetValidEntry(file, "JKS", "future");
+		final long now = System.currentTimeMillis();
+
+		final CompiledExpiryPolicy leaf = ExpiryPolicy.builder()
+				.excludeAliases(Arrays.asList("expired-1"))
+				.build()
+				.compile(now);
+		final CompiledExpiryPolicy wholeChain = ExpiryPolicy.builder()
+				.chainRule(ChainRule.WHOLE_CHAIN)
+				.build()
+				.compile(now);
+
+		final KeystoreScanResult leafScan = KeystoreScanner.scan(file, KeystoreFixtures.PASSWORD, leaf, false);
+		final KeystoreScanResult chainScan = KeystoreScanner.scan(file, KeystoreFixtures.PASSWORD, wholeChain, false);
+		assertNotNull(leafScan);
+		assertEquals(new HashSet<>(Arrays.asList("expired-0")), new HashSet<>(leafScan.getExpiredAliases()));
+		assertEquals(new HashSet<>(Arrays.asList("expired-0", "expired-1", "key-expired-issuer")),
+				new HashSet<>(chainScan.getExpiredAliases()));
+
+		final KeystoreManager manager = new KeystoreManager(file, KeystoreFixtures.PASSWORD);
+		assertEquals(3, manager.filterExpiredKeys(new CertificateCache(16), wholeChain));
+		assertEquals(chainScan.getEarliestExpiry(), manager.getEarliestExpiry());
+		manager.save();
+		assertEquals(new HashSet<>(Arrays.asList("valid-0", "future")),
+				new HashSet<>(Collections.list(KeystoreFixtures.load(file, "JKS").aliases())));
+	}
+}
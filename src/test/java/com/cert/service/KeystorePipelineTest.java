@@ -0,0 +1,166 @@
+package com.cert.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepStatus;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystorePipelineTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private KeystorePipeline pipeline;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		// Queues of one keystore make every stage block on the next one.
+		pipeline = KeystorePipeline.builder()
+				.readThreads(1)
+				.parseThreads(2)
+				.encodeThreads(1)
+				.writeThreads(1)
+				.queueCapacity(1)
+				.ioPerMount(1)
+				.build();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		pipeline.shutdownNow();
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that keystores going through the pipeline stages are cleaned like a single task would, whether they
+	 * need writing back, only a scan, or fail to load.
+	 */
+	@Test
+	public void testGivenMixedKeystores_whenRunThroughPipeline_thenExpiredEntriesAreRemoved() throws Exception {
+		final List<JKSFile> files = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store-" + i + ".jks"), "JKS",
+					2, i % 2);
+			files.add(KeystoreFixtures.jksFile(file));
+		}
+		files.add(KeystoreFixtures.jksFile(new File(folder.getRoot(), "missing.jks")));
+
+		final SweepReport report = new KeystoreSweeper(pipeline, SweepContext.builder().streamingScan(true).build()).run(files);
+
+		assertEquals(9, report.getKeystores());
+		assertEquals(8, report.getSucceeded());
+		assertEquals(1, report.getFailed());
+		assertEquals(4, report.getEntriesRemoved());
+		for (int i = 0; i < 8; i++) {
+			assertEquals(2, KeystoreFixtures.load(new File(files.get(i).getPathToStore()), "JKS").size());
+		}
+		assertEquals(SweepStatus.FAILED, report.getResults().stream()
+				.filter(result -> result.getPathToStore().endsWith("missing.jks"))
+				.findFirst().get().getStatus());
+	}
+
+	/**
+	 * Test that shutting the pipeline down lets submitted keystores finish and rejects new ones.
+	 */
+	@Test
+	public void testGivenShutDownPipeline_whenSwept_thenInFlightFinishAndNewAreCancelled() throws Exception {
+		final File first = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("first.jks"), "JKS", 1, 1);
+		final File second = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("second.jks"), "JKS", 1, 1);
+		final KeystoreSweeper sweeper = new KeystoreSweeper(pipeline, SweepContext.defaults());
+
+		assertEquals(1, sweeper.run(Collections.singletonList(KeystoreFixtures.jksFile(first))).getSucceeded());
+		assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+
+		final SweepReport report = sweeper.run(Collections.singletonList(KeystoreFixtures.jksFile(second)));
+		assertEquals(1, report.getCancelled());
+		assertEquals(2, KeystoreFixtures.load(second, "JKS").size());
+	}
+
+	/**
+	 * Test that a keystore waiting for room in a full stage is rejected when the stage shuts down, instead of being
+	 * queued behind workers which have already exited.
+	 */
+	@Test
+	public void testGivenSubmitterWaitingOnFullStage_whenShutDown_thenKeystoreIsRejected() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ThreadPoolExecutor stage = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(1), KeystorePipeline.BLOCK_WHEN_FULL);
+		final AtomicBoolean ran = new AtomicBoolean();
+		final ExecutorService submitter = Executors.newSingleThreadExecutor();
+		try {
+			stage.execute(() -> {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			running.await();
+			stage.execute(() -> { });
+			final Future<?> waiting = submitter.submit(() -> stage.execute(() -> ran.set(true)));
+			Thread.sleep(200);
+			assertFalse(waiting.isDone());
+
+			stage.shutdown();
+			try {
+				waiting.get(1, TimeUnit.SECONDS);
+				fail("The keystore was queued on a shut down stage.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			release.countDown();
+			assertTrue(stage.awaitTermination(1, TimeUnit.SECONDS));
+			assertFalse(ran.get());
+		} finally {
+			release.countDown();
+			submitter.shutdownNow();
+			stage.shutdownNow();
+		}
+	}
+}
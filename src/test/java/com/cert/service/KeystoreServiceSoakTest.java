@@ -0,0 +1,264 @@
+package com.cert.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cert.SpringBootConsoleApplication;
+import com.cert.keystore.KeystoreFormat;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.support.InventoryGenerator;
+import com.opencsv.CSVWriter;
+
+import lombok.extern.java.Log;
+
+/**
+ * Runs full KeystoreService sweeps over a generated inventory of thousands of keystores, and reports per sweep
+ * the throughput, the p50 and p99 per-keystore latency, and the peak heap and file descriptor usage.
+ *
+ * Only runs with -Psoak, or -Dsoak=true; the size of the inventory is set with the soak.* system properties.
+ * The first sweep loads every keystore and removes the expired entries, the following ones find nothing to do.
+ * One CSV row per sweep is written to soak.report (target/soak-report.csv).
+ */
+@Log
+public class KeystoreServiceSoakTest {
+
+	// Loggers are only weakly referenced, the level must outlive this class initialization.
+	private static final Logger QUIET = Logger.getLogger("com.cert");
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		Assume.assumeTrue("Soak tests only run with -Psoak or -Dsoak=true.", Boolean.getBoolean("soak"));
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that repeated sweeps of a large inventory process every keystore without failures or leaked file
+	 * descriptors, and with the first sweep, which processes every keystore, at the minimum throughput when
+	 * soak.min-throughput is set.
+	 */
+	@Test
+	public void testGivenLargeInventory_whenSweptRepeatedly_thenEveryKeystoreIsProcessed() throws Exception {
+		final Path root = folder.getRoot().toPath();
+		final InventoryGenerator.Inventory inventory = InventoryGenerator.builder()
+				.directory(root.resolve("keystores"))
+				.keystores(Integer.getInteger("soak.keystores", 10000))
+				.minEntries(Integer.getInteger("soak.min-entries", 5))
+				.maxEntries(Integer.getInteger("soak.max-entries", 2000))
+				.expiredRatio(Double.parseDouble(System.getProperty("soak.expired-ratio", "0.02")))
+				.formats(formats(System.getProperty("soak.formats", "JKS,PKCS12")))
+				.seed(Long.getLong("soak.seed", 42))
+				.build()
+				.generate();
+		log.log(Level.INFO, "Generated {0} keystores holding {1} entries, {2} expired, {3} bytes.", new Object[] {
+				inventory.getFiles().size(), inventory.getEntries(), inventory.getExpiredEntries(), inventory.getBytes() });
+		final int sweeps = Integer.getInteger("soak.sweeps", 3);
+		final double minThroughput = Double.parseDouble(System.getProperty("soak.min-throughput", "0"));
+
+		QUIET.setLevel(Level.WARNING);
+		log.setLevel(Level.INFO);
+		final List<String[]> rows = new ArrayList<>();
+		final long fdsBefore = openFileDescriptors();
+		final ResourceSampler sampler = new ResourceSampler();
+		sampler.start();
+		try {
+			// Passed as command line arguments, which take precedence over application.properties.
+			final ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringBootConsoleApplication.class)
+					.bannerMode(Banner.Mode.OFF)
+					.web(false)
+					.run(
+							"--logging.file=" + root.resolve("soak.log"),
+							"--logging.level.com.cert=WARN",
+							"--logging.level." + KeystoreServiceSoakTest.class.getName() + "=INFO",
+							"--keystore.inventory.csv=" + inventory.getCsv(),
+							"--keystore.index.file=" + root.resolve("jksIndex.csv"),
+							"--keystore.expiry-index.file=" + root.resolve("jksExpiryIndex.csv"),
+							"--keystore.report.file=" + root.resolve("jksSweepReport.json"),
+							"--keystore.sweep.parallelism=" + Integer.getInteger("soak.parallelism", 4),
+							"--keystore.sweep.pipeline.enabled=" + Boolean.getBoolean("soak.pipeline"),
+							// The first sweep runs at startup on the scheduler, the following ones are run here.
+							"--keystore.daemon.enabled=true",
+							"--keystore.daemon.interval-seconds=" + TimeUnit.DAYS.toSeconds(1));
+			try {
+				final KeystoreService service = context.getBean(KeystoreService.class);
+				for (int sweep = 1; sweep <= sweeps; sweep++) {
+					final SweepReport report = sweep == 1 ? awaitFirstReport(service) : sweep(service);
+					assertNotNull(report);
+					rows.add(record(sweep, report, sampler.reset()));
+
+					assertEquals(inventory.getFiles().size(), report.getKeystores());
+					assertEquals(0, report.getFailed() + report.getCancelled());
+					assertEquals(sweep == 1 ? inventory.getExpiredEntries() : 0, report.getEntriesRemoved());
+					assertTrue(String.format("Throughput %.1f/s below %.1f/s", report.getThroughputPerSecond(), minThroughput),
+							sweep > 1 || report.getThroughputPerSecond() >= minThroughput);
+				}
+			} finally {
+				context.close();
+			}
+		} finally {
+			sampler.stop();
+			QUIET.setLevel(null);
+			log.setLevel(null);
+			write(Paths.get(System.getProperty("soak.report", "target/soak-report.csv")), rows);
+		}
+		final long fdsAfter = openFileDescriptors();
+		assertTrue(String.format("File descriptors went from %d to %d", fdsBefore, fdsAfter), fdsAfter <= fdsBefore + 16);
+	}
+
+	private static SweepReport awaitFirstReport(final KeystoreService service) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+		while (service.getLastReport() == null && System.nanoTime() < deadline) {
+			Thread.sleep(100);
+		}
+		return service.getLastReport();
+	}
+
+	// The scheduled sweep publishes its report shortly before it lets another sweep start.
+	private static SweepReport sweep(final KeystoreService service) throws InterruptedException {
+		SweepReport report = service.sweep();
+		for (int attempt = 0; report == null && attempt < 100; attempt++) {
+			Thread.sleep(100);
+			report = service.sweep();
+		}
+		return report;
+	}
+
+	private static String[] record(final int sweep, final SweepReport report, final long[] peaks) {
+		final long[] latencies = report.getResults().stream()
+				.filter(result -> result.getStatus() != SweepStatus.SKIPPED)
+				.mapToLong(SweepResult::getElapsedMillis)
+				.sorted()
+				.toArray();
+		final String[] row = { Integer.toString(sweep), Integer.toString(report.getKeystores()),
+				Integer.toString(report.getSkipped()), Long.toString(report.getElapsedMillis()),
+				String.format("%.1f", report.getThroughputPerSecond()), Long.toString(percentile(latencies, 50)),
+				Long.toString(percentile(latencies, 99)), Long.toString(percentile(latencies, 100)),
+				Long.toString(peaks[0] / (1024 * 1024)), Long.toString(peaks[1]) };
+		log.log(Level.INFO, "Sweep {0}: keystores={1} skipped={2} elapsedMs={3} throughput={4}/s p50Ms={5} p99Ms={6}"
+				+ " maxMs={7} peakHeapMb={8} peakFds={9}", (Object[]) row);
+		return row;
+	}
+
+	// Nearest-rank percentile of sorted values, 0 if there are none.
+	private static long percentile(final long[] sorted, final int percentile) {
+		if (sorted.length == 0) return 0;
+		return sorted[Math.max(0, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1)];
+	}
+
+	private static List<KeystoreFormat> formats(final String formats) {
+		final List<KeystoreFormat> parsed = new ArrayList<>();
+		for (final String format : formats.split(",")) {
+			parsed.add(KeystoreFormat.valueOf(format.trim()));
+		}
+		return parsed;
+	}
+
+	private static void write(final Path report, final List<String[]> rows) throws Exception {
+		if (report.toAbsolutePath().getParent() != null) {
+			Files.createDirectories(report.toAbsolutePath().getParent());
+		}
+		try (final BufferedWriter bw = Files.newBufferedWriter(report, StandardCharsets.UTF_8);
+				CSVWriter writer = new CSVWriter(bw)) {
+			writer.writeNext(new String[] { "sweep", "keystores", "skipped", "elapsedMs", "throughputPerSecond",
+					"p50Ms", "p99Ms", "maxMs", "peakHeapMb", "peakFileDescriptors" }, false);
+			writer.writeAll(rows, false);
+		}
+		log.log(Level.INFO, "Soak report written to {0}: {1}", new Object[] { report.toAbsolutePath(), Arrays.deepToString(rows.toArray()) });
+	}
+
+	// -1 where the platform does not report open file descriptors.
+	private static long openFileDescriptors() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		return os instanceof com.sun.management.UnixOperatingSystemMXBean
+				? ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+	}
+
+	// Samples heap usage and open file descriptors, keeping the highest values seen since the last reset.
+	private static final class ResourceSampler implements Runnable {
+		private final Thread thread = new Thread(this, "soak-sampler");
+		private volatile boolean running = true;
+		private long peakHeap;
+		private long peakFds;
+
+		void start() {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			thread.join();
+		}
+
+		// Returns the peak heap bytes and file descriptors since the last reset.
+		synchronized long[] reset() {
+			final long[] peaks = { peakHeap, peakFds };
+			peakHeap = 0;
+			peakFds = 0;
+			return peaks;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				final long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+				final long fds = openFileDescriptors();
+				synchronized (this) {
+					peakHeap = Math.max(peakHeap, heap);
+					peakFds = Math.max(peakFds, fds);
+				}
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
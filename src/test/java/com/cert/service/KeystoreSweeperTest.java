@@ -0,0 +1,145 @@
+package com.cert.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.inventory.InventorySource;
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.model.SweepResult;
+import com.cert.model.SweepStatus;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreSweeperTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		executorService = Executors.newFixedThreadPool(2);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		executorService.shutdown();
+		executorService.awaitTermination(1, TimeUnit.SECONDS);
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that every keystore gets a result and expired entries are removed from each of them.
+	 */
+	@Test
+	public void testGivenSeveralKeystores_whenSwept_thenOneResultPerKeystore() throws Exception {
+		final File first = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("first.jks"), "JKS", 2, 1);
+		final File second = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("second.jks"), "JKS", 1, 2);
+		final File third = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("third.jks"), "JKS", 3, 0);
+
+		final List<SweepResult> results = new KeystoreSweeper(executorService).sweep(Arrays.asList(
+				KeystoreFixtures.jksFile(first), KeystoreFixtures.jksFile(second), KeystoreFixtures.jksFile(third)));
+
+		assertEquals(3, results.size());
+		assertTrue(results.stream().allMatch(SweepResult::isSuccess));
+		assertEquals(2, KeystoreFixtures.load(first, "JKS").size());
+		assertEquals(1, KeystoreFixtures.load(second, "JKS").size());
+		assertEquals(3, KeystoreFixtures.load(third, "JKS").size());
+	}
+
+	/**
+	 * Test that a keystore which cannot be loaded is reported as failed without affecting the others.
+	 */
+	@Test
+	public void testGivenMissingKeystore_whenSwept_thenReportedAsFailed() throws Exception {
+		final File existing = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("existing.jks"), "JKS", 1, 1);
+		final JKSFile missing = KeystoreFixtures.jksFile(new File(folder.getRoot(), "missing.jks"));
+
+		final List<SweepResult> results = new KeystoreSweeper(executorService).sweep(Arrays.asList(
+				KeystoreFixtures.jksFile(existing), missing));
+
+		assertEquals(2, results.size());
+		for (final SweepResult result : results) {
+			if (result.getPathToStore().equals(missing.getPathToStore())) {
+				assertEquals(SweepStatus.FAILED, result.getStatus());
+			} else {
+				assertEquals(SweepStatus.SUCCESS, result.getStatus());
+			}
+		}
+	}
+
+	/**
+	 * Test that nothing is submitted once the sweeper has been stopped.
+	 */
+	@Test
+	public void testGivenStoppedSweeper_whenSwept_thenNothingIsSubmitted() throws Exception {
+		final File existing = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("existing.jks"), "JKS", 1, 0);
+		final KeystoreSweeper sweeper = new KeystoreSweeper(executorService);
+		sweeper.stop();
+
+		assertTrue(sweeper.sweep(Arrays.asList(KeystoreFixtures.jksFile(existing))).isEmpty());
+	}
+
+	/**
+	 * Test that keystores submitted to an executor which is shutting down are reported as cancelled.
+	 */
+	@Test
+	public void testGivenShutDownExecutor_whenSwept_thenReportedAsCancelled() throws Exception {
+		final File existing = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("existing.jks"), "JKS", 1, 0);
+		executorService.shutdown();
+
+		final List<SweepResult> results = new KeystoreSweeper(executorService).sweep(Arrays.asList(KeystoreFixtures.jksFile(existing)));
+
+		assertEquals(1, results.size());
+		assertEquals(SweepStatus.CANCELLED, results.get(0).getStatus());
+	}
+
+	/**
+	 * Test that keystores discovered more than once by a streaming source are swept once.
+	 */
+	@Test
+	public void testGivenSourceRepeatingKeystores_whenRun_thenEachKeystoreIsSweptOnce() throws Exception {
+		final File first = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("first.jks"), "JKS", 1, 1);
+		final File second = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("second.jks"), "JKS", 1, 1);
+		final InventorySource source = InventorySource.concat(
+				InventorySource.of(Arrays.asList(KeystoreFixtures.jksFile(first), KeystoreFixtures.jksFile(second))),
+				InventorySource.of(Arrays.asList(KeystoreFixtures.jksFile(second))));
+
+		final SweepReport report = new KeystoreSweeper(executorService).run(source);
+
+		assertEquals(2, report.getKeystores());
+		assertEquals(2, report.getSucceeded());
+		assertEquals(2, report.getEntriesRemoved());
+	}
+}
@@ -0,0 +1,161 @@
+package com.cert.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.index.CertificateExpiryIndex;
+import com.cert.index.KeystoreIndex;
+import com.cert.model.CertificateExpiry;
+import com.cert.model.SweepReport;
+import com.cert.support.KeystoreFixtures;
+import com.cert.task.SweepContext;
+
+import lombok.extern.java.Log;
+
+@Log
+public class KeystoreWatcherTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		executorService = Executors.newFixedThreadPool(2);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		executorService.shutdown();
+		executorService.awaitTermination(1, TimeUnit.SECONDS);
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that a keystore rewritten with expired entries is cleaned without a full sweep, and that the
+	 * rewrite by that sweep does not trigger another one.
+	 */
+	@Test(timeout = 30000)
+	public void testGivenWatchedKeystore_whenRewritten_thenItIsSweptAgain() throws Exception {
+		final File watched = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("watched.jks"), "JKS", 2, 0);
+		final KeystoreIndex index = KeystoreIndex.load(folder.getRoot().toPath().resolve("index.csv"));
+		final KeystoreSweeper sweeper = new KeystoreSweeper(executorService, SweepContext.builder().index(index).build());
+		sweeper.sweep(Arrays.asList(KeystoreFixtures.jksFile(watched)));
+		final AtomicInteger sweeps = new AtomicInteger();
+
+		try (final KeystoreWatcher watcher = new KeystoreWatcher(files -> {
+			sweeps.incrementAndGet();
+			return sweeper.run(files);
+		}, null, 0, 200)) {
+			watcher.watch(Arrays.asList(KeystoreFixtures.jksFile(watched)));
+			final Thread thread = new Thread(watcher, "keystore-watcher-test");
+			thread.start();
+
+			// A deploy drops in a keystore which holds expired entries.
+			KeystoreFixtures.createKeystore(watched.toPath(), "JKS", 2, 2);
+
+			while (KeystoreFixtures.load(watched, "JKS").size() != 2) {
+				Thread.sleep(100);
+			}
+			assertFalse(KeystoreFixtures.load(watched, "JKS").containsAlias("expired-0"));
+			assertEquals(2, index.get(watched).getEntryCount());
+			Thread.sleep(1000);
+			assertEquals(1, sweeps.get());
+		}
+	}
+
+	/**
+	 * Test that a certificate becoming removable triggers one sweep of its keystore, that the certificates
+	 * the sweep keeps do not trigger again, and that keystores are retried while another sweep runs.
+	 */
+	@Test(timeout = 30000)
+	public void testGivenIndexedExpiry_whenReached_thenKeystoreIsSweptOnce() throws Exception {
+		final File watched = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("expiring.jks"), "JKS", 1, 0);
+		final CertificateExpiryIndex expiryIndex = CertificateExpiryIndex.load(folder.getRoot().toPath().resolve("expiry.csv"));
+		// Kept by the sweep, as if its alias were excluded by the policy.
+		expiryIndex.update(watched, Arrays.asList(new CertificateExpiry(System.currentTimeMillis() + 500,
+				watched.getPath(), "excluded", "00")));
+		final List<Integer> swept = new CopyOnWriteArrayList<>();
+		final AtomicBoolean busy = new AtomicBoolean(true);
+
+		try (final KeystoreWatcher watcher = new KeystoreWatcher(files -> {
+			swept.add(files.size());
+			// The first attempt finds a scheduled sweep running.
+			return busy.getAndSet(false) ? null : SweepReport.builder().results(Collections.emptyList()).build();
+		}, expiryIndex, 0, 200)) {
+			watcher.watch(Arrays.asList(KeystoreFixtures.jksFile(watched)));
+			final Thread thread = new Thread(watcher, "keystore-watcher-test");
+			thread.start();
+
+			while (swept.size() < 2) {
+				Thread.sleep(50);
+			}
+			Thread.sleep(1000);
+			assertEquals(Arrays.asList(1, 1), swept);
+		}
+	}
+
+	/**
+	 * Test that a watcher without debounce blocks while no change or expiry is pending instead of polling, and that
+	 * a negative debounce is refused.
+	 */
+	@Test(timeout = 30000)
+	public void testGivenNothingPending_whenWatching_thenWatcherBlocks() throws Exception {
+		final File watched = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("quiet.jks"), "JKS", 1, 0);
+		final AtomicInteger sweeps = new AtomicInteger();
+
+		try (final KeystoreWatcher watcher = new KeystoreWatcher(files -> {
+			sweeps.incrementAndGet();
+			return SweepReport.builder().results(Collections.emptyList()).build();
+		}, CertificateExpiryIndex.load(folder.getRoot().toPath().resolve("expiry.csv")), 0, 0)) {
+			watcher.watch(Arrays.asList(KeystoreFixtures.jksFile(watched)));
+			final Thread thread = new Thread(watcher, "keystore-watcher-test");
+			thread.start();
+
+			Thread.sleep(500);
+			assertEquals(Thread.State.WAITING, thread.getState());
+			assertEquals(0, sweeps.get());
+		}
+
+		try {
+			new KeystoreWatcher(files -> null, null, 0, -1).close();
+			fail("A negative debounce was accepted.");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("negative"));
+		}
+	}
+}
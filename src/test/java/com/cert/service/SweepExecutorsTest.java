@@ -0,0 +1,93 @@
+package com.cert.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import lombok.extern.java.Log;
+
+@Log
+public class SweepExecutorsTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	private long start;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		if (executorService != null) {
+			executorService.shutdownNow();
+			executorService.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that the virtual mode runs tasks, on virtual threads when the JDK has them and on the platform pool otherwise.
+	 */
+	@Test
+	public void testGivenVirtualMode_whenTasksSubmitted_thenTheyRun() throws Exception {
+		executorService = SweepExecutors.create(ExecutorMode.VIRTUAL, 2, 4);
+
+		final Future<String> thread = executorService.submit(() -> Thread.currentThread().getName());
+
+		assertTrue(thread.get(5, TimeUnit.SECONDS).startsWith("keystore-sweep-"));
+	}
+
+	/**
+	 * Test that the limiter never lets more tasks run at once than it has permits.
+	 */
+	@Test
+	public void testGivenLimitedExecutor_whenManyTasksSubmitted_thenConcurrencyIsBounded() throws Exception {
+		executorService = SweepExecutors.limited(Executors.newCachedThreadPool(), 3);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Future<?>> futures = new ArrayList<>();
+
+		for (int i = 0; i < 20; i++) {
+			futures.add(executorService.submit(() -> {
+				peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+				release.await();
+				running.decrementAndGet();
+				return null;
+			}));
+		}
+		Thread.sleep(200);
+		release.countDown();
+		for (final Future<?> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+
+		assertEquals(3, peak.get());
+	}
+}
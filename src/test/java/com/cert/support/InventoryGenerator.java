@@ -0,0 +1,139 @@
+package com.cert.support;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.cert.keystore.KeystoreFormat;
+import com.opencsv.CSVWriter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Generates a synthetic keystore inventory on local disk, with the CSV listing it.
+ *
+ * Entry counts follow a log-uniform distribution between the minimum and the maximum, so most keystores are
+ * small and a few are large truststores, as in a real inventory. Formats are picked uniformly among the given
+ * ones and each entry is expired with the given probability. Keystores are spread over subdirectories of
+ * {@link #DIRECTORY_SIZE} files; the same seed always generates the same inventory.
+ */
+@Getter
+@Builder
+public class InventoryGenerator {
+
+	public static final int DIRECTORY_SIZE = 1000;
+
+	// Keystores of up to this many entries are encoded once per format and size, then copied.
+	private static final int REUSED_ENTRIES = 256;
+
+	private final Path directory;
+	private final int keystores;
+	private final int minEntries;
+	private final int maxEntries;
+	private final double expiredRatio;
+	private final List<KeystoreFormat> formats;
+	private final long seed;
+
+	public int getMinEntries() {
+		return Math.max(1, minEntries);
+	}
+
+	public int getMaxEntries() {
+		return Math.max(getMinEntries(), maxEntries);
+	}
+
+	public List<KeystoreFormat> getFormats() {
+		return formats == null || formats.isEmpty() ? Arrays.asList(KeystoreFormat.values()) : formats;
+	}
+
+	/**
+	 * Writes the keystores and the CSV listing them, with the fixture password, to inventory.csv.
+	 *
+	 * @return the generated inventory.
+	 * @throws IOException if a file could not be written.
+	 * @throws GeneralSecurityException if a keystore could not be created.
+	 */
+	public Inventory generate() throws IOException, GeneralSecurityException {
+		final Random random = new Random(seed);
+		final List<File> files = new ArrayList<>(keystores);
+		final Map<String, byte[]> encoded = new HashMap<>();
+		final Path scratch = Files.createDirectories(directory).resolve(".scratch");
+		final double spread = Math.log((double) getMaxEntries() / getMinEntries());
+		long entries = 0;
+		long expired = 0;
+		long bytes = 0;
+		for (int i = 0; i < keystores; i++) {
+			final KeystoreFormat format = getFormats().get(random.nextInt(getFormats().size()));
+			final int size = (int) Math.round(getMinEntries() * Math.exp(random.nextDouble() * spread));
+			int stale = 0;
+			for (int e = 0; e < size; e++) {
+				if (random.nextDouble() < expiredRatio) stale++;
+			}
+			final Path subdirectory = Files.createDirectories(directory.resolve(String.format("d%03d", i / DIRECTORY_SIZE)));
+			final Path file = subdirectory.resolve(String.format("store-%05d.%s", i, format.name().toLowerCase()));
+			if (size <= REUSED_ENTRIES) {
+				final int valid = size - stale;
+				final byte[] content = encoded.computeIfAbsent(format + ":" + valid + ":" + (size - valid), key -> create(scratch, format, valid, size - valid));
+				Files.write(file, content);
+			} else {
+				KeystoreFixtures.createKeystore(file, format.getType(), size - stale, stale);
+			}
+			files.add(file.toFile());
+			entries += size;
+			expired += stale;
+			bytes += Files.size(file);
+		}
+		Files.deleteIfExists(scratch);
+
+		final Path csv = directory.resolve("inventory.csv");
+		try (final BufferedWriter bw = Files.newBufferedWriter(csv, StandardCharsets.UTF_8);
+				CSVWriter writer = new CSVWriter(bw)) {
+			final String password = new String(KeystoreFixtures.PASSWORD);
+			for (final File file : files) {
+				writer.writeNext(new String[] { file.getAbsolutePath(), password }, false);
+			}
+		}
+		return new Inventory(csv, Collections.unmodifiableList(files), entries, expired, bytes);
+	}
+
+	private static byte[] create(final Path scratch, final KeystoreFormat format, final int valid, final int expired) {
+		try {
+			return Files.readAllBytes(KeystoreFixtures.createKeystore(scratch, format.getType(), valid, expired).toPath());
+		} catch (IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("Could not create a " + format + " keystore", e);
+		}
+	}
+
+	/**
+	 * A generated inventory.
+	 */
+	@Getter
+	public static final class Inventory {
+		private final Path csv;
+		private final List<File> files;
+		private final long entries;
+		private final long expiredEntries;
+		private final long bytes;
+
+		private Inventory(final Path csv, final List<File> files, final long entries, final long expiredEntries,
+				final long bytes) {
+			this.csv = csv;
+			this.files = files;
+			this.entries = entries;
+			this.expiredEntries = expiredEntries;
+			this.bytes = bytes;
+		}
+	}
+}
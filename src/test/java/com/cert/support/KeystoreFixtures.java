@@ -0,0 +1,185 @@
+package com.cert.support;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cert.model.JKSFile;
+
+/**
+ * Builds keystore fixtures on local disk for tests.
+ *
+ * Template certificates are generated once per JVM through the JDK keytool and then copied
+ * under as many aliases as a fixture needs, so even large keystores are cheap to create.
+ */
+public final class KeystoreFixtures {
+
+	public static final char[] PASSWORD = {'c', 'h', 'a', 'n', 'g', 'e', 'i', 't'};
+
+	private static Templates templates;
+
+	private KeystoreFixtures() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Creates a keystore holding the given number of valid and expired trusted certificates.
+	 * Valid aliases are named valid-N and expired aliases expired-N.
+	 */
+	public static File createKeystore(final Path file, final String storeType, final int valid, final int expired)
+			throws IOException, GeneralSecurityException {
+		final Templates t = templates();
+		final KeyStore store = KeyStore.getInstance(storeType);
+		store.load(null, PASSWORD);
+		for (int i = 0; i < valid; i++) {
+			store.setCertificateEntry("valid-" + i, t.valid);
+		}
+		for (int i = 0; i < expired; i++) {
+			store.setCertificateEntry("expired-" + i, t.expired);
+		}
+		return write(store, file);
+	}
+
+	/**
+	 * Adds a private key entry, whose chain is the valid or the expired template, to an existing keystore.
+	 */
+	public static void addKeyEntry(final File file, final String storeType, final String alias, final boolean expired)
+			throws IOException, GeneralSecurityException {
+		final Templates t = templates();
+		final KeyStore store = load(file, storeType);
+		if (expired) {
+			store.setKeyEntry(alias, t.expiredKey, PASSWORD, new Certificate[] { t.expired });
+		} else {
+			store.setKeyEntry(alias, t.validKey, PASSWORD, new Certificate[] { t.valid });
+		}
+		write(store, file.toPath());
+	}
+
+	/**
+	 * Adds a private key entry whose chain holds the valid template followed by the expired one, as a leaf
+	 * issued by an expired intermediate, to an existing keystore.
+	 */
+	public static void addChainEntry(final File file, final String storeType, final String alias)
+			throws IOException, GeneralSecurityException {
+		final Templates t = templates();
+		final KeyStore store = load(file, storeType);
+		store.setKeyEntry(alias, t.validKey, PASSWORD, new Certificate[] { t.valid, t.expired });
+		write(store, file.toPath());
+	}
+
+	/**
+	 * Adds a trusted certificate entry, whose certificate only becomes valid in ten days, to an existing keystore.
+	 */
+	public static void addNotYetValidEntry(final File file, final String storeType, final String alias)
+			throws IOException, GeneralSecurityException {
+		final KeyStore store = load(file, storeType);
+		store.setCertificateEntry(alias, templates().notYetValid);
+		write(store, file.toPath());
+	}
+
+	/**
+	 * Loads a keystore fixture.
+	 */
+	public static KeyStore load(final File file, final String storeType) throws IOException, GeneralSecurityException {
+		final KeyStore store = KeyStore.getInstance(storeType);
+		try (final InputStream in = new FileInputStream(file)) {
+			store.load(in, PASSWORD);
+		}
+		return store;
+	}
+
+	public static JKSFile jksFile(final File file) {
+		return JKSFile.builder()
+				.pathToStore(file.getAbsolutePath())
+				.passwordArray(PASSWORD.clone())
+				.build();
+	}
+
+	public static X509Certificate validCertificate() throws IOException, GeneralSecurityException {
+		return templates().valid;
+	}
+
+	public static X509Certificate expiredCertificate() throws IOException, GeneralSecurityException {
+		return templates().expired;
+	}
+
+	public static X509Certificate notYetValidCertificate() throws IOException, GeneralSecurityException {
+		return templates().notYetValid;
+	}
+
+	private static File write(final KeyStore store, final Path file) throws IOException, GeneralSecurityException {
+		try (final OutputStream out = new FileOutputStream(file.toFile())) {
+			store.store(out, PASSWORD);
+		}
+		return file.toFile();
+	}
+
+	private static synchronized Templates templates() throws IOException, GeneralSecurityException {
+		if (templates == null) {
+			final Path dir = Files.createTempDirectory("keystore-templates");
+			final File source = dir.resolve("templates.jks").toFile();
+			keytool(source, "valid", "-1d", "3650");
+			keytool(source, "expired", "-10d", "1");
+			keytool(source, "notyetvalid", "+10d", "3650");
+			final KeyStore store = load(source, "JKS");
+			templates = new Templates(
+					(X509Certificate) store.getCertificate("valid"),
+					(PrivateKey) store.getKey("valid", PASSWORD),
+					(X509Certificate) store.getCertificate("expired"),
+					(PrivateKey) store.getKey("expired", PASSWORD),
+					(X509Certificate) store.getCertificate("notyetvalid"));
+			Files.delete(source.toPath());
+			Files.delete(dir);
+		}
+		return templates;
+	}
+
+	private static void keytool(final File store, final String alias, final String startDate, final String validity)
+			throws IOException {
+		final String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		final List<String> command = Arrays.asList(keytool, "-genkeypair", "-noprompt",
+				"-alias", alias, "-keyalg", "RSA", "-keysize", "1024",
+				"-dname", "CN=" + alias + ", O=jks-keystore-cleaner",
+				"-startdate", startDate, "-validity", validity,
+				"-keystore", store.getAbsolutePath(), "-storetype", "JKS",
+				"-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD));
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		try {
+			if (process.waitFor() != 0) {
+				throw new IOException("keytool failed for alias " + alias);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running keytool.", e);
+		}
+	}
+
+	private static final class Templates {
+		private final X509Certificate valid;
+		private final PrivateKey validKey;
+		private final X509Certificate expired;
+		private final PrivateKey expiredKey;
+		private final X509Certificate notYetValid;
+
+		private Templates(final X509Certificate valid, final PrivateKey validKey, final X509Certificate expired,
+				final PrivateKey expiredKey, final X509Certificate notYetValid) {
+			this.valid = valid;
+			this.validKey = validKey;
+			this.expired = expired;
+			this.expiredKey = expiredKey;
+			this.notYetValid = notYetValid;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.cert.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.model.JKSFile;
+import com.cert.model.SweepReport;
+import com.cert.service.KeystoreSweeper;
+import com.cert.support.KeystoreFixtures;
+
+import lombok.extern.java.Log;
+
+@Log
+public class MemoryBudgetTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	private ExecutorService executorService;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+		executorService = Executors.newFixedThreadPool(8);
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() throws InterruptedException {
+		executorService.shutdownNow();
+		executorService.awaitTermination(1, TimeUnit.SECONDS);
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that a keystore waits until the keystores in flight have released enough of the budget, and that a keystore
+	 * larger than the whole budget is still admitted alone.
+	 */
+	@Test
+	public void testGivenBudgetInUse_whenAcquired_thenWaitsForRelease() throws Exception {
+		final Path small = Files.write(folder.getRoot().toPath().resolve("small.jks"), new byte[3 * 1024]);
+		final Path large = Files.write(folder.getRoot().toPath().resolve("large.jks"), new byte[64 * 1024]);
+		final MemoryBudget budget = new MemoryBudget(16 * 1024, 4);
+
+		final int first = budget.acquire(small);
+		assertEquals(12, first);
+		final Future<Integer> second = executorService.submit(() -> budget.acquire(small));
+		try {
+			second.get(200, TimeUnit.MILLISECONDS);
+			throw new AssertionError("The second keystore should wait for the budget.");
+		} catch (TimeoutException e) {
+			assertFalse(second.isDone());
+		}
+
+		budget.release(first);
+		budget.release(second.get(1, TimeUnit.SECONDS));
+		assertEquals(0, budget.getInUseBytes());
+
+		final int whole = budget.acquire(large);
+		assertEquals(16, whole);
+		assertEquals(budget.getCapacityBytes(), budget.getPeakInUseBytes());
+		budget.release(whole);
+	}
+
+	/**
+	 * Test that a large keystore waiting for the budget is admitted before smaller keystores arriving after it,
+	 * even when they would fit in what is left.
+	 */
+	@Test
+	public void testGivenLargeKeystoreWaiting_whenSmallerOnesArrive_thenLargeOneIsAdmittedFirst() throws Exception {
+		final Path medium = Files.write(folder.getRoot().toPath().resolve("medium.jks"), new byte[3 * 1024]);
+		final Path small = Files.write(folder.getRoot().toPath().resolve("small.jks"), new byte[1024]);
+		final Path large = Files.write(folder.getRoot().toPath().resolve("large.jks"), new byte[64 * 1024]);
+		final MemoryBudget budget = new MemoryBudget(16 * 1024, 4);
+
+		final int first = budget.acquire(medium);
+		final Future<Integer> waiting = executorService.submit(() -> budget.acquire(large));
+		assertStillWaiting(waiting);
+		// 4 KiB are free, enough for the small keystore, but the large one asked first.
+		final Future<Integer> later = executorService.submit(() -> budget.acquire(small));
+		assertStillWaiting(later);
+
+		budget.release(first);
+		final int whole = waiting.get(1, TimeUnit.SECONDS);
+		assertEquals(16, whole);
+		assertStillWaiting(later);
+
+		budget.release(whole);
+		budget.release(later.get(1, TimeUnit.SECONDS));
+		assertEquals(0, budget.getInUseBytes());
+	}
+
+	private static void assertStillWaiting(final Future<Integer> acquired) throws Exception {
+		try {
+			acquired.get(200, TimeUnit.MILLISECONDS);
+			throw new AssertionError("The keystore should wait for the budget.");
+		} catch (TimeoutException e) {
+			assertFalse(acquired.isDone());
+		}
+	}
+
+	/**
+	 * Test that a sweep with more threads than the budget allows processes every keystore without exceeding the budget.
+	 */
+	@Test
+	public void testGivenSmallBudget_whenSwept_thenEveryKeystoreIsProcessedWithinBudget() throws Exception {
+		final List<JKSFile> files = new ArrayList<>();
+		long largest = 0;
+		for (int i = 0; i < 12; i++) {
+			final File file = KeystoreFixtures.createKeystore(folder.getRoot().toPath().resolve("store-" + i + ".jks"), "JKS", 2, 1);
+			largest = Math.max(largest, file.length());
+			files.add(KeystoreFixtures.jksFile(file));
+		}
+		// Room for two keystores at a time, while the executor could run eight.
+		final MemoryBudget budget = new MemoryBudget(2 * 4 * largest + 2048, 4);
+
+		final SweepReport report = new KeystoreSweeper(executorService, SweepContext.builder().memoryBudget(budget).build()).run(files);
+
+		assertEquals(12, report.getSucceeded());
+		assertEquals(12, report.getEntriesRemoved());
+		assertEquals(0, budget.getInUseBytes());
+		assertTrue(budget.getPeakInUseBytes() <= budget.getCapacityBytes());
+	}
+}
@@ -2,6 +2,8 @@ package com.cert.util;
 
 import static org.junit.Assert.assertEquals;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.logging.Level;
 
 import org.junit.After;
@@ -9,6 +11,9 @@ import org.junit.Before;
 import org.junit.Rule;
 
 import static com.cert.util.Constants.CSV_FILE;
+import static com.cert.util.Constants.DEFAULT_MAX_IN_FLIGHT;
+import static com.cert.util.Constants.DEFAULT_SWEEP_PARALLELISM;
+import static com.cert.util.Constants.EXPIRY_DATE_FORMATTER;
 
 import org.junit.Test;
 import org.junit.rules.TestName;
@@ -46,5 +51,30 @@ public class ConstantsTest {
 	public void testCSV_FILEConstant() {
 		assertEquals("assets/csv/jksfiles.csv", CSV_FILE);
 	}
+	
+	/**
+	 * Test default sweep parallelism constant.
+   	*/
+	@Test
+	public void testDEFAULT_SWEEP_PARALLELISMConstant() {
+		assertEquals(4, DEFAULT_SWEEP_PARALLELISM);
+	}
+	
+	/**
+	 * Test default maximum of keystores in flight constant.
+   	*/
+	@Test
+	public void testDEFAULT_MAX_IN_FLIGHTConstant() {
+		assertEquals(256, DEFAULT_MAX_IN_FLIGHT);
+	}
+	
+	/**
+	 * Test expiry date formatter constant.
+   	*/
+	@Test
+	public void testEXPIRY_DATE_FORMATTERConstant() {
+		assertEquals("31/12/2030", EXPIRY_DATE_FORMATTER.format(
+				LocalDate.of(2030, 12, 31).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+	}
 
 }
@@ -0,0 +1,128 @@
+package com.cert.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import com.cert.model.JKSFile;
+
+import lombok.extern.java.Log;
+
+@Log
+public class OpenCSVReaderTest {
+
+	@Rule
+	public TestName name = new TestName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long start;
+
+	/**
+	   * Test setup.
+	   */
+	@Before
+	public void setup() {
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	   * Test clean-up.
+	   */
+	@After
+	public void end() {
+		log.log(Level.INFO, String.format("Test %s took %s ms \n", name.getMethodName(), System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Test that rows are handed over one by one, in file order, skipping blank rows.
+	 */
+	@Test
+	public void testGivenRows_whenRead_thenEachRowIsStreamedInOrder() throws Exception {
+		final List<String> paths = new ArrayList<>();
+
+		OpenCSVReader.readCSVFile(csv("first.jks,changeit", "", "second.jks,changeit"), file -> paths.add(file.getPathToStore()));
+
+		assertEquals(2, paths.size());
+		assertEquals("first.jks", paths.get(0));
+		assertEquals("second.jks", paths.get(1));
+	}
+
+	/**
+	 * Test that malformed rows are skipped with a warning naming their line, while the other rows are still read.
+	 */
+	@Test
+	public void testGivenMalformedRows_whenRead_thenEachIsSkippedWithWarning() throws Exception {
+		final List<String> paths = new ArrayList<>();
+		final List<LogRecord> warnings = new ArrayList<>();
+		final Handler handler = new Handler() {
+			@Override
+			public void publish(final LogRecord record) {
+				if (record.getLevel() == Level.WARNING) warnings.add(record);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final Logger logger = Logger.getLogger(OpenCSVReader.class.getName());
+		logger.addHandler(handler);
+		try {
+			OpenCSVReader.readCSVFile(csv("first.jks,changeit", "no-password.jks", "", ",changeit", "second.jks,changeit"),
+					file -> paths.add(file.getPathToStore()));
+		} finally {
+			logger.removeHandler(handler);
+		}
+
+		assertEquals(2, paths.size());
+		assertEquals("second.jks", paths.get(1));
+		assertEquals(2, warnings.size());
+		assertEquals(2L, ((Number) warnings.get(0).getParameters()[0]).longValue());
+		assertEquals("no-password.jks", warnings.get(0).getParameters()[1]);
+		assertEquals(4L, ((Number) warnings.get(1).getParameters()[0]).longValue());
+		assertEquals("", warnings.get(1).getParameters()[1]);
+	}
+
+	/**
+	 * Test that a keystore named through a link, a relative path or a different spelling is loaded once.
+	 */
+	@Test
+	public void testGivenSameKeystoreUnderSeveralNames_whenLoaded_thenItIsLoadedOnce() throws Exception {
+		final Path keystore = Files.write(folder.newFolder("app").toPath().resolve("truststore.jks"), new byte[0]);
+		final Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link.jks"), keystore);
+		final String dotted = folder.getRoot() + File.separator + "app" + File.separator + "." + File.separator + "truststore.jks";
+
+		final Set<JKSFile> files = OpenCSVReader.loadCSVFile(csv(keystore + ",changeit", link + ",changeit", dotted + ",changeit"));
+
+		assertEquals(1, files.size());
+		assertEquals(keystore.toString(), files.iterator().next().getPathToStore());
+	}
+
+	private static InputStream csv(final String... rows) {
+		return new ByteArrayInputStream(String.join("\n", rows).getBytes(StandardCharsets.UTF_8));
+	}
+}